@@ -26,19 +26,42 @@ THE SOFTWARE.
 
 package ch.epfl.lis.wingj;
 
+import ij.IJ;
 import ij.ImagePlus;
+import ij.io.FileSaver;
 
+import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /** 
  * Image manager for WingJ for handling multiple ImagePlus objects.
  * <p>
  * ImagePlusManager makes use of the Singleton design pattern. There's at most one
  * instance present, which can only be accessed through getInstance().
+ * <p>
+ * The images are indexed by name and the methods of the manager are thread-safe
+ * so that images can be registered from several threads. The manager keeps track
+ * of the memory used by the pixels of the images. When the memory budget is exceeded,
+ * the least recently used images which are neither pinned nor displayed are saved to
+ * a temporary TIFF file and evicted, i.e. the manager releases its reference to them.
+ * getImage() reloads them if they are not in memory anymore. The files are written
+ * and read without holding the lock of the manager. Images which can not be saved
+ * are kept in memory.
+ * <p>
+ * Spilling is disabled by default (see setSpill()): all the images are then kept in
+ * memory. The image stacks and projections are pinned when they are registered since
+ * they are used all the time. The size of an image is computed when it is registered;
+ * setModified() must be called after modifying the pixels or the dimensions of a
+ * registered image so that its size is updated and it is not reloaded from an
+ * outdated temporary file.
  * 
- * @version October 21, 2012
+ * @version October 19, 2026
  * 
  * @author Thomas Schaffter (thomas.schaff...@gmail.com)
  */
@@ -47,8 +70,17 @@ public class ImagePlusManager {
 	/** The unique instance of ImagePlusManager (Singleton design pattern). */
 	private static ImagePlusManager instance_ = null;
 	
-	/** Images to manage. */
-	private List<Item> items_ = null;
+	/** Images to manage indexed by name (in insertion order). */
+	private Map<String, Item> items_ = null;
+	
+	/** Memory budget in bytes for the pixels of the images in memory (0 = unlimited). */
+	private long memoryBudget_ = Runtime.getRuntime().maxMemory() / 2;
+	/** Memory in bytes used by the images in memory. */
+	private long memoryUsed_ = 0;
+	/** If false, images are never evicted. */
+	private boolean spill_ = false;
+	/** Logical clock used to find the least recently used images. */
+	private long clock_ = 0;
 	
 	// ============================================================================
 	// PRIVATE METHODS
@@ -56,7 +88,7 @@ public class ImagePlusManager {
 	/** Default constructor. */
 	private ImagePlusManager() {
 		
-		items_ = new ArrayList<Item>();
+		items_ = new LinkedHashMap<String, Item>();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -64,9 +96,9 @@ public class ImagePlusManager {
 	/** Closes all image but don't remove the references. */
 	private void closeAll() {
 		
-		int n = items_.size();
-		for (int i = 0; i < n; i++)
-			items_.get(i).close();
+		for (Item item : items_.values())
+			item.close();
+		memoryUsed_ = 0;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -74,12 +106,7 @@ public class ImagePlusManager {
 	/** Returns the MyImagePlus item matching the given name. */
 	private Item getItem(String name) {
 		
-		int n = items_.size();
-		for (int i = 0; i < n; i++) {
-			if (items_.get(i).name_.compareTo(name) == 0)
-				return items_.get(i);
-		}
-		return null;
+		return items_.get(name);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -87,20 +114,214 @@ public class ImagePlusManager {
 	/** Returns the MyImagePlus items containing the given sub string. */
 	private List<Item> getItemsContainingSubString(String substr) {
 		
-		int n = items_.size();
 		List<Item> list = new ArrayList<Item>();
-		for (int i = 0; i < n; i++) {
-			if (items_.get(i).name_.contains(substr))
-				list.add(items_.get(i));
+		for (Item item : items_.values()) {
+			if (item.name_.contains(substr))
+				list.add(item);
 		}
 		return list;
 	}
 	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the item at the given index (insertion order), or null if not found. */
+	private Item getItem(int index) {
+		
+		if (index < 0 || index >= items_.size())
+			return null;
+		
+		Iterator<Item> it = items_.values().iterator();
+		for (int i = 0; i < index; i++)
+			it.next();
+		return it.next();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Closes the given item and removes it from the manager. */
+	private void remove(Item item) {
+		
+		if (item.isResident())
+			memoryUsed_ -= item.size_;
+		item.close();
+		items_.remove(item.name_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the image of the given item and marks it as the most recently used.
+	 * If the image has been evicted, it is reloaded (outside of the lock of the manager
+	 * if it has to be read from its temporary file). Returns null if the item has been
+	 * removed in the meantime or if its temporary file can not be read.
+	 */
+	private ImagePlus access(Item item) {
+		
+		ImagePlus image = null;
+		File file = null;
+		synchronized (this) {
+			item.lastAccess_ = ++clock_;
+			if (item.isResident())
+				return item.image_;
+			image = (item.evicted_ != null ? item.evicted_.get() : null);
+			file = item.spillFile_;
+		}
+		
+		if (image == null && file != null)
+			image = load(item.name_, file);
+		
+		List<Item> victims = null;
+		synchronized (this) {
+			if (item.isResident()) // reloaded by another thread in the meantime
+				return item.image_;
+			if (items_.get(item.name_) != item) // removed in the meantime
+				return null;
+			if (image == null) {
+				WJSettings.log("ERROR: Unable to reload image " + item.name_ + " from its temporary file.");
+				return null;
+			}
+			item.restore(image);
+			memoryUsed_ += item.size_;
+			victims = selectEvictions(item);
+		}
+		spill(victims);
+		
+		return image;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Selects the least recently used images to evict until the memory used is within
+	 * the budget. The given item (can be null) is never selected, nor are pinned or displayed
+	 * images. The selected items are marked as being spilled and must be passed to spill()
+	 * once the lock of the manager has been released. Images are only evicted if they can
+	 * be saved to a temporary file, i.e. the budget is not enforced if spilling is disabled.
+	 */
+	private List<Item> selectEvictions(Item keep) {
+		
+		List<Item> victims = new ArrayList<Item>();
+		if (memoryBudget_ <= 0 || !spill_ || memoryUsed_ <= memoryBudget_)
+			return victims;
+		
+		// the images already being spilled by another thread do not count
+		long used = memoryUsed_;
+		for (Item item : items_.values()) {
+			if (item.isResident() && item.spilling_)
+				used -= item.size_;
+		}
+		
+		while (used > memoryBudget_) {
+			Item lru = null;
+			for (Item item : items_.values()) {
+				if (item != keep && item.isEvictable() && (lru == null || item.lastAccess_ < lru.lastAccess_))
+					lru = item;
+			}
+			if (lru == null)
+				break; // nothing can be evicted
+			
+			lru.spilling_ = true;
+			lru.spillModCount_ = lru.modCount_;
+			used -= lru.size_;
+			victims.add(lru);
+		}
+		return victims;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Saves the given items to temporary files and evicts them. Must be called without
+	 * holding the lock of the manager. The images which can not be saved are kept in memory.
+	 */
+	private void spill(List<Item> victims) {
+		
+		for (Item item : victims) {
+			ImagePlus image = null;
+			synchronized (this) {
+				image = item.image_;
+			}
+			
+			File file = (image != null ? save(image) : null);
+			
+			synchronized (this) {
+				item.spilling_ = false;
+				if (items_.get(item.name_) != item || item.image_ != image || image == null || !item.isEvictable() || item.modCount_ != item.spillModCount_) {
+					// removed, replaced, pinned, displayed or modified in the meantime
+					if (file != null)
+						file.delete();
+				} else if (file == null) {
+					item.unspillable_ = true;
+					WJSettings.log("WARNING: Unable to save image " + item.name_ + " to a temporary file, the image is kept in memory.");
+				} else {
+					memoryUsed_ -= item.size_;
+					item.evict(file);
+				}
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Saves the given image to a temporary TIFF file. Returns null if the image can not be saved. */
+	private static File save(ImagePlus image) {
+		
+		try {
+			File file = File.createTempFile("wingj_", ".tif");
+			file.deleteOnExit();
+			FileSaver saver = new FileSaver(image);
+			boolean saved = (image.getStackSize() > 1 ? saver.saveAsTiffStack(file.getAbsolutePath()) : saver.saveAsTiff(file.getAbsolutePath()));
+			if (saved)
+				return file;
+			file.delete();
+		} catch (Exception e) {
+			// the image is kept in memory
+		}
+		return null;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Opens the image saved in the given temporary file. Returns null if the file can not be read. */
+	private static ImagePlus load(String name, File file) {
+		
+		ImagePlus image = IJ.openImage(file.getAbsolutePath());
+		if (image != null)
+			image.setTitle(name);
+		return image;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the size in bytes of the pixels of the given image. */
+	private static long getSizeInBytes(ImagePlus image) {
+		
+		if (image == null || image.getProcessor() == null)
+			return 0;
+		
+		return (long) image.getWidth() * image.getHeight() * image.getStackSize() * image.getBytesPerPixel();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Shows the image of the given item (reloaded if required). */
+	private void show(Item item) {
+		
+		if (access(item) == null)
+			return;
+		synchronized (this) {
+			if (item.isResident()) {
+				item.hide();
+				item.show();
+			}
+		}
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
 	/** Gets Universal instance. */
-	static public ImagePlusManager getInstance() {
+	static synchronized public ImagePlusManager getInstance() {
 		
 		if (instance_ == null)
 			instance_ = new ImagePlusManager();
@@ -116,7 +337,6 @@ public class ImagePlusManager {
 	 */
 	public void add(String name, ImagePlus image) throws Exception {
 		
-		remove(name);
 		add(name, image, false); // by default, do not display the image
 	}
 	
@@ -128,65 +348,76 @@ public class ImagePlusManager {
 	 */
 	public void add(String name, ImagePlus image, boolean show) throws Exception {
 
-		remove(name);
-		Item item = new Item(name, image);
-		items_.add(item);
-		if (show)
-			item.show();
+		add(name, image, show, false);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Adds an ImagePlus identified by a name to the manager. If an image with the
+	 * same name already exist, it is deleted. Pinned images are never evicted.
+	 */
+	public void add(String name, ImagePlus image, boolean show, boolean pinned) throws Exception {
+
+		List<Item> victims = null;
+		synchronized (this) {
+			remove(name);
+			Item item = new Item(name, image);
+			item.pinned_ = pinned;
+			item.size_ = getSizeInBytes(image);
+			item.lastAccess_ = ++clock_;
+			items_.put(item.name_, item);
+			memoryUsed_ += item.size_;
+			if (show)
+				item.show();
+			victims = selectEvictions(item);
+		}
+		spill(victims);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Removes the item identified by the given name, if it exists. */
-	public void remove(String name) {
+	public synchronized void remove(String name) {
 		
 		Item item = getItem(name);
-		if (item != null) {
-			item.close();
-			items_.remove(item);
-		}
+		if (item != null)
+			remove(item);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Removes all item whose name contains the given sub string. */
-	public void removeAllContainingSubString(String substr) {
+	public synchronized void removeAllContainingSubString(String substr) {
 		
 		List<Item> list = getItemsContainingSubString(substr);
-		for (Item i : list) {
-			i.close();
-			items_.remove(i);
-		}
+		for (Item i : list)
+			remove(i);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Removes all items but the ones specified as "img1 img2 ... img3". */
-	public void removeAllBut(String but) {
+	public synchronized void removeAllBut(String but) {
 		
 		List<String> keep = Arrays.asList(but.split(" "));
-		List<Item> backup = new ArrayList<Item>();
-		for (int i = 0; i < keep.size(); i++) {
-			Item item = getItem(keep.get(i));
-			backup.add(item);
-			items_.remove(item);
+		List<Item> list = new ArrayList<Item>(items_.values());
+		for (Item item : list) {
+			if (!keep.contains(item.name_))
+				remove(item);
 		}
-		removeAll();
-		
-		for (int i = 0; i < keep.size(); i++)
-			items_.add(backup.get(i));
-		backup.clear();
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Returns the index of the image maching the given name, or -1 if not found. */
-	public int getImageIndex(String name) {
+	public synchronized int getImageIndex(String name) {
 
-		int n = items_.size();
-		for (int i = 0; i < n; i++) {
-			if (items_.get(i).name_.compareTo(name) == 0)
+		int i = 0;
+		for (String key : items_.keySet()) {
+			if (key.compareTo(name) == 0)
 				return i;
+			i++;
 		}
 		return -1;
 	}
@@ -196,12 +427,13 @@ public class ImagePlusManager {
 	/** Returns the ImagePlus matching the given name, or null if not found. */
 	public ImagePlus getImage(String name) {
 
-		int n = items_.size();
-		for (int i = 0; i < n; i++) {
-			if (items_.get(i).name_.compareTo(name) == 0)
-				return items_.get(i).image_;
+		Item item = null;
+		synchronized (this) {
+			item = getItem(name);
 		}
-		return null;
+		if (item == null)
+			return null;
+		return access(item);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -209,10 +441,13 @@ public class ImagePlusManager {
 	/** Returns the ImagePlus matching the given index, or null if not found. */
 	public ImagePlus getImage(int index) {
 		
-		if (index >= 0 && index < items_.size())
-			return items_.get(index).image_;
-		else
+		Item item = null;
+		synchronized (this) {
+			item = getItem(index);
+		}
+		if (item == null)
 			return null;
+		return access(item);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -220,17 +455,18 @@ public class ImagePlusManager {
 	/** Shows the ImagePlus identified by the given name, if it exists. */
 	public void show(String name) {
 		
-		Item item = getItem(name);
-		if (item != null) {
-			item.hide();
-			item.show();
+		Item item = null;
+		synchronized (this) {
+			item = getItem(name);
 		}
+		if (item != null)
+			show(item);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Hides the ImagePlus identified by the given name, if it exists. */
-	public void hide(String name) {
+	public synchronized void hide(String name) {
 		
 		Item item = getItem(name);
 		if (item != null) item.hide();
@@ -241,25 +477,78 @@ public class ImagePlusManager {
 	/** Shows all ImagePlus contained in the manager. */
 	public void showAll() {
 		
-		int n = items_.size();
-		for (int i = 0; i < n; i++)
-			items_.get(i).show();
+		List<Item> items = null;
+		synchronized (this) {
+			items = new ArrayList<Item>(items_.values());
+		}
+		for (Item item : items)
+			show(item);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Hides all ImagePlus contained in the manager. */
-	public void hideAll() {
+	public synchronized void hideAll() {
+		
+		for (Item item : items_.values())
+			item.hide();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Pins or unpins the image identified by the given name. Pinned images are never evicted. */
+	public void setPinned(String name, boolean pinned) {
+		
+		List<Item> victims = null;
+		synchronized (this) {
+			Item item = getItem(name);
+			if (item == null)
+				return;
+			item.pinned_ = pinned;
+			if (pinned)
+				return;
+			victims = selectEvictions(null);
+		}
+		spill(victims);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Must be called after modifying the pixels or the dimensions of the image identified
+	 * by the given name. The size of the image is updated and its temporary file (if any)
+	 * is discarded: an image evicted but still referenced elsewhere is made resident again,
+	 * and an image being saved is not evicted.
+	 */
+	public void setModified(String name) {
 		
-		int n = items_.size();
-		for (int i = 0; i < n; i++)
-			items_.get(i).hide();
+		List<Item> victims = null;
+		synchronized (this) {
+			Item item = getItem(name);
+			if (item == null)
+				return;
+			item.modCount_++;
+			if (item.isResident()) {
+				memoryUsed_ -= item.size_;
+				item.size_ = getSizeInBytes(item.image_);
+				memoryUsed_ += item.size_;
+			} else {
+				ImagePlus image = (item.evicted_ != null ? item.evicted_.get() : null);
+				if (image == null)
+					return; // not referenced anywhere, so not modified since it has been saved
+				item.restore(image);
+				memoryUsed_ += item.size_;
+			}
+			item.unspillable_ = false;
+			victims = selectEvictions(item);
+		}
+		spill(victims);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Closes all the images before removing the references. */
-	public void removeAll() {
+	public synchronized void removeAll() {
 		
 		closeAll();
 		items_.clear();
@@ -268,19 +557,48 @@ public class ImagePlusManager {
 	// ----------------------------------------------------------------------------
 	
 	/** Prints the name of each images referenced in the manager. */
-	public void printAllNames() {
+	public synchronized void printAllNames() {
 		
-		for (int i = 0; i < items_.size(); i++)
-			System.out.println("Image " + i + ": " + items_.get(i).name_);
+		int i = 0;
+		for (Item item : items_.values())
+			System.out.println("Image " + (i++) + ": " + item.name_ + (item.isResident() ? "" : " (evicted)"));
+		System.out.println("Memory used: " + (memoryUsed_ / (1024*1024)) + " MB");
 	}
 	
 	// ============================================================================
 	// SETTERS AND GETTERS
 
 	/** Returns the number of images in the manager. */
-	public int size() throws Exception { return items_.size(); }
+	public synchronized int size() throws Exception { return items_.size(); }
 	/** Returns the name of the image associated to the image index. */
-	public String getName(int index) { return items_.get(index).name_; }
+	public synchronized String getName(int index) { return getItem(index).name_; }
+	
+	/** Sets the memory budget in bytes (0 = unlimited). */
+	public void setMemoryBudget(long bytes) {
+		
+		List<Item> victims = null;
+		synchronized (this) {
+			memoryBudget_ = bytes;
+			victims = selectEvictions(null);
+		}
+		spill(victims);
+	}
+	public synchronized long getMemoryBudget() { return memoryBudget_; }
+	
+	/** Returns the memory in bytes used by the images in memory. */
+	public synchronized long getMemoryUsed() { return memoryUsed_; }
+	
+	/** If true, images are evicted to temporary files when the budget is exceeded (disabled by default: images are kept in memory). */
+	public void setSpill(boolean b) {
+		
+		List<Item> victims = null;
+		synchronized (this) {
+			spill_ = b;
+			victims = selectEvictions(null);
+		}
+		spill(victims);
+	}
+	public synchronized boolean getSpill() { return spill_; }
 	
 	// ============================================================================
 	// INNER CLASSES
@@ -289,8 +607,26 @@ public class ImagePlusManager {
 		
 		/** Identifier */
 		protected String name_ = null;
-		/** Image */
+		/** Image (null if evicted) */
 		protected ImagePlus image_ = null;
+		/** If true, the image is never evicted. */
+		protected boolean pinned_ = false;
+		/** Size in bytes of the pixels of the image. */
+		protected long size_ = 0;
+		/** Last access (logical clock of the manager). */
+		protected long lastAccess_ = 0;
+		/** Evicted image which may still be referenced elsewhere. */
+		protected WeakReference<ImagePlus> evicted_ = null;
+		/** Temporary file where the evicted image has been saved (null if not spilled). */
+		protected File spillFile_ = null;
+		/** True while the image is being saved to a temporary file. */
+		protected boolean spilling_ = false;
+		/** True if the image could not be saved to a temporary file (kept in memory). */
+		protected boolean unspillable_ = false;
+		/** Incremented each time the image is reported as modified (see setModified()). */
+		protected int modCount_ = 0;
+		/** Value of modCount_ when the image has been selected to be saved. */
+		protected int spillModCount_ = 0;
 		
 		// ============================================================================
 		// PUBLIC METHODS
@@ -308,14 +644,65 @@ public class ImagePlusManager {
 		/** Close the image (i.e. set the ImageProcessor to null) */
 		public void close() {
 			
-			image_.killRoi();
-			image_.close();
-			image_.flush();
+			ImagePlus image = image_;
+			if (image == null && evicted_ != null)
+				image = evicted_.get();
+			
+			if (image != null) {
+				image.killRoi();
+				image.close();
+				image.flush();
+			}
+			image_ = null;
+			evicted_ = null;
+			deleteSpillFile();
+		}
+		
+		// ----------------------------------------------------------------------------
+		
+		/**
+		 * Releases the reference to the image which has been saved to the given file.
+		 * The pixels are not flushed because the image may still be used elsewhere.
+		 */
+		public void evict(File file) {
+			
+			deleteSpillFile();
+			spillFile_ = file;
+			evicted_ = new WeakReference<ImagePlus>(image_);
+			image_ = null;
+		}
+		
+		// ----------------------------------------------------------------------------
+		
+		/**
+		 * Makes the given image resident again. The temporary file is deleted since the
+		 * image may be modified before being evicted again.
+		 */
+		public void restore(ImagePlus image) {
+			
+			image_ = image;
+			evicted_ = null;
+			size_ = getSizeInBytes(image_);
+			unspillable_ = false;
+			deleteSpillFile();
+		}
+		
+		// ----------------------------------------------------------------------------
+		
+		/** Deletes the temporary file (if any). */
+		public void deleteSpillFile() {
+			
+			if (spillFile_ != null) {
+				spillFile_.delete();
+				spillFile_ = null;
+			}
 		}
 		
 		// ----------------------------------------------------------------------------
 		
+		public boolean isResident() { return image_ != null; }
+		public boolean isEvictable() { return image_ != null && !pinned_ && !spilling_ && !unspillable_ && image_.getWindow() == null; }
 		public void show() { image_.setDisplayRange(0., 255.); image_.show(); } //image_.show();
-		public void hide() { image_.hide(); }
+		public void hide() { if (image_ != null) image_.hide(); }
 	}
 }
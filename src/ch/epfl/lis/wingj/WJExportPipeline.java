@@ -0,0 +1,264 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Bounded pool of writer threads for exporting datasets asynchronously.
+ * <p>
+ * Export jobs (TIFF, PDF, XML and text files) are submitted by the compute thread
+ * and written to disk by a small number of writer threads, so that the computation
+ * of the next gene or experiment overlaps with disk I/O. The number of jobs queued
+ * or running is bounded: when the limit is reached, submit() blocks the caller
+ * until a writer thread completes a job. This prevents the images referenced by
+ * the queued jobs from exhausting the heap.
+ * <p>
+ * flush() is a barrier which returns once all the jobs submitted so far have
+ * been completed. It must be called before disposing the images referenced by
+ * the jobs (e.g. before cleaning the ImagePlusManager at the end of an experiment).
+ * <p>
+ * As when the files were written one after the other, a job which fails does not
+ * prevent the other jobs from being run: the failure is logged ("[ ] description"
+ * followed by the error message) and counted. The writer threads never show dialogs.
+ * <p>
+ * The writer threads are daemon threads so that they never keep the JVM alive,
+ * and only file I/O should be submitted (no Swing component).
+ * <p>
+ * If the number of writer threads is zero, jobs are run directly on the thread
+ * calling submit(). SYNCHRONOUS is such a pipeline and is used by default by the
+ * export methods of the dataset classes.
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class WJExportPipeline {
+	
+	/** Default number of writer threads. */
+	public static final int DEFAULT_NUM_THREADS = 2;
+	/** Default maximum number of jobs queued or running. */
+	public static final int DEFAULT_MAX_PENDING_JOBS = 8;
+	
+	/** Pipeline running the export jobs on the calling thread. */
+	public static final WJExportPipeline SYNCHRONOUS = new WJExportPipeline(0, 1);
+	
+	/** Writer threads (null if the jobs are run on the calling thread). */
+	protected ExecutorService executor_ = null;
+	/** Limits the number of jobs queued or running (backpressure). */
+	protected Semaphore slots_ = null;
+	
+	/** Number of jobs submitted but not yet completed. */
+	protected int numPendingJobs_ = 0;
+	/** Number of jobs which have failed since the creation of the pipeline. */
+	protected int numFailedJobs_ = 0;
+	/** Lock used to wait for the completion of the pending jobs. */
+	protected final Object lock_ = new Object();
+	
+	// ============================================================================
+	// INTERFACES
+	
+	/** Export job, typically writing one file. */
+	public interface Job {
+		
+		/** Writes the output of the job. */
+		public void run() throws Exception;
+	}
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Runs the given job on a writer thread and logs its result (a failure does not stop the other jobs). */
+	private void runJob(String description, Job job) {
+		
+		try {
+			job.run();
+			if (description != null)
+				WJSettings.log("[x] " + description);
+		} catch (Throwable t) {
+			jobFailed(description, t);
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Counts and logs the failure of a job. */
+	private void jobFailed(String description, Throwable t) {
+		
+		synchronized (lock_) {
+			numFailedJobs_++;
+		}
+		if (description != null)
+			WJSettings.log("[ ] " + description);
+		WJSettings.log(t.getMessage() != null ? t.getMessage() : t.toString());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Marks one job as completed and wakes up the threads waiting in flush(). */
+	private void jobDone() {
+		
+		slots_.release();
+		synchronized (lock_) {
+			numPendingJobs_--;
+			if (numPendingJobs_ == 0)
+				lock_.notifyAll();
+		}
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Default constructor. */
+	public WJExportPipeline() {
+		
+		this(DEFAULT_NUM_THREADS, DEFAULT_MAX_PENDING_JOBS);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor.
+	 * @param numThreads Number of writer threads (jobs run on the calling thread if zero).
+	 * @param maxPendingJobs Maximum number of jobs queued or running before submit() blocks.
+	 */
+	public WJExportPipeline(int numThreads, int maxPendingJobs) {
+		
+		if (numThreads > 0) {
+			executor_ = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "WingJ export writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		slots_ = new Semaphore(Math.max(1, maxPendingJobs));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Submits an export job. Blocks if the maximum number of pending jobs is reached.
+	 * <p>
+	 * The description is logged as "[x] description" once the job succeeds and
+	 * as "[ ] description" if it fails (can be null).
+	 */
+	public void submit(final String description, final Job job) throws Exception {
+		
+		if (job == null)
+			throw new Exception("ERROR: Export job is null.");
+		
+		if (executor_ == null) {
+			try {
+				job.run();
+				if (description != null)
+					WJSettings.log("[x] " + description);
+			} catch (Exception e) {
+				synchronized (lock_) {
+					numFailedJobs_++;
+				}
+				if (description != null)
+					WJSettings.log("[ ] " + description);
+				WJMessage.showMessage(e);
+			}
+			return;
+		}
+		
+		slots_.acquire();
+		synchronized (lock_) {
+			numPendingJobs_++;
+		}
+		try {
+			executor_.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runJob(description, job);
+					} finally {
+						jobDone();
+					}
+				}
+			});
+		} catch (Exception e) {
+			jobDone();
+			throw new Exception("ERROR: Unable to submit export job: " + e.getMessage());
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Waits until all the jobs submitted so far have been completed. */
+	public void flush() throws Exception {
+		
+		synchronized (lock_) {
+			while (numPendingJobs_ > 0)
+				lock_.wait();
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Completes the pending jobs and stops the writer threads. */
+	public void shutdown() throws Exception {
+		
+		try {
+			flush();
+		} finally {
+			if (executor_ != null) {
+				executor_.shutdown();
+				executor_ = null;
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Stops the writer threads without waiting for the pending jobs, which are still
+	 * completed. Does nothing if the pipeline has already been shut down. Contrary to
+	 * shutdown(), never throws so that it can be used in finally blocks.
+	 */
+	public void stop() {
+		
+		if (executor_ != null) {
+			executor_.shutdown();
+			executor_ = null;
+		}
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public boolean isAsynchronous() { return executor_ != null; }
+	public int getNumPendingJobs() { synchronized (lock_) { return numPendingJobs_; } }
+	public int getNumFailedJobs() { synchronized (lock_) { return numFailedJobs_; } }
+}
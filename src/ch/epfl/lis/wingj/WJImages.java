@@ -268,7 +268,7 @@ public class WJImages {
 			
 			ImagePlusManager manager = ImagePlusManager.getInstance();
 			manager.remove(name); // remove old item, if any existing
-			manager.add(name, img, true); // TODO: set back to true
+			manager.add(name, img, true, true); // pinned: used all the time
 			
 			WJSettings.getInstance().setChannelDirectory(channel, IJ.getDirectory("image")); // save directory
 
@@ -382,7 +382,7 @@ public class WJImages {
 		
 		projection.setTitle(imageProjectionNames_[channel]);
 		manager.remove(imageProjectionNames_[channel]); // remove old items, if any existing
-		manager.add(imageProjectionNames_[channel], projection);		
+		manager.add(imageProjectionNames_[channel], projection, false, true); // pinned: used all the time
 	}
 	
 	// ----------------------------------------------------------------------------
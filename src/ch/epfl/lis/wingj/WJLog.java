@@ -0,0 +1,262 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj;
+
+import ij.IJ;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Level-filtered logging facade used by WJSettings.log().
+ * <p>
+ * Messages below the current level are discarded before being built: the
+ * parameterized methods (e.g. debug("Centroid {}: {}", i, c)) only format the
+ * message if the level is enabled and a Message can be given to build messages
+ * which are expensive to compute. In inner loops, isEnabled() should be tested
+ * before calling the logger to avoid boxing the parameters.
+ * <p>
+ * By default messages are written synchronously to the ImageJ log window. In
+ * batch mode, setAsynchronous(true) enqueues the messages in a lock-free queue
+ * which is emptied by a single daemon thread, so that parallel workers never
+ * block on the log window. flush() waits until the enqueued messages are written.
+ * 
+ * @version October 19, 2026
+ *
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class WJLog {
+	
+	/** Logging levels (from the most to the least verbose). */
+	public enum Level { DEBUG, INFO, WARNING, ERROR, OFF }
+	
+	/** Message built only if it is logged. */
+	public static abstract class Message {
+		/** Returns the message. */
+		public abstract String get();
+	}
+	
+	/** Minimum level of the messages logged (INFO by default, DEBUG if WJSettings.DEBUG is true). */
+	private static volatile Level level_ = Level.INFO;
+	
+	/** If true, messages are written by the writer thread. */
+	private static volatile boolean asynchronous_ = false;
+	/** Messages waiting to be written by the writer thread. */
+	private static final ConcurrentLinkedQueue<String> queue_ = new ConcurrentLinkedQueue<String>();
+	/** Number of messages enqueued. */
+	private static final AtomicLong numEnqueued_ = new AtomicLong(0);
+	/** Number of enqueued messages written. */
+	private static final AtomicLong numWritten_ = new AtomicLong(0);
+	/** Thread writing the enqueued messages. */
+	private static volatile Thread writer_ = null;
+	/** True when the writer thread is waiting for messages. */
+	private static volatile boolean writerIdle_ = false;
+	
+	/** Maximum time in [ms] the writer thread waits before checking the queue again. */
+	private static final long WRITER_MAX_WAIT = 50;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Writes the given message to the log window. */
+	private static void write(String message) {
+		
+		IJ.log(message);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Writes or enqueues the given message. */
+	private static void append(String message) {
+		
+		if (!asynchronous_) {
+			write(message);
+			return;
+		}
+		// counted before being enqueued so that flush() never returns before it is written
+		numEnqueued_.incrementAndGet();
+		queue_.offer(message);
+		if (writerIdle_)
+			LockSupport.unpark(writer_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Starts the writer thread if it is not running. */
+	private static synchronized void startWriter() {
+		
+		if (writer_ != null)
+			return;
+		
+		writer_ = new Thread("WingJ log writer") {
+			@Override
+			public void run() {
+				while (true) {
+					String message = queue_.poll();
+					if (message == null) {
+						writerIdle_ = true;
+						if (queue_.isEmpty())
+							LockSupport.parkNanos(WRITER_MAX_WAIT * 1000000L);
+						writerIdle_ = false;
+						continue;
+					}
+					try {
+						write(message);
+					} catch (Throwable t) {
+						// never let the writer die
+					}
+					numWritten_.incrementAndGet();
+				}
+			}
+		};
+		writer_.setDaemon(true);
+		writer_.start();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Replaces the successive occurrences of "{}" in the given pattern by the given arguments. */
+	private static String format(String pattern, Object... args) {
+		
+		if (pattern == null)
+			return "null";
+		
+		StringBuilder sb = new StringBuilder(pattern.length() + 16*args.length);
+		int start = 0;
+		for (int i = 0; i < args.length; i++) {
+			int index = pattern.indexOf("{}", start);
+			if (index < 0)
+				break;
+			sb.append(pattern, start, index).append(args[i]);
+			start = index + 2;
+		}
+		sb.append(pattern, start, pattern.length());
+		return sb.toString();
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Returns true if the messages of the given level are logged. */
+	public static boolean isEnabled(Level level) {
+		
+		Level current = level_;
+		if (current == Level.INFO && WJSettings.DEBUG)
+			current = Level.DEBUG;
+		return level != Level.OFF && level.compareTo(current) >= 0;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Logs the given message with the given level. */
+	public static void log(Level level, String message) {
+		
+		if (isEnabled(level))
+			append(message);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Logs the message built from the given pattern ("{}" replaced by the arguments) with the given level. */
+	public static void log(Level level, String pattern, Object... args) {
+		
+		if (isEnabled(level))
+			append(format(pattern, args));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Logs the given message with the given level (built only if logged). */
+	public static void log(Level level, Message message) {
+		
+		if (isEnabled(level))
+			append(message.get());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Logs the given DEBUG message. */
+	public static void debug(String message) { log(Level.DEBUG, message); }
+	/** Logs the given DEBUG message built from a pattern with one argument. */
+	public static void debug(String pattern, Object arg) { if (isEnabled(Level.DEBUG)) append(format(pattern, arg)); }
+	/** Logs the given DEBUG message built from a pattern with two arguments. */
+	public static void debug(String pattern, Object arg1, Object arg2) { if (isEnabled(Level.DEBUG)) append(format(pattern, arg1, arg2)); }
+	/** Logs the given DEBUG message (built only if logged). */
+	public static void debug(Message message) { log(Level.DEBUG, message); }
+	
+	/** Logs the given INFO message. */
+	public static void info(String message) { log(Level.INFO, message); }
+	/** Logs the given INFO message built from a pattern with one argument. */
+	public static void info(String pattern, Object arg) { if (isEnabled(Level.INFO)) append(format(pattern, arg)); }
+	/** Logs the given INFO message built from a pattern with two arguments. */
+	public static void info(String pattern, Object arg1, Object arg2) { if (isEnabled(Level.INFO)) append(format(pattern, arg1, arg2)); }
+	/** Logs the given INFO message (built only if logged). */
+	public static void info(Message message) { log(Level.INFO, message); }
+	
+	/** Logs the given WARNING message. */
+	public static void warning(String message) { log(Level.WARNING, message); }
+	/** Logs the given ERROR message. */
+	public static void error(String message) { log(Level.ERROR, message); }
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * If asynchronous is true, messages are enqueued and written by a daemon thread
+	 * instead of the calling thread. Switching back to synchronous mode flushes the
+	 * enqueued messages.
+	 */
+	public static void setAsynchronous(boolean asynchronous) {
+		
+		if (asynchronous)
+			startWriter();
+		asynchronous_ = asynchronous;
+		if (!asynchronous)
+			flush();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Waits until all the messages enqueued before calling this method are written. */
+	public static void flush() {
+		
+		long target = numEnqueued_.get();
+		while (numWritten_.get() < target) {
+			if (writer_ != null)
+				LockSupport.unpark(writer_);
+			LockSupport.parkNanos(1000000L);
+		}
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public static void setLevel(Level level) { level_ = level; }
+	public static Level getLevel() { return level_; }
+	
+	public static boolean isAsynchronous() { return asynchronous_; }
+}
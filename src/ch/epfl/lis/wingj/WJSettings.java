@@ -460,12 +460,20 @@ public class WJSettings {
 		return instance_;
 	}
 	
+	//----------------------------------------------------------------------------
+	
+	/** Returns an immutable copy of the current settings. */
+	public WJSettingsSnapshot snapshot() {
+		
+		return new WJSettingsSnapshot(this);
+	}
+	
 	//----------------------------------------------------------------------------
 
-	/** Writes log. */
+	/** Writes log (INFO level, see WJLog). */
 	public static void log(String str) {
 		
-		IJ.log(str);
+		WJLog.info(str);
 //		if (IJ.getInstance() == null)
 //			System.out.println(str);
 	}
@@ -476,6 +484,7 @@ public class WJSettings {
 	public static void writeLog(URI uri) {
 		
 		try {
+			WJLog.flush();
 			String content = IJ.getLog();
 			if (content == null)
 				content = "";
@@ -496,6 +505,7 @@ public class WJSettings {
 	/** Clears log content. */
 	public static void clearLog() {
 		
+		WJLog.flush();
     	IJ.log("\\Clear");
 	}	
 	
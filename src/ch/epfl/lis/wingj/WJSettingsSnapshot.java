@@ -0,0 +1,634 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ch.epfl.lis.wingj.structure.drosophila.wingpouch.PreProcessing;
+import ch.epfl.lis.wingj.structure.drosophila.wingpouch.WPouchCenterDetection;
+
+/** 
+ * Immutable copy of the settings of WingJ.
+ * <p>
+ * WJSettings is a mutable singleton that the GUI can modify at any time. A snapshot
+ * taken with WJSettings.snapshot() at the beginning of an experiment (or of a
+ * dataset) keeps the exact values used during the computation, even if the settings
+ * are modified in the meantime, and can be shared by concurrent threads. The accessors
+ * have the same names as those of WJSettings.
+ * <p>
+ * getHash() returns a 64-bit hash of the parameters which affect the computation,
+ * computed once when the snapshot is created. The directories, experiment and gene
+ * names, display options (colors, stroke widths, etc.) and output options (e.g. save
+ * PDF) are ignored so that the snapshot can be used as key to cache results across
+ * runs of a parameter scan: equals() compares the same parameters, i.e. two snapshots
+ * which only differ by such options are equal. The hash also includes the parameters
+ * derived outside of WJSettings (e.g. the blur sigma of the pre-processing and the
+ * maximum number of iterations of the KiteSnake).
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public final class WJSettingsSnapshot {
+	
+	/** FNV-1a 64-bit offset basis. */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	/** FNV-1a 64-bit prime. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	// ============================================================================
+	// GENERAL
+	
+	/** Working directory. */
+	private final String workingDirectory_;
+	/** Output directory. */
+	private final String outputDirectory_;
+	/** Batch root directory. */
+	private final String batchRootDirectory_;
+	/** Index of the channel containing the structure. */
+	private final int structureChannelIndex_;
+	/** Shows batch experiment panel. */
+	private final boolean showBatchExperimentPanel_;
+	/** DEBUG mode (WJSettings.DEBUG). */
+	private final boolean debug_;
+	
+	// ============================================================================
+	// CONFOCAL IMAGES
+	
+	/** Experiment name. */
+	private final String experimentName_;
+	/** Gene names. */
+	private final List<String> geneNames_;
+	/** Projection method of each channel. */
+	private final List<Integer> channelProjectionMethods_;
+	/** Unit of the scale. */
+	private final String unit_;
+	/** 1 [px] = scale [UNIT]. */
+	private final double scale_;
+	
+	// ============================================================================
+	// PRE-PROCESSING
+	
+	/** Expected thickness of the boundaries in [px]. */
+	private final double expectedBoundariesThicknessInPixels_;
+	/** Pre-processing threshold. */
+	private final int ppThld_;
+	/** Sigma of the 2D Gaussian filter (PreProcessing.getPpBlurSigma()). */
+	private final double ppBlurSigma_;
+	
+	// ============================================================================
+	// CENTER DETECTION
+	
+	/** Minimum size of the skeleton in [px]. */
+	private final int minSkeletonSizeInPixels_;
+	/** Scale of the center optimizer. */
+	private final double centerOptimizerScale_;
+	/** Length of the branches of the KiteSnake. */
+	private final double kiteSnakeBranchLength_;
+	/** Width of the branches of the KiteSnake. */
+	private final double kiteSnakeBranchWidth_;
+	/** Maximum number of iterations of the KiteSnake (WPouchCenterDetection.KITESNAKE_MAX_NUM_ITERATIONS). */
+	private final int kiteSnakeMaxNumIters_;
+	
+	// ============================================================================
+	// BOUNDARY TRACKER
+	
+	/** Step size of the boundary tracker in [px]. */
+	private final double boundaryTrackerStepSizeInPixels_;
+	/** Number of steps of the boundary tracker. */
+	private final int boundaryTrackerNumSteps_;
+	/** Scale of the boundary tracker. */
+	private final double boundaryTrackerScale_;
+	/** Show duration of the boundary tracker. */
+	private final double boundaryTrackerShowDuration_;
+	/** Shrinkage of the boundary tracker in [px]. */
+	private final double boundaryTrackerShrinkageInPixels_;
+	
+	// ============================================================================
+	// STRUCTURE SNAKE
+	
+	/** Snake blur. */
+	private final int snakeBlur_;
+	/** Snake radius. */
+	private final int snakeRadius_;
+	/** Snake lambda. */
+	private final double snakeLambda_;
+	/** Number of snake nodes. */
+	private final int snakeNumNodes_;
+	/** Snake alpha. */
+	private final double snakeAlpha_;
+	/** Radius of the generic structure. */
+	private final double genericStructureRadius_;
+	/** Expansion of the outer boundary. */
+	private final double outerBoundaryExpansion_;
+	/** Corrects the intersection of the boundaries. */
+	private final boolean correctBoundariesIntersection_;
+	/** Number of control points of the structure. */
+	private final int numStructureControlPoints_;
+	
+	// ============================================================================
+	// DROSOPHILA EMBRYO
+	
+	/** Smoothing of the embryo snake. */
+	private final double drosophilaEmbryoStdSnakeSmoothing_;
+	/** Number of nodes of the embryo snake. */
+	private final int drosophilaEmbryoSnakeNumNodes_;
+	/** Lambda of the embryo snake. */
+	private final double drosophilaEmbryoSnakeLambda_;
+	/** Alpha of the embryo snake. */
+	private final double drosophilaEmbryoSnakeAlpha_;
+	
+	// ============================================================================
+	// EXPRESSION
+	
+	/** Normalizes the expression. */
+	private final boolean normalizeExpression_;
+	/** Reference boundary of the 1D expression datasets. */
+	private final int expression1DBoundary_;
+	/** Translation offset of the 1D trajectory. */
+	private final double expression1DTranslationOffset_;
+	/** Sigma of the 1D expression quantification. */
+	private final double expression1DSigma_;
+	/** Resolution strategy of the 1D expression datasets. */
+	private final int expression1DResolutionStrategy_;
+	/** Number of points of the 1D expression datasets. */
+	private final int expression1DNumPoints_;
+	/** Step size of the 1D expression datasets. */
+	private final double expression1DStepSize_;
+	/** Saves the 1D expression plots to PDF. */
+	private final boolean expressionDataset1dSavePdf_;
+	/** Saves the measurement domain of the 1D expression datasets. */
+	private final boolean expressionDataset1dSaveMeasurementDomain_;
+	/** Translation offsets of the 1D trajectories. */
+	private final List<Double> expression1DTranslationOffsets_;
+	/** Thresholds of the 2D expression datasets. */
+	private final List<Double> expression2DThlds_;
+	/** Stitching density difference threshold. */
+	private final double expression2DStitchingDensityDifferenceThld_;
+	/** Stitching smoothing range. */
+	private final double expression2DStitchingSmoothingRange_;
+	/** Number of points of the 2D expression maps. */
+	private final int expression2DNumPoints_;
+	/** Stitching grid density smoothing. */
+	private final double expression2DStitchingGridDensitySmoothing_;
+	/** Density of the preview mesh grid. */
+	private final double expression2DPreviewMeshGridDensity_;
+	/** Equator of the aggregated 2D expression maps. */
+	private final int expression2DAggEquator_;
+	/** Computes the std of the aggregated 2D expression maps. */
+	private final boolean expression2DAggStd_;
+	/** Projections of the composite expression. */
+	private final int expressionCompositeProjections_;
+	/** Minimum slice index of each channel. */
+	private final List<Integer> expressionMinSliceIndexes_;
+	/** Maximum slice index of each channel. */
+	private final List<Integer> expressionMaxSliceIndexes_;
+	/** 2D expression offset of each channel. */
+	private final List<Double> expression2dOffsets_;
+	
+	// ============================================================================
+	// MISC PARAMETERS
+	
+	/** Default color. */
+	private final Color defaultColor_;
+	/** Default stroke width. */
+	private final float defaultStrokeWidth_;
+	/** Font size coefficient of the structure overlay. */
+	private final double structureOverlayFontSizeCoeff_;
+	/** Stroke width of the snakes. */
+	private final float snakeStrokeWidth_;
+	/** Directory of each channel. */
+	private final List<String> channelDirectories_;
+	/** Loads automatically each channel in batch mode. */
+	private final List<Boolean> batchChannelAutoLoading_;
+	
+	/** Values of the parameters which affect the computation (used by equals() and the hash). */
+	private final Object[] values_;
+	/** 64-bit hash of values_. */
+	private final long hash_;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Mixes the given 64-bit value into the hash h (FNV-1a, byte per byte). */
+	private static long mix(long h, long value) {
+		
+		for (int i = 0; i < 8; i++) {
+			h ^= (value & 0xff);
+			h *= FNV_PRIME;
+			value >>>= 8;
+		}
+		return h;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Mixes the given setting value into the hash h. */
+	private static long mix(long h, Object value) {
+		
+		if (value == null)
+			return mix(h, 0x9e3779b97f4a7c15L);
+		if (value instanceof Double)
+			return mix(h, Double.doubleToLongBits((Double)value));
+		if (value instanceof Float)
+			return mix(h, Float.floatToIntBits((Float)value));
+		if (value instanceof Integer)
+			return mix(h, ((Integer)value).longValue());
+		if (value instanceof Boolean)
+			return mix(h, ((Boolean)value) ? 1L : 2L);
+		if (value instanceof Color)
+			return mix(h, ((Color)value).getRGB() & 0xffffffffL);
+		if (value instanceof String) {
+			String str = (String)value;
+			h = mix(h, str.length());
+			for (int i = 0; i < str.length(); i++) {
+				h ^= str.charAt(i);
+				h *= FNV_PRIME;
+			}
+			return h;
+		}
+		if (value instanceof List<?>) {
+			List<?> list = (List<?>)value;
+			h = mix(h, list.size());
+			for (Object o : list)
+				h = mix(h, o);
+			return h;
+		}
+		return mix(h, value.hashCode());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the values of the parameters which affect the computation. The directories,
+	 * names, display and output options are ignored.
+	 */
+	private Object[] computationValues() {
+		
+		return new Object[] {
+				structureChannelIndex_, channelProjectionMethods_, scale_, expectedBoundariesThicknessInPixels_,
+				ppThld_, ppBlurSigma_, minSkeletonSizeInPixels_, centerOptimizerScale_, kiteSnakeBranchLength_,
+				kiteSnakeBranchWidth_, kiteSnakeMaxNumIters_, boundaryTrackerStepSizeInPixels_, boundaryTrackerNumSteps_, boundaryTrackerScale_,
+				boundaryTrackerShrinkageInPixels_, snakeBlur_, snakeRadius_, snakeLambda_,
+				snakeNumNodes_, snakeAlpha_, genericStructureRadius_, outerBoundaryExpansion_,
+				correctBoundariesIntersection_, numStructureControlPoints_, drosophilaEmbryoStdSnakeSmoothing_, drosophilaEmbryoSnakeNumNodes_,
+				drosophilaEmbryoSnakeLambda_, drosophilaEmbryoSnakeAlpha_, normalizeExpression_, expression1DBoundary_,
+				expression1DTranslationOffset_, expression1DSigma_, expression1DResolutionStrategy_, expression1DNumPoints_,
+				expression1DStepSize_, expression1DTranslationOffsets_, expression2DThlds_, expression2DStitchingDensityDifferenceThld_,
+				expression2DStitchingSmoothingRange_, expression2DNumPoints_, expression2DStitchingGridDensitySmoothing_, expression2DAggEquator_,
+				expression2DAggStd_, expressionCompositeProjections_, expressionMinSliceIndexes_, expressionMaxSliceIndexes_,
+				expression2dOffsets_
+		};
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the 64-bit FNV-1a hash of the given values. */
+	private static long hash(Object[] values) {
+		
+		long h = FNV_OFFSET_BASIS;
+		for (int i = 0; i < values.length; i++)
+			h = mix(h, values[i]);
+		return h;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy constructor overriding the parameters of the 1D expression datasets (see withExpression1D()). */
+	private WJSettingsSnapshot(WJSettingsSnapshot s, double expression1DSigma, boolean savePdf, boolean saveMeasurementDomain) {
+		
+		workingDirectory_ = s.workingDirectory_;
+		outputDirectory_ = s.outputDirectory_;
+		batchRootDirectory_ = s.batchRootDirectory_;
+		structureChannelIndex_ = s.structureChannelIndex_;
+		showBatchExperimentPanel_ = s.showBatchExperimentPanel_;
+		debug_ = s.debug_;
+		experimentName_ = s.experimentName_;
+		geneNames_ = s.geneNames_;
+		channelProjectionMethods_ = s.channelProjectionMethods_;
+		unit_ = s.unit_;
+		scale_ = s.scale_;
+		expectedBoundariesThicknessInPixels_ = s.expectedBoundariesThicknessInPixels_;
+		ppThld_ = s.ppThld_;
+		ppBlurSigma_ = s.ppBlurSigma_;
+		minSkeletonSizeInPixels_ = s.minSkeletonSizeInPixels_;
+		centerOptimizerScale_ = s.centerOptimizerScale_;
+		kiteSnakeBranchLength_ = s.kiteSnakeBranchLength_;
+		kiteSnakeBranchWidth_ = s.kiteSnakeBranchWidth_;
+		kiteSnakeMaxNumIters_ = s.kiteSnakeMaxNumIters_;
+		boundaryTrackerStepSizeInPixels_ = s.boundaryTrackerStepSizeInPixels_;
+		boundaryTrackerNumSteps_ = s.boundaryTrackerNumSteps_;
+		boundaryTrackerScale_ = s.boundaryTrackerScale_;
+		boundaryTrackerShowDuration_ = s.boundaryTrackerShowDuration_;
+		boundaryTrackerShrinkageInPixels_ = s.boundaryTrackerShrinkageInPixels_;
+		snakeBlur_ = s.snakeBlur_;
+		snakeRadius_ = s.snakeRadius_;
+		snakeLambda_ = s.snakeLambda_;
+		snakeNumNodes_ = s.snakeNumNodes_;
+		snakeAlpha_ = s.snakeAlpha_;
+		genericStructureRadius_ = s.genericStructureRadius_;
+		outerBoundaryExpansion_ = s.outerBoundaryExpansion_;
+		correctBoundariesIntersection_ = s.correctBoundariesIntersection_;
+		numStructureControlPoints_ = s.numStructureControlPoints_;
+		drosophilaEmbryoStdSnakeSmoothing_ = s.drosophilaEmbryoStdSnakeSmoothing_;
+		drosophilaEmbryoSnakeNumNodes_ = s.drosophilaEmbryoSnakeNumNodes_;
+		drosophilaEmbryoSnakeLambda_ = s.drosophilaEmbryoSnakeLambda_;
+		drosophilaEmbryoSnakeAlpha_ = s.drosophilaEmbryoSnakeAlpha_;
+		normalizeExpression_ = s.normalizeExpression_;
+		expression1DBoundary_ = s.expression1DBoundary_;
+		expression1DTranslationOffset_ = s.expression1DTranslationOffset_;
+		expression1DSigma_ = expression1DSigma;
+		expression1DResolutionStrategy_ = s.expression1DResolutionStrategy_;
+		expression1DNumPoints_ = s.expression1DNumPoints_;
+		expression1DStepSize_ = s.expression1DStepSize_;
+		expressionDataset1dSavePdf_ = savePdf;
+		expressionDataset1dSaveMeasurementDomain_ = saveMeasurementDomain;
+		expression1DTranslationOffsets_ = s.expression1DTranslationOffsets_;
+		expression2DThlds_ = s.expression2DThlds_;
+		expression2DStitchingDensityDifferenceThld_ = s.expression2DStitchingDensityDifferenceThld_;
+		expression2DStitchingSmoothingRange_ = s.expression2DStitchingSmoothingRange_;
+		expression2DNumPoints_ = s.expression2DNumPoints_;
+		expression2DStitchingGridDensitySmoothing_ = s.expression2DStitchingGridDensitySmoothing_;
+		expression2DPreviewMeshGridDensity_ = s.expression2DPreviewMeshGridDensity_;
+		expression2DAggEquator_ = s.expression2DAggEquator_;
+		expression2DAggStd_ = s.expression2DAggStd_;
+		expressionCompositeProjections_ = s.expressionCompositeProjections_;
+		expressionMinSliceIndexes_ = s.expressionMinSliceIndexes_;
+		expressionMaxSliceIndexes_ = s.expressionMaxSliceIndexes_;
+		expression2dOffsets_ = s.expression2dOffsets_;
+		defaultColor_ = s.defaultColor_;
+		defaultStrokeWidth_ = s.defaultStrokeWidth_;
+		structureOverlayFontSizeCoeff_ = s.structureOverlayFontSizeCoeff_;
+		snakeStrokeWidth_ = s.snakeStrokeWidth_;
+		channelDirectories_ = s.channelDirectories_;
+		batchChannelAutoLoading_ = s.batchChannelAutoLoading_;
+		
+		values_ = computationValues();
+		hash_ = hash(values_);
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor (see WJSettings.snapshot()). */
+	WJSettingsSnapshot(WJSettings settings) {
+		
+		workingDirectory_ = settings.getWorkingDirectory();
+		outputDirectory_ = settings.getOutputDirectory();
+		batchRootDirectory_ = settings.getBatchRootDirectory();
+		structureChannelIndex_ = settings.getStructureChannelIndex();
+		showBatchExperimentPanel_ = settings.getShowBatchExperimentPanel();
+		debug_ = WJSettings.DEBUG;
+		experimentName_ = settings.getExperimentName();
+		List<String> geneNames = new ArrayList<String>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			geneNames.add(settings.getGeneName(i));
+		geneNames_ = Collections.unmodifiableList(geneNames);
+		List<Integer> channelProjectionMethods = new ArrayList<Integer>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			channelProjectionMethods.add(settings.getChannelProjectionMethod(i));
+		channelProjectionMethods_ = Collections.unmodifiableList(channelProjectionMethods);
+		unit_ = settings.getUnit();
+		scale_ = settings.getScale();
+		expectedBoundariesThicknessInPixels_ = settings.getExpectedBoundariesThicknessInPixels();
+		ppThld_ = settings.getPpThreshold();
+		ppBlurSigma_ = PreProcessing.getPpBlurSigma(expectedBoundariesThicknessInPixels_);
+		minSkeletonSizeInPixels_ = settings.getMinSkeletonSizeInPixels();
+		centerOptimizerScale_ = settings.getCenterOptimizerScale();
+		kiteSnakeBranchLength_ = settings.getKiteSnakeBranchLength();
+		kiteSnakeBranchWidth_ = settings.getKiteSnakeBranchWidth();
+		kiteSnakeMaxNumIters_ = WPouchCenterDetection.KITESNAKE_MAX_NUM_ITERATIONS;
+		boundaryTrackerStepSizeInPixels_ = settings.getBoundaryTrackerStepSizeInPixels();
+		boundaryTrackerNumSteps_ = settings.getBoundaryTrackerNumSteps();
+		boundaryTrackerScale_ = settings.getBoundaryTrackerScale();
+		boundaryTrackerShowDuration_ = settings.getBoundaryTrackerShowDuration();
+		boundaryTrackerShrinkageInPixels_ = settings.getBoundaryTrackerShrinkageInPixels();
+		snakeBlur_ = settings.getSnakeBlur();
+		snakeRadius_ = settings.getSnakeRadius();
+		snakeLambda_ = settings.getSnakeLambda();
+		snakeNumNodes_ = settings.getSnakeNumNodes();
+		snakeAlpha_ = settings.getSnakeAlpha();
+		genericStructureRadius_ = settings.getGenericStructureRadius();
+		outerBoundaryExpansion_ = settings.getOuterBoundaryExpansion();
+		correctBoundariesIntersection_ = settings.correctBoundariesIntersection();
+		numStructureControlPoints_ = settings.getNumStructureControlPoints();
+		drosophilaEmbryoStdSnakeSmoothing_ = settings.getDrosophilaEmbryoStdSnakeSmoothing();
+		drosophilaEmbryoSnakeNumNodes_ = settings.getDrosophilaEmbryoSnakeNumNodes();
+		drosophilaEmbryoSnakeLambda_ = settings.getDrosophilaEmbryoSnakeLambda();
+		drosophilaEmbryoSnakeAlpha_ = settings.getDrosophilaEmbryoSnakeAlpha();
+		normalizeExpression_ = settings.normalizeExpression();
+		expression1DBoundary_ = settings.getExpression1DBoundary();
+		expression1DTranslationOffset_ = settings.getExpression1DTranslation();
+		expression1DSigma_ = settings.getExpression1DSigma();
+		expression1DResolutionStrategy_ = settings.getExpression1DResolutionStrategy();
+		expression1DNumPoints_ = settings.getExpression1DNumPoints();
+		expression1DStepSize_ = settings.getExpression1DStepSize();
+		expressionDataset1dSavePdf_ = settings.getExpression1DSavePdf();
+		expressionDataset1dSaveMeasurementDomain_ = settings.getExpression1DSaveMeasurementDomain();
+		expression1DTranslationOffsets_ = Collections.unmodifiableList(new ArrayList<Double>(settings.getExpressionOffsets()));
+		expression2DThlds_ = Collections.unmodifiableList(new ArrayList<Double>(settings.getExpressionThresholds()));
+		expression2DStitchingDensityDifferenceThld_ = settings.getExpression2DStitchingDensityDifferenceThld();
+		expression2DStitchingSmoothingRange_ = settings.getExpression2DStitchingSmoothingRange();
+		expression2DNumPoints_ = settings.getExpression2DNumPoints();
+		expression2DStitchingGridDensitySmoothing_ = settings.getExpression2DStitchingGridDensitySmoothing();
+		expression2DPreviewMeshGridDensity_ = settings.getExpression2DPreviewMeshGridDensity();
+		expression2DAggEquator_ = settings.getExpression2DAggEquator();
+		expression2DAggStd_ = settings.getExpression2DAggStd();
+		expressionCompositeProjections_ = settings.getExpressionCompositeProjections();
+		List<Integer> expressionMinSliceIndexes = new ArrayList<Integer>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			expressionMinSliceIndexes.add(settings.getExpressionMinSliceIndex(i));
+		expressionMinSliceIndexes_ = Collections.unmodifiableList(expressionMinSliceIndexes);
+		List<Integer> expressionMaxSliceIndexes = new ArrayList<Integer>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			expressionMaxSliceIndexes.add(settings.getExpressionMaxSliceIndex(i));
+		expressionMaxSliceIndexes_ = Collections.unmodifiableList(expressionMaxSliceIndexes);
+		List<Double> expression2dOffsets = new ArrayList<Double>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			expression2dOffsets.add(settings.getExpression2dOffset(i));
+		expression2dOffsets_ = Collections.unmodifiableList(expression2dOffsets);
+		defaultColor_ = settings.getDefaultColor();
+		defaultStrokeWidth_ = settings.getDefaultStrokeWidth();
+		structureOverlayFontSizeCoeff_ = settings.getStructureOverlayFontSizeCoeff();
+		snakeStrokeWidth_ = settings.getSnakeStrokeWidth();
+		List<String> channelDirectories = new ArrayList<String>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			channelDirectories.add(settings.getChannelDirectory(i));
+		channelDirectories_ = Collections.unmodifiableList(channelDirectories);
+		List<Boolean> batchChannelAutoLoading = new ArrayList<Boolean>();
+		for (int i = 0; i < WJSettings.NUM_CHANNELS; i++)
+			batchChannelAutoLoading.add(settings.getBatchChannelAutoLoading(i));
+		batchChannelAutoLoading_ = Collections.unmodifiableList(batchChannelAutoLoading);
+		
+		values_ = computationValues();
+		hash_ = hash(values_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a copy of this snapshot with the given sigma and output options of the 1D
+	 * expression datasets. The settings of WingJ are not modified.
+	 */
+	public WJSettingsSnapshot withExpression1D(double sigma, boolean savePdf, boolean saveMeasurementDomain) {
+		
+		return new WJSettingsSnapshot(this, sigma, savePdf, saveMeasurementDomain);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns true if the given snapshot has the same parameters affecting the computation. */
+	@Override
+	public boolean equals(Object o) {
+		
+		if (this == o)
+			return true;
+		if (!(o instanceof WJSettingsSnapshot))
+			return false;
+		WJSettingsSnapshot s = (WJSettingsSnapshot)o;
+		return hash_ == s.hash_ && Arrays.equals(values_, s.values_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	@Override
+	public int hashCode() {
+		
+		return (int)(hash_ ^ (hash_ >>> 32));
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Returns the 64-bit hash of the parameters affecting the computation. */
+	public long getHash() { return hash_; }
+	
+	// ============================================================================
+	// GENERAL
+	
+	public String getWorkingDirectory() { return workingDirectory_; }
+	public String getOutputDirectory() { return outputDirectory_; }
+	public String getBatchRootDirectory() { return batchRootDirectory_; }
+	public int getStructureChannelIndex() { return structureChannelIndex_; }
+	public boolean getShowBatchExperimentPanel() { return showBatchExperimentPanel_; }
+	public boolean isDebug() { return debug_; }
+	
+	// ============================================================================
+	// CONFOCAL IMAGES
+	
+	public String getExperimentName() { return experimentName_; }
+	public String getGeneName(int channel) { return geneNames_.get(channel); }
+	public int getChannelProjectionMethod(int channel) { return channelProjectionMethods_.get(channel); }
+	public String getUnit() { return unit_; }
+	public double getScale() { return scale_; }
+	
+	// ============================================================================
+	// PRE-PROCESSING
+	
+	public double getExpectedBoundariesThicknessInPixels() { return expectedBoundariesThicknessInPixels_; }
+	public int getPpThreshold() { return ppThld_; }
+	public double getPpBlurSigma() { return ppBlurSigma_; }
+	
+	// ============================================================================
+	// CENTER DETECTION
+	
+	public int getMinSkeletonSizeInPixels() { return minSkeletonSizeInPixels_; }
+	public double getCenterOptimizerScale() { return centerOptimizerScale_; }
+	public double getKiteSnakeBranchLength() { return kiteSnakeBranchLength_; }
+	public double getKiteSnakeBranchWidth() { return kiteSnakeBranchWidth_; }
+	public int getKiteSnakeMaxNumIterations() { return kiteSnakeMaxNumIters_; }
+	
+	// ============================================================================
+	// BOUNDARY TRACKER
+	
+	public double getBoundaryTrackerStepSizeInPixels() { return boundaryTrackerStepSizeInPixels_; }
+	public int getBoundaryTrackerNumSteps() { return boundaryTrackerNumSteps_; }
+	public double getBoundaryTrackerScale() { return boundaryTrackerScale_; }
+	public double getBoundaryTrackerShowDuration() { return boundaryTrackerShowDuration_; }
+	public double getBoundaryTrackerShrinkageInPixels() { return boundaryTrackerShrinkageInPixels_; }
+	
+	// ============================================================================
+	// STRUCTURE SNAKE
+	
+	public int getSnakeBlur() { return snakeBlur_; }
+	public int getSnakeRadius() { return snakeRadius_; }
+	public double getSnakeLambda() { return snakeLambda_; }
+	public int getSnakeNumNodes() { return snakeNumNodes_; }
+	public double getSnakeAlpha() { return snakeAlpha_; }
+	public double getGenericStructureRadius() { return genericStructureRadius_; }
+	public double getOuterBoundaryExpansion() { return outerBoundaryExpansion_; }
+	public boolean correctBoundariesIntersection() { return correctBoundariesIntersection_; }
+	public int getNumStructureControlPoints() { return numStructureControlPoints_; }
+	
+	// ============================================================================
+	// DROSOPHILA EMBRYO
+	
+	public double getDrosophilaEmbryoStdSnakeSmoothing() { return drosophilaEmbryoStdSnakeSmoothing_; }
+	public int getDrosophilaEmbryoSnakeNumNodes() { return drosophilaEmbryoSnakeNumNodes_; }
+	public double getDrosophilaEmbryoSnakeLambda() { return drosophilaEmbryoSnakeLambda_; }
+	public double getDrosophilaEmbryoSnakeAlpha() { return drosophilaEmbryoSnakeAlpha_; }
+	
+	// ============================================================================
+	// EXPRESSION
+	
+	public boolean normalizeExpression() { return normalizeExpression_; }
+	public int getExpression1DBoundary() { return expression1DBoundary_; }
+	public double getExpression1DTranslation() { return expression1DTranslationOffset_; }
+	public double getExpression1DSigma() { return expression1DSigma_; }
+	public int getExpression1DResolutionStrategy() { return expression1DResolutionStrategy_; }
+	public int getExpression1DNumPoints() { return expression1DNumPoints_; }
+	public double getExpression1DStepSize() { return expression1DStepSize_; }
+	public boolean getExpression1DSavePdf() { return expressionDataset1dSavePdf_; }
+	public boolean getExpression1DSaveMeasurementDomain() { return expressionDataset1dSaveMeasurementDomain_; }
+	public List<Double> getExpressionOffsets() { return expression1DTranslationOffsets_; }
+	public List<Double> getExpressionThresholds() { return expression2DThlds_; }
+	public double getExpression2DStitchingDensityDifferenceThld() { return expression2DStitchingDensityDifferenceThld_; }
+	public double getExpression2DStitchingSmoothingRange() { return expression2DStitchingSmoothingRange_; }
+	public int getExpression2DNumPoints() { return expression2DNumPoints_; }
+	public double getExpression2DStitchingGridDensitySmoothing() { return expression2DStitchingGridDensitySmoothing_; }
+	public double getExpression2DPreviewMeshGridDensity() { return expression2DPreviewMeshGridDensity_; }
+	public int getExpression2DAggEquator() { return expression2DAggEquator_; }
+	public boolean getExpression2DAggStd() { return expression2DAggStd_; }
+	public int getExpressionCompositeProjections() { return expressionCompositeProjections_; }
+	public int getExpressionMinSliceIndex(int channel) { return expressionMinSliceIndexes_.get(channel); }
+	public int getExpressionMaxSliceIndex(int channel) { return expressionMaxSliceIndexes_.get(channel); }
+	public double getExpression2dOffset(int channel) { return expression2dOffsets_.get(channel); }
+	
+	// ============================================================================
+	// MISC PARAMETERS
+	
+	public Color getDefaultColor() { return defaultColor_; }
+	public float getDefaultStrokeWidth() { return defaultStrokeWidth_; }
+	public double getStructureOverlayFontSizeCoeff() { return structureOverlayFontSizeCoeff_; }
+	public float getSnakeStrokeWidth() { return snakeStrokeWidth_; }
+	public String getChannelDirectory(int channel) { return channelDirectories_.get(channel); }
+	public boolean getBatchChannelAutoLoading(int channel) { return batchChannelAutoLoading_.get(channel); }
+}
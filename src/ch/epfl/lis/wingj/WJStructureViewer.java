@@ -27,7 +27,6 @@ THE SOFTWARE.
 package ch.epfl.lis.wingj;
 
 import java.awt.Color;
-import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.net.URI;
@@ -127,7 +126,7 @@ public class WJStructureViewer {
 	/** Returns the content of the viewer as an ImagePlus. */
 	public ImagePlus toImagePlus() throws Exception {
 		
-		return new ImagePlus("structure-viewer-content", Toolkit.getDefaultToolkit().createImage(overlay_.overlayToBufferedImage().getSource()));
+		return overlay_.getStructureRenderer().renderToImagePlus("structure-viewer-content", overlay_.getImageWindow().getImagePlus());
 	}
 	
 	// ----------------------------------------------------------------------------
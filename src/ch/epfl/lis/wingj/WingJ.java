@@ -413,7 +413,7 @@ public class WingJ extends WJGuiPlus implements ActionListener {
 		// add it to the manager
 		image.setTitle(channelName + "_expression_projection_" + Integer.toString(minSlice) + "-" + Integer.toString(maxSlice));
 		ImagePlusManager manager = ImagePlusManager.getInstance();
-		manager.add(image.getTitle(), image);
+		manager.add(image.getTitle(), image, false, true); // pinned: used all the time
 		
 		return image;
 	}
@@ -52,13 +52,16 @@ import javax.swing.JLabel;
 import javax.swing.JTextField;
 
 import ch.epfl.lis.wingj.ImagePlusManager;
+import ch.epfl.lis.wingj.WJExportPipeline;
 import ch.epfl.lis.wingj.WJImages;
+import ch.epfl.lis.wingj.WJImagesMask;
 import ch.epfl.lis.wingj.WJMessage;
 import ch.epfl.lis.wingj.WJSettings;
-import ch.epfl.lis.wingj.WJStructureViewer;
+import ch.epfl.lis.wingj.WJSettingsSnapshot;
 import ch.epfl.lis.wingj.WingJ;
 import ch.epfl.lis.wingj.expression.ExpressionDataset;
 import ch.epfl.lis.wingj.expression.ExpressionDataset1D;
+import ch.epfl.lis.wingj.expression.ExpressionPlotService;
 import ch.epfl.lis.wingj.expression.ExpressionMap;
 import ch.epfl.lis.wingj.structure.Structure;
 import ch.epfl.lis.wingj.structure.StructureDataset;
@@ -148,6 +151,13 @@ public class Experiment {
 	protected Integer[] middleSliceIndexes_ = null;
 	/** Half range. For selecting the range of slices only. */
 	protected int halfSliceRange_ = 5;
+	
+	/** Pipeline writing the datasets while the next ones are computed (shut down in close()). */
+	protected WJExportPipeline exportPipeline_ = null;
+	/** If its multi-page document is open, the expression profile plots are added to it (e.g. one PDF for a batch). */
+	protected ExpressionPlotService expressionPlotService_ = null;
+	/** Settings taken when the experiment is initialized and used by its datasets. */
+	protected WJSettingsSnapshot settings_ = null;
 		
 	// ============================================================================
 	// PUBLIC METHODS
@@ -244,7 +254,29 @@ public class Experiment {
 		settings.setOutputDirectory(directory_ + OUTPUT_DIRECTORY);
 		settings.setExperimentName("my_experiment");
 		
+		if (exportPipeline_ == null)
+			exportPipeline_ = new WJExportPipeline();
+		
 		openImageStacksAndComputeProjections();
+		settings_ = settings.snapshot();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Waits for the datasets to be written and stops the writer threads of the export
+	 * pipeline. The files which could not be written have been logged by the pipeline.
+	 */
+	public void close() throws Exception {
+		
+		if (exportPipeline_ == null)
+			return;
+		
+		WJExportPipeline pipeline = exportPipeline_;
+		exportPipeline_ = null;
+		pipeline.shutdown();
+		if (pipeline.getNumFailedJobs() > 0)
+			WJSettings.log("WARNING: " + pipeline.getNumFailedJobs() + " export job(s) failed for " + directory_ + ".");
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -253,6 +285,9 @@ public class Experiment {
 	@Override
 	public void finalize() throws Exception {
 		
+		// waits for the datasets to be written before closing the images
+		close();
+		
 		// closes all images registered in the manager
 		ImagePlusManager.getInstance().removeAll();
 		
@@ -279,7 +314,15 @@ public class Experiment {
 //		Thread t = new Thread(new MiddleSliceSelector(this));
 //        t.start();
 		
-        exportDatasets();
+		try {
+			exportDatasets();
+			close(); // waits for the datasets to be written
+		} finally {
+			if (exportPipeline_ != null) {
+				exportPipeline_.stop();
+				exportPipeline_ = null;
+			}
+		}
         finalize();
 	}
 	
@@ -407,7 +450,7 @@ public class Experiment {
 			
 			if (i == structureChannel_) {
 				structureMaxProjection_ = Projections.doProjection(WJImages.getImageStack(i), Projections.PROJECTION_MAX_METHOD, minSlices_.get(i), maxSlices_.get(i));
-				manager.add("structure_projection", structureMaxProjection_);
+				manager.add("structure_projection", structureMaxProjection_, false, true); // pinned: used all the time
 			}
 		}
 	}
@@ -514,16 +557,40 @@ public class Experiment {
 			throw new Exception("ERROR: Structure is null.");
 		if (structureMaxProjection_ == null)
 			throw new Exception("ERROR: Structure projection is null.");
-		
-		// create a structure viewer that will be exported by the dataset
-		WJStructureViewer viewer = new WJStructureViewer(structure_, structureMaxProjection_.duplicate());
-		StructureDataset dataset = structure_.newStructureDataset();
-		dataset.setStructureVisualization(viewer);
-		
-		dataset.run(); // instead of execute()
-		dataset.get();
-		
-		viewer.setVisible(false);
+		if (settings_ == null)
+			throw new Exception("ERROR: Experiment is not initialized.");
+		
+		// only the files are written by the writer threads: the structure is painted
+		// off-screen by its renderer (no structure viewer) on a copy of the projection
+		final String root = settings_.getOutputDirectory() + settings_.getExperimentName();
+		final Structure structure = structure_.copy();
+		final ImagePlus image = structureMaxProjection_.duplicate();
+		
+		WJExportPipeline pipeline = getExportPipeline();
+		pipeline.submit("Writing structure (xml)", new WJExportPipeline.Job() {
+			@Override
+			public void run() throws Exception {
+				structure.write(new File(root + "_structure.xml").toURI());
+			}
+		});
+		pipeline.submit("Writing structure measurements (xml)", new WJExportPipeline.Job() {
+			@Override
+			public void run() throws Exception {
+				structure.writeStructureMeasurements(new File(root + "_structure_measurements.xml").toURI());
+			}
+		});
+		pipeline.submit("Writing structure preview (tif)", new WJExportPipeline.Job() {
+			@Override
+			public void run() throws Exception {
+				structure.getStructureRenderer().save(new File(root + "_structure.tif").toURI(), image);
+			}
+		});
+		pipeline.submit("Writing structure binary mask (tif)", new WJExportPipeline.Job() {
+			@Override
+			public void run() throws Exception {
+				WJImagesMask.saveBinaryMask(new File(root + "_structure_mask.tif").toURI(), image, structure);
+			}
+		});
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -534,11 +601,14 @@ public class Experiment {
 		if (structure_ == null)
 			throw new Exception("ERROR: Structure is null.");
 		
-		WJSettings settings = WJSettings.getInstance();
-		settings.setExpression1DSaveMeasurementDomain(true);
-		settings.setExpression1DSavePdf(true);
+		// all the datasets of the experiment use the same settings: sigma, PDF and
+		// measurement domain are set on the snapshot, WJSettings is not modified
+		if (settings_ == null)
+			settings_ = WJSettings.getInstance().snapshot();
+		settings_ = settings_.withExpression1D(5, true, true);
 		
 		ExpressionDataset1D dataset = null;
+		List<ExpressionDataset1D> datasets = new ArrayList<ExpressionDataset1D>();
 		for (int i = 0; i < genes_.size(); i++) {
 			if (projections_.get(i) == null || projections_.get(i).getProcessor() == null)
 				continue;
@@ -546,18 +616,35 @@ public class Experiment {
 			projections_.get(i).duplicate();
 			
 			dataset = new ExpressionDataset1D();
+			dataset.setSettings(settings_);
 			dataset.setExpressionImage(projections_.get(i).duplicate());
 			dataset.setStructure(structure_.copy());
 			dataset.setGeneName(genes_.get(i).getName());
 			
-			dataset.setReferenceBoundary(settings.getExpression1DBoundary());
-			dataset.setTrajectoryOffset(settings.getExpression1DTranslation());
-			dataset.setSigma(5/*settings.getExpression1DSigma()*/);
-			settings.setExpression1DSigma(5);
+			dataset.setReferenceBoundary(settings_.getExpression1DBoundary());
+			dataset.setTrajectoryOffset(settings_.getExpression1DTranslation());
+			dataset.setSigma(settings_.getExpression1DSigma());
 			dataset.setFilename(ExpressionDataset.getExpressionDataset1dDefaultFilename(i));
+			dataset.setPlotService(expressionPlotService_);
 			
 			dataset.generateDataset(); // instead of execute() or run() because anyway done() is called asynchronously
-			dataset.export();
+			datasets.add(dataset);
+			
+			// the next gene is quantified while the files of this one are written
+			final ExpressionDataset1D exportedDataset = dataset;
+			getExportPipeline().submit(null, new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					exportedDataset.export();
+				}
+			});
+		}
+		
+		// the plots are added to the document of the batch (if any) in the order of
+		// the genes, independently of the order in which the writer threads run
+		if (expressionPlotService_ != null && expressionPlotService_.isDocumentOpen()) {
+			for (ExpressionDataset1D d : datasets)
+				d.addPlotPage(expressionPlotService_);
 		}
 	}
 	
@@ -794,11 +881,18 @@ public class Experiment {
 	public List<ImagePlus> getProjections() { return projections_; }
 	
 	public Structure getStructure() { return structure_; }
+	public WJSettingsSnapshot getSettingsSnapshot() { return settings_; }
 	
 	public String getOutputDirectory() { return new String(directory_ + OUTPUT_DIRECTORY); }
 	
 	public ImagePlus getProjection(int index) { return projections_.get(index); }
 	
+	public void setExportPipeline(WJExportPipeline pipeline) { exportPipeline_ = pipeline; }
+	public WJExportPipeline getExportPipeline() { return (exportPipeline_ != null ? exportPipeline_ : WJExportPipeline.SYNCHRONOUS); }
+	
+	public void setExpressionPlotService(ExpressionPlotService service) { expressionPlotService_ = service; }
+	public ExpressionPlotService getExpressionPlotService() { return expressionPlotService_; }
+	
 	/**
 	 * Interface for entering the index of the middle slice selected for each channel.
 	 * <p>
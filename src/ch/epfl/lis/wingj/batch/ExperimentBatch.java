@@ -44,9 +44,12 @@ import java.util.StringTokenizer;
 import org.apache.commons.io.FilenameUtils;
 
 import ch.epfl.lis.wingj.ImagePlusManager;
+import ch.epfl.lis.wingj.WJExportPipeline;
+import ch.epfl.lis.wingj.WJLog;
 import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.expression.ExpressionDataset2DAggregated;
 import ch.epfl.lis.wingj.expression.ExpressionMap;
+import ch.epfl.lis.wingj.expression.ExpressionPlotService;
 import ch.epfl.lis.wingj.structure.Structure;
 import ch.epfl.lis.wingj.utilities.ImageUtils;
 
@@ -86,6 +89,11 @@ public class ExperimentBatch {
 	/** List of "experiments root directory". */
 	protected List<String> rootDirectories_ = null;
 	
+	/** Writes the expression profile plots of all the experiments to a single PDF (null if not used). */
+	protected ExpressionPlotService expressionPlotService_ = null;
+	/** If not null, the expression profile plots of all the experiments are written to this PDF file. */
+	protected URI expressionProfilesPdfUri_ = null;
+	
 	// ============================================================================
 	// These two variables are used to generate asynchronous aggregated models, i.e.
 	// where the number of experiments used for generating the target aggregated model
@@ -151,8 +159,19 @@ public class ExperimentBatch {
 		try {
 //			new ImageJ(); // not required to display images but tools can be handy
 			
+			// the experiments must not wait for the log window
+			WJLog.setAsynchronous(true);
+			
 			batch_ = new ExperimentBatch();
 			
+			// ============================================================================
+			// Writes the expression profile plots of all the experiments run with
+			// runNextExperiment() as the pages of a single PDF file whose path is given
+			// as first argument (otherwise one PDF file is written for each profile).
+			
+			if (args.length > 0)
+				batch_.setExpressionProfilesPdf(new File(args[0]).toURI());
+			
 			// ============================================================================
 			// Uses the experiments defined in the methods included at the end
 			// of this class
@@ -286,22 +305,72 @@ public class ExperimentBatch {
 		} catch (Exception e) {
 			WJSettings.log("ERROR: ExperimentBatch failed.");
 			e.printStackTrace();
+			WJLog.flush();
 			System.exit(-1);
 		}
+		WJLog.flush();
 		System.exit(0);
 	}
 	
 	// ----------------------------------------------------------------------------
 	
-	/** Runs the next experiment. */
+	/**
+	 * Runs the next experiment. The PDF file containing the expression profile plots
+	 * of the batch (if any) is opened before the first experiment and closed after the
+	 * last one or if an experiment fails.
+	 */
 	public void runNextExperiment() throws Exception {
 		
 		if (nextExperimentIndex_ < experiments_.size()) {
-			experiments_.get(nextExperimentIndex_).run();
+			try {
+				if (nextExperimentIndex_ == 0 && expressionProfilesPdfUri_ != null)
+					openExpressionProfilesPdf(expressionProfilesPdfUri_);
+				experiments_.get(nextExperimentIndex_).setExpressionPlotService(expressionPlotService_);
+				experiments_.get(nextExperimentIndex_).run();
+			} catch (Exception e) {
+				// the pages written so far are kept
+				try {
+					closeExpressionProfilesPdf();
+				} catch (Exception e2) {
+					WJSettings.log("[ ] Writing expression profile plots of the batch (pdf)");
+				}
+				throw e;
+			}
 			WJSettings.log("[x] Experiment complete (" + experiments_.get(nextExperimentIndex_).getDirectory() + ")");
 			nextExperimentIndex_++;
-		} else
+		} else {
+			closeExpressionProfilesPdf();
+			WJLog.flush();
 			System.exit(0);
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Writes the expression profile plots of all the experiments as the pages of the given PDF file.
+	 * <p>
+	 * The document is streamed to disk as the experiments are run. It must be closed
+	 * using closeExpressionProfilesPdf().
+	 */
+	public void openExpressionProfilesPdf(URI uri) throws Exception {
+		
+		closeExpressionProfilesPdf();
+		expressionPlotService_ = new ExpressionPlotService();
+		expressionPlotService_.openDocument(uri);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Closes the PDF file containing the expression profile plots of all the experiments (if any). */
+	public void closeExpressionProfilesPdf() throws Exception {
+		
+		if (expressionPlotService_ == null)
+			return;
+		
+		expressionPlotService_.closeDocument();
+		WJSettings.log("[x] Writing expression profile plots of the batch (" + expressionPlotService_.getNumPages() + " pages, pdf)");
+		expressionPlotService_ = null;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -421,26 +490,34 @@ public class ExperimentBatch {
 		List<Gene> genes = e.getGenes();
 		e.finalize();
 
-		List<ExpressionMap> projections = new ArrayList<ExpressionMap>();
-		for (int i = 0; i < genes.size(); i++) {
-			if (genes.get(i) == null)
-				continue; // skip this gene/channel
-			
-			String geneName = genes.get(i).getName();
-			// loads the projection that is in the output directory
-			projections.clear();
-			for (int j = 0; j < experiments.size(); j++) {
-				String filename = experiments.get(j).getOutputDirectory() + geneName + "_projection.tif";
-				ImagePlus ip = IJ.openImage(filename);
-				projections.add(new ExpressionMap(geneName + "_projection", ip.duplicate().getProcessor()));
-			}
+		// the files of each dataset are written in parallel
+		WJExportPipeline pipeline = new WJExportPipeline();
+		try {
+			List<ExpressionMap> projections = new ArrayList<ExpressionMap>();
+			for (int i = 0; i < genes.size(); i++) {
+				if (genes.get(i) == null)
+					continue; // skip this gene/channel
 			
-			// here we have everything we need to start aggregating
-			ExpressionDataset2DAggregated dataset = new ExpressionDataset2DAggregated(structures, projections);
-			dataset.setFilename(rootDirectory + geneName + "_agg_expression_map");
+				String geneName = genes.get(i).getName();
+				// loads the projection that is in the output directory
+				projections.clear();
+				for (int j = 0; j < experiments.size(); j++) {
+					String filename = experiments.get(j).getOutputDirectory() + geneName + "_projection.tif";
+					ImagePlus ip = IJ.openImage(filename);
+					projections.add(new ExpressionMap(geneName + "_projection", ip.duplicate().getProcessor()));
+				}
 			
-			dataset.generateDataset();
-			dataset.export();
+				// here we have everything we need to start aggregating
+				ExpressionDataset2DAggregated dataset = new ExpressionDataset2DAggregated(structures, projections);
+				dataset.setFilename(rootDirectory + geneName + "_agg_expression_map");
+				dataset.setExportPipeline(pipeline);
+			
+				dataset.generateDataset();
+				dataset.export();
+			}
+			pipeline.shutdown();
+		} finally {
+			pipeline.stop();
 		}
 	}
 	
@@ -712,77 +789,88 @@ public class ExperimentBatch {
 		
 		List<ExperimentBatch> batches = ExperimentDefinitions.getAggExperimentBatches();
 		Set<String> genesDone = new HashSet<String>();
-		
-		// for each batch
-		for (ExperimentBatch batch : batches) {
-			// gets structures for target aggregated structure models
-			List<Structure> structuresForAggStructureModel = Experiment.getStructures(batch.getExperimentsForAggStructureModel());
-			// initializes experiments before accessing the genes
-			for (Experiment e : batch.getExperimentsForExpressionQuantification())
-				e.initialize();
-			// finds all the genes that the given experiments have in common
-			List<String> geneNames = Experiment.getCommonGeneNames(batch.getExperimentsForExpressionQuantification());
-			WJSettings.log("Common genes: " + geneNames);
-			// closes image stack (we have the projections now)
-			// projections are not registered in the manager
-			ImagePlusManager.getInstance().removeAll();
-			
-			if (geneNames.size() == 0)
-				throw new Exception("ERROR: The given experiments don't have any gene in common.");
-			for (int g = 0; g < geneNames.size(); g++) {
+		// the files of each dataset are written in parallel
+		WJExportPipeline pipeline = new WJExportPipeline();
+		try {
+			// for each batch
+			for (ExperimentBatch batch : batches) {
+				// gets structures for target aggregated structure models
+				List<Structure> structuresForAggStructureModel = Experiment.getStructures(batch.getExperimentsForAggStructureModel());
+				// initializes experiments before accessing the genes
+				for (Experiment e : batch.getExperimentsForExpressionQuantification())
+					e.initialize();
+				// finds all the genes that the given experiments have in common
+				List<String> geneNames = Experiment.getCommonGeneNames(batch.getExperimentsForExpressionQuantification());
+				WJSettings.log("Common genes: " + geneNames);
+				// closes image stack (we have the projections now)
+				// projections are not registered in the manager
+				ImagePlusManager.getInstance().removeAll();
+			
+				if (geneNames.size() == 0)
+					throw new Exception("ERROR: The given experiments don't have any gene in common.");
+				for (int g = 0; g < geneNames.size(); g++) {
 				
-//				if (geneNames.get(g).compareTo("salAB") != 0)
-//					continue;
+	//				if (geneNames.get(g).compareTo("salAB") != 0)
+	//					continue;
 				
-				// gets structures and projections for expression quantification
-				List<Structure> structuresForExpression = Experiment.getStructures(batch.getExperimentsForExpressionQuantification());
-				List<ExpressionMap> projections = Experiment.getProjections(batch.getExperimentsForExpressionQuantification(), geneNames.get(g));
-				WJSettings.log("Num. of structures for structure model: " + structuresForAggStructureModel.size());
-				WJSettings.log("Num. of structures for expression: " + structuresForExpression.size());
-				WJSettings.log("Num. of projections for " + geneNames.get(g) + ": " + projections.size());
+					// gets structures and projections for expression quantification
+					List<Structure> structuresForExpression = Experiment.getStructures(batch.getExperimentsForExpressionQuantification());
+					List<ExpressionMap> projections = Experiment.getProjections(batch.getExperimentsForExpressionQuantification(), geneNames.get(g));
+					WJSettings.log("Num. of structures for structure model: " + structuresForAggStructureModel.size());
+					WJSettings.log("Num. of structures for expression: " + structuresForExpression.size());
+					WJSettings.log("Num. of projections for " + geneNames.get(g) + ": " + projections.size());
 				
-				if (structuresForExpression.size() != projections.size())
-					throw new Exception("ERROR: The number of structures and projections found are not the same for " + geneNames.get(g) + ".");
+					if (structuresForExpression.size() != projections.size())
+						throw new Exception("ERROR: The number of structures and projections found are not the same for " + geneNames.get(g) + ".");
 				
-				// before generating the dataset, we must figure out if the data are related to wild type
-				// or mutant experiments. The age should also be found. These two informations are extracted
-				// from the experiment name of the first experiment.
-				String firstExperimentDirectory = batch.getExperimentsForExpressionQuantification().get(0).getDirectory();
-				String experimentName = Experiment.getExperimentNameFromExperimentDirectory(firstExperimentDirectory);
-				List<String> mutantNames = Experiment.getMutantNamesFromExperimentName(experimentName); // we expect a single mutant
-				if (mutantNames.isEmpty())
-					mutantNames.add("wt");
-				String ageStr = Experiment.roundAgeStringToNearest10(Experiment.getAgeStringFromExperimentName(experimentName));
+					// before generating the dataset, we must figure out if the data are related to wild type
+					// or mutant experiments. The age should also be found. These two informations are extracted
+					// from the experiment name of the first experiment.
+					String firstExperimentDirectory = batch.getExperimentsForExpressionQuantification().get(0).getDirectory();
+					String experimentName = Experiment.getExperimentNameFromExperimentDirectory(firstExperimentDirectory);
+					List<String> mutantNames = Experiment.getMutantNamesFromExperimentName(experimentName); // we expect a single mutant
+					if (mutantNames.isEmpty())
+						mutantNames.add("wt");
+					String ageStr = Experiment.roundAgeStringToNearest10(Experiment.getAgeStringFromExperimentName(experimentName));
 				
-				// builds generic filename
-				String filename = outputDirectory + mutantNames.get(0) + "_" + geneNames.get(g) + "_" + ageStr;
+					// builds generic filename
+					String filename = outputDirectory + mutantNames.get(0) + "_" + geneNames.get(g) + "_" + ageStr;
 				
-				// generates dataset
-				// XXX: processes only if the given gene as not yet been processed from another experiment
-				if (!genesDone.contains(geneNames.get(g))) {
-					ExpressionDataset2DAggregated dataset = new ExpressionDataset2DAggregated(structuresForExpression, structuresForAggStructureModel, projections);
-					dataset.generateDataset();
+					// generates dataset
+					// XXX: processes only if the given gene as not yet been processed from another experiment
+					if (!genesDone.contains(geneNames.get(g))) {
+						ExpressionDataset2DAggregated dataset = new ExpressionDataset2DAggregated(structuresForExpression, structuresForAggStructureModel, projections);
+						dataset.generateDataset();
 					
-					// exports dataset to files
-					dataset.setFilename(filename);
-					dataset.export();
+						// exports dataset to files
+						dataset.setFilename(filename);
+						dataset.setExportPipeline(pipeline);
+						dataset.export();
 					
-					genesDone.add(geneNames.get(g));
+						genesDone.add(geneNames.get(g));
+					}
 				}
-			}
 			
-			// cleans
-			ImagePlusManager.getInstance().removeAll();
-			for (Experiment exp : batch.getExperimentsForAggStructureModel())
-				exp.finalize();
-			for (Experiment exp : batch.getExperimentsForExpressionQuantification())
-				exp.finalize();
+				// cleans
+				ImagePlusManager.getInstance().removeAll();
+				for (Experiment exp : batch.getExperimentsForAggStructureModel())
+					exp.finalize();
+				for (Experiment exp : batch.getExperimentsForExpressionQuantification())
+					exp.finalize();
+			}
+			pipeline.shutdown();
+		} finally {
+			pipeline.stop();
 		}
 	}
 	
 	// ============================================================================
 	// SETTERS AND GETTERS
 	
+	/** Sets the PDF file where the expression profile plots of all the experiments are written (opened with the first experiment). */
+	public void setExpressionProfilesPdf(URI uri) { expressionProfilesPdfUri_ = uri; }
+	public URI getExpressionProfilesPdf() { return expressionProfilesPdfUri_; }
+	
 	public void setExperimentsForAggStructureModel(List<Experiment> experiments) { experimentsForAggStructureModel_ = experiments; }
 	public List<Experiment> getExperimentsForAggStructureModel() { return experimentsForAggStructureModel_; }
 	
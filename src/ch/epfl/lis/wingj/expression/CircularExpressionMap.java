@@ -29,9 +29,11 @@ package ch.epfl.lis.wingj.expression;
 import java.awt.geom.Point2D;
 
 import ch.epfl.lis.wingj.WJSettings;
+import ch.epfl.lis.wingj.WJSettingsSnapshot;
 import ch.epfl.lis.wingj.structure.Structure;
 import ch.epfl.lis.wingj.structure.geometry.Grid;
 import ch.epfl.lis.wingj.utilities.Filters;
+import ch.epfl.lis.wingj.utilities.FloatImageView;
 
 import ij.ImagePlus;
 import ij.process.FloatProcessor;
@@ -69,7 +71,13 @@ public class CircularExpressionMap extends ImagePlus {
     /** Returns the circular sampling density map oriented in the canonical position for a particular projection mode. */
 	static public FloatProcessor computeSamplingDensityMap(int width, int height, Structure structure, Grid grid, int projectionMode) throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
+		return computeSamplingDensityMap(width, height, structure, grid, projectionMode, WJSettings.getInstance().snapshot());
+	}
+	
+	// ----------------------------------------------------------------------------
+
+    /** Returns the circular sampling density map using the given settings (can be called concurrently with different settings). */
+	static public FloatProcessor computeSamplingDensityMap(int width, int height, Structure structure, Grid grid, int projectionMode, WJSettingsSnapshot settings) throws Exception {
 		
 		if (structure == null)
 			throw new Exception("ERROR: Structure is null.");
@@ -206,8 +214,25 @@ public class CircularExpressionMap extends ImagePlus {
 	
 	/** Returns the circular expression map oriented in the canonical position for a particular projection mode. */
     static public FloatProcessor computeExpressionMap(ImagePlus expression, Structure structure, Grid grid, int projectionMode) throws Exception {
+    	
+    	return computeExpressionMap(FloatImageView.create(expression.getProcessor()), structure, grid, projectionMode);
+    }
+    
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the circular expression map oriented in the canonical position for a particular projection mode.
+	 * The expression is sampled directly from the given read-only view (bicubic interpolation).
+	 */
+    static public FloatProcessor computeExpressionMap(FloatImageView expression, Structure structure, Grid grid, int projectionMode) throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
+		return computeExpressionMap(expression, structure, grid, projectionMode, WJSettings.getInstance().snapshot());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the circular expression map using the given settings (can be called concurrently with different settings). */
+    static public FloatProcessor computeExpressionMap(FloatImageView expression, Structure structure, Grid grid, int projectionMode, WJSettingsSnapshot settings) throws Exception {
 		
 		if (structure == null)
 			throw new Exception("ERROR: Structure is null.");
@@ -219,15 +244,12 @@ public class CircularExpressionMap extends ImagePlus {
 		if (gridLength == 0)
 			throw new Exception("ERROR: grid is empty.");
 		
-		FloatProcessor expressionProcessor = (FloatProcessor) expression.getProcessor().convertToFloat();
-		expressionProcessor.setInterpolationMethod(ImageProcessor.BICUBIC);
-
 		double[] wPouchSquareExpressionMap = new double[gridLength * gridLength];
 		for(int i=0; i<gridLength; i++) {
 			for(int j=0; j<gridLength; j++) {
 				double x = grid.getCoordinate(i, j).x;
 				double y = grid.getCoordinate(i, j).y;
-				wPouchSquareExpressionMap[i + j*gridLength] = Math.min(Math.max(expressionProcessor.getInterpolatedPixel(x, y), 0.0), 255.0);
+				wPouchSquareExpressionMap[i + j*gridLength] = Math.min(Math.max(expression.getBicubicInterpolatedPixel(x, y), 0.0), 255.0);
 				if(settings.normalizeExpression()) wPouchSquareExpressionMap[i+j*gridLength] /= 255.0;
 			}
 		}
@@ -167,6 +167,7 @@ public class ExpressionDataset {
 	
 		WJSettings settings = WJSettings.getInstance();
 		ExpressionDataset2D dataset = new ExpressionDataset2D(image, structure);
+		dataset.setSettings(settings.snapshot());
 		dataset.setFilename(filename);
 		dataset.setGeneName(settings.getGeneName(channel));
 		dataset.setBoundaryConserved(settings.getExpression2dOffset(channel));
@@ -33,11 +33,14 @@ import javax.swing.SwingWorker;
 
 import ch.epfl.lis.wingj.WJMessage;
 import ch.epfl.lis.wingj.WJSettings;
+import ch.epfl.lis.wingj.WJSettingsSnapshot;
 import ch.epfl.lis.wingj.WingJ;
 import ch.epfl.lis.wingj.utilities.Filters;
+import ch.epfl.lis.wingj.utilities.FloatImageView;
 import ch.epfl.lis.wingj.utilities.StringUtils;
 import ch.epfl.lis.wingj.analytics.Analytics;
 import ch.epfl.lis.wingj.structure.Boundary;
+import ch.epfl.lis.wingj.structure.BoundaryParametrization;
 import ch.epfl.lis.wingj.structure.Structure;
 
 import ij.ImagePlus;
@@ -52,7 +55,10 @@ import ij.process.FloatProcessor;
  * from WJSettings, 2) classes like WPouchStructure, Boundary, etc. must not be modified
  * by thread and 3) if ImagePlus or dialog (visualization, plot, etc.) are generated
  * for the sake of one thread, the others threads must not close them. In the current
- * implementation, only "scale" and "normalize" are taken from WJSettings.
+ * implementation, the settings are read from a snapshot of WJSettings (see
+ * WJSettingsSnapshot) given with setSettings() or otherwise taken when the settings
+ * are first needed, so that modifying the settings while the dataset is generated or
+ * exported has no effect on it.
  * 
  * @version September 8, 2011
  * 
@@ -65,6 +71,8 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	protected ImagePlus image_ = null;
 	/** Structure object. */
 	protected Structure structure_ = null;
+	/** Settings used to generate and export the dataset (see getSettings()). */
+	protected WJSettingsSnapshot settings_ = null;
 
 	/** Reference boundary. */
 	protected int referenceBoundary_ = WJSettings.BOUNDARY_DV;
@@ -82,8 +90,21 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	
 	/** Gene expression profile. */
 	private ExpressionProfile profile_ = null;
-	/** Gene expression plot. */
+	/** Gene expression plot (only created to show the dataset). */
 	private ExpressionPlot plot_ = null;
+	/** Title of the expression plot. */
+	private String plotTitle_ = null;
+	/** X label of the expression plot. */
+	private String plotXLabel_ = null;
+	/** Y label of the expression plot. */
+	private String plotYLabel_ = null;
+	/**
+	 * If its multi-page document is open, the plot is not written to a separate PDF
+	 * file: the owner of the document adds it as a new page with addPlotPage() so that
+	 * the pages are in a deterministic order. If null, the service of the current thread
+	 * is used to write one PDF file.
+	 */
+	private ExpressionPlotService plotService_ = null;
 	/** Gene expression domain visualization. */
 	private ExpressionDomain domain_ = null;
 	
@@ -96,10 +117,10 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	// ============================================================================
 	// PRIVATE METHODS
 	
-	/** Generate the 1D expression plot. */
-	private ExpressionPlot generatePlot() throws Exception {
+	/** Generates the title and labels of the 1D expression plot. */
+	private void generatePlotLabels() throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
+		WJSettingsSnapshot settings = getSettings();
 			
 		String title = geneName_ + " expression level along the";
 		String translationDirection = "";
@@ -114,10 +135,9 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 		} else
 			throw new Exception("ERROR: Invalid compartment boundary.");
 		
-		String xlabel = "X (" + settings.getUnit() + ")";
-		String ylabel = "[" + geneName_ + "] (a.u.)";
-
-		return new ExpressionPlot(title, xlabel, ylabel, profile_);
+		plotTitle_ = title;
+		plotXLabel_ = "X (" + settings.getUnit() + ")";
+		plotYLabel_ = "[" + geneName_ + "] (a.u.)";
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -135,20 +155,18 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 		if (trajectory == null)
 			throw new Exception("ERROR: Trajectory is null.");
 		
-		WJSettings settings = WJSettings.getInstance();
+		WJSettingsSnapshot settings = getSettings();
 		
 		int length = trajectory.npoints;
 		double[] xaxis = new double[length];
 		double[] yaxis = new double[length];
 		
-		// duplicate the source
-		ImagePlus source = image.duplicate();
+		// sample the source without copying it
+		FloatImageView source = FloatImageView.create((FloatProcessor) image.getProcessor());
 
 		Point2D.Double[] normalVectors = trajectory.getSmoothedNormalVectors();
-		FloatProcessor proc =  (FloatProcessor) source.getProcessor();
-		
 		for(int i=0; i<length; i++) {
-			yaxis[i] = Filters.apply1DGaussianFilterOnDirectionForPoint(trajectory.xpoints[i], trajectory.ypoints[i], normalVectors[i], proc, sigma);
+			yaxis[i] = Filters.apply1DGaussianFilterOnDirectionForPoint(trajectory.xpoints[i], trajectory.ypoints[i], normalVectors[i], source, sigma);
    		}
 
    		// set the spatial dimension (x-axis)
@@ -186,7 +204,7 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	 */
 	private void computeTrajectoryAsTranslatedBoundary(Structure structure, int referenceBoundary, double offset) throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
+		WJSettingsSnapshot settings = getSettings();
 		offset = trajectoryOffset_ / 100.; // convert to [-1,1]
 		
 		// returns trajectory_ and negativeTrajectoryLengthInUm_
@@ -204,7 +222,10 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 			double stepSize = settings.getExpression1DStepSize();
 			if(stepSize == 0)
 				throw new Exception("ERROR: Invalid step size.");
-			trajectory_ = trajectory_.resample((int)Math.round(trajectory_.length() / stepSize));
+			// the arc-length table is computed once for the length and the resampling
+			BoundaryParametrization parametrization = trajectory_.parametrize();
+			double length = parametrization.getLength() * settings.getScale();
+			trajectory_ = parametrization.resample((int)Math.round(length / stepSize));
 		}
 	}
 	
@@ -256,7 +277,7 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	/** Generate the 1D expression dataset. */
 	public void generateDataset() throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
+		WJSettingsSnapshot settings = getSettings();
 		
 		// define the trajectory along which the expression is measured
 		// the trajectory is a vector of points
@@ -277,7 +298,9 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 		
 		// generate plot
 		if (filename_ == null || settings.getExpression1DSavePdf())
-			plot_ = generatePlot(); // requires profile_
+			generatePlotLabels();
+		if (filename_ == null)
+			plot_ = new ExpressionPlot(plotTitle_, plotXLabel_, plotYLabel_, profile_); // requires profile_
 		// generate expression domain visualization
 		if (filename_ == null || settings.getExpression1DSaveMeasurementDomain()) {
 			domain_ = new ExpressionDomain();
@@ -287,6 +310,7 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 			// generate
 			domain_.setImage(image_);
 			domain_.setCompartment(structure_);
+			domain_.setSigma(sigma_);
 			domain_.setTrajectory(trajectory_);	//trajectory_.restrictToCompartment(pouch_)		
 		}
 	}
@@ -325,12 +349,11 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 				WJMessage.showMessage(e);
 			}
 			
-			if (WJSettings.getInstance().getExpression1DSavePdf()) {
+			if (getSettings().getExpression1DSavePdf() && (plotService_ == null || !plotService_.isDocumentOpen())) {
 				try {						
 					File file = new File(filename_ + ".pdf");
-			    	plot_.generatePlot();
-			    	plot_.savePDF(file.toURI());
-			    	plot_.dispose();
+					// the chart of the plot service is reused instead of creating a dialog
+					ExpressionPlotService.getInstance().savePDF(file.toURI(), plotTitle_, plotXLabel_, plotYLabel_, profile_);
 			    	WJSettings.log("[x] Writing " + geneName_ + " expression profile plot [ref = " + referenceBoundaryStr + ", offset = " + offsetStr + "] (pdf)");
 				} catch (Exception e) {
 					WJSettings.log("[ ] Writing " + geneName_ + " expression profile plot [ref = " + referenceBoundaryStr + ", offset = " + offsetStr + "] (pdf)");
@@ -338,7 +361,7 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 				}
 			}
 			
-			if (WJSettings.getInstance().getExpression1DSaveMeasurementDomain()) {
+			if (getSettings().getExpression1DSaveMeasurementDomain()) {
 				try {
 					File file = new File(filename_ + ".tif");
 			    	domain_.generateVisualization(false);
@@ -366,6 +389,20 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
     	ExpressionDomain.disposeAll();
 	}
     
+	// ----------------------------------------------------------------------------
+	
+	/** Adds the plot of the expression profile as a new page of the open document of the given service. */
+	public void addPlotPage(ExpressionPlotService service) throws Exception {
+		
+		if (profile_ == null)
+			throw new Exception("ERROR: Expression profile is null.");
+		
+		if (plotTitle_ == null)
+			generatePlotLabels();
+		service.addPage(plotTitle_, plotXLabel_, plotYLabel_, profile_);
+		WJSettings.log("[x] Adding " + geneName_ + " expression profile plot to the batch document (pdf)");
+	}
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 
@@ -375,6 +412,10 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
    	public void setStructure(Structure structure) { structure_ = structure; }
    	public Structure getStructure() { return structure_; }
    	
+   	public void setSettings(WJSettingsSnapshot settings) { settings_ = settings; }
+   	/** Returns the settings of the dataset (a snapshot of the current settings if none has been given). */
+   	public WJSettingsSnapshot getSettings() { if (settings_ == null) settings_ = WJSettings.getInstance().snapshot(); return settings_; }
+   	
    	public void setReferenceBoundary(int reference) { referenceBoundary_ = reference; }
    	public int getReferenceBoundary() { return referenceBoundary_; }
    	
@@ -390,4 +431,7 @@ public class ExpressionDataset1D extends SwingWorker<Void, Void> {
 	public void setFilename(String filename) { filename_ = filename; }   	
    	
    	public ExpressionProfile getExpressionProfile() { return profile_; }
+   	
+   	public void setPlotService(ExpressionPlotService service) { plotService_ = service; }
+   	public ExpressionPlotService getPlotService() { return plotService_; }
 }
@@ -31,7 +31,6 @@ import java.io.File;
 
 import ij.IJ;
 import ij.ImagePlus;
-import ij.plugin.Duplicator;
 import ij.plugin.filter.EDM;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
@@ -43,11 +42,13 @@ import ch.epfl.lis.wingj.WJImages;
 import ch.epfl.lis.wingj.WJImagesMask;
 import ch.epfl.lis.wingj.WJMessage;
 import ch.epfl.lis.wingj.WJSettings;
+import ch.epfl.lis.wingj.WJSettingsSnapshot;
 import ch.epfl.lis.wingj.WingJ;
 import ch.epfl.lis.wingj.analytics.Analytics;
 import ch.epfl.lis.wingj.structure.geometry.FlatSphericalGridMaker;
 import ch.epfl.lis.wingj.structure.Structure;
 import ch.epfl.lis.wingj.structure.geometry.Grid;
+import ch.epfl.lis.wingj.utilities.FloatImageView;
 import ch.epfl.lis.wingj.utilities.StringUtils;
 
 /**
@@ -58,7 +59,9 @@ import ch.epfl.lis.wingj.utilities.StringUtils;
  * that 1) specific parameters must be set directly in the object and not taken
  * from WJSettings, 2) classes like WPouchStructure, Boundary, etc. must not be modified
  * by thread and 3) if ImagePlus or dialog (visualization, plot, etc.) are generated
- * for the sake of one thread, the others threads must not close them.
+ * for the sake of one thread, the others threads must not close them. The settings
+ * are read from a snapshot of WJSettings (see WJSettingsSnapshot) given with
+ * setSettings() or otherwise taken when the settings are first needed.
  * 
  * @version May 18, 2012
  *
@@ -70,8 +73,10 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 	/** Default filename suffix for exporting raw projections. */
 	public static final String EXPRESSION_PROJECTION_SUFFIX = "_projection";
 
-	/** Image to quantify. */
+	/** Image to quantify (not copied, must not be modified during the quantification). */
 	protected ImagePlus image_ = null;
+	/** Read-only view over the pixels of the image to quantify. */
+	protected FloatImageView imageView_ = null;
 	/** Structure object. */
 	protected Structure structure_ = null;
 	
@@ -79,6 +84,8 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 	protected String geneName_ = "";
 	/** Expression map boundary conserved value. */
 	protected double boundaryConserved_ = 0.;
+	/** Settings used to generate the dataset (see getSettings()). */
+	protected WJSettingsSnapshot settings_ = null;
 
 	/** 2D expression dataset (morphed version of the input image). */
 	protected ImagePlus expressionMap_ = null;
@@ -107,13 +114,13 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 
 		expressionMap_ = computeExpressionMap();
 	}
-
+	
 	// ----------------------------------------------------------------------------
 
 	/** Combines two morphed expression maps. */
 	private ImagePlus computeExpressionMap() throws Exception {
 
-		WJSettings settings = WJSettings.getInstance();
+		WJSettingsSnapshot settings = getSettings();
 		ImagePlusManager manager = ImagePlusManager.getInstance();
 
 		// generate two grids, one where the D-V axis is not distorted and the other where the A-P axis is not distorted
@@ -131,12 +138,12 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 		Grid gridDVEquator = wPouchMorpher.generateSphereLikeGrid(WJSettings.BOUNDARY_DV, nPoints);
 		Grid gridAPEquator = wPouchMorpher.generateSphereLikeGrid(WJSettings.BOUNDARY_AP, nPoints);
 
-		FloatProcessor expressionDVEquator = CircularExpressionMap.computeExpressionMap(image_, structure_, gridDVEquator, WJSettings.BOUNDARY_DV);
-		FloatProcessor expressionAPEquator = CircularExpressionMap.computeExpressionMap(image_, structure_, gridAPEquator, WJSettings.BOUNDARY_AP);
+		FloatProcessor expressionDVEquator = CircularExpressionMap.computeExpressionMap(imageView_, structure_, gridDVEquator, WJSettings.BOUNDARY_DV, settings);
+		FloatProcessor expressionAPEquator = CircularExpressionMap.computeExpressionMap(imageView_, structure_, gridAPEquator, WJSettings.BOUNDARY_AP, settings);
 		expressionAPEquator.flipVertical();
 
-		FloatProcessor samplingDensityDVEquator = CircularExpressionMap.computeSamplingDensityMap(image_.getWidth(), image_.getHeight(), structure_, gridDVEquator, WJSettings.BOUNDARY_DV);
-		FloatProcessor samplingDensityAPEquator = CircularExpressionMap.computeSamplingDensityMap(image_.getWidth(), image_.getHeight(), structure_, gridAPEquator, WJSettings.BOUNDARY_AP);
+		FloatProcessor samplingDensityDVEquator = CircularExpressionMap.computeSamplingDensityMap(image_.getWidth(), image_.getHeight(), structure_, gridDVEquator, WJSettings.BOUNDARY_DV, settings);
+		FloatProcessor samplingDensityAPEquator = CircularExpressionMap.computeSamplingDensityMap(image_.getWidth(), image_.getHeight(), structure_, gridAPEquator, WJSettings.BOUNDARY_AP, settings);
 
 		ImagePlus img = null;
 		
@@ -292,7 +299,8 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 	/** Constructor. */
 	public ExpressionDataset2D(ImagePlus image, Structure structure) throws Exception {
 
-		image_ = new Duplicator().run(image);
+		image_ = image;
+		imageView_ = FloatImageView.create(image.getProcessor());
 		// convert and copy the structure reference
 		structure_ = structure.copy();
 //		if (structure instanceof WPouchStructure)
@@ -462,4 +470,8 @@ public class ExpressionDataset2D extends SwingWorker<Void, Void> {
 
 	public void setBoundaryConserved(double value) { boundaryConserved_ = value; }
 	public double getBoundaryConserved() { return boundaryConserved_; }
+
+	public void setSettings(WJSettingsSnapshot settings) { settings_ = settings; }
+	/** Returns the settings of the dataset (a snapshot of the current settings if none has been given). */
+	public WJSettingsSnapshot getSettings() { if (settings_ == null) settings_ = WJSettings.getInstance().snapshot(); return settings_; }
 }
@@ -36,6 +36,7 @@ import ij.plugin.Duplicator;
 import javax.swing.SwingWorker;
 
 import ch.epfl.lis.wingj.ImagePlusManager;
+import ch.epfl.lis.wingj.WJExportPipeline;
 import ch.epfl.lis.wingj.WJImages;
 import ch.epfl.lis.wingj.WJImagesMask;
 import ch.epfl.lis.wingj.WJMessage;
@@ -105,6 +106,9 @@ public class ExpressionDataset2DAggregated extends SwingWorker<Void, Void> {
 	 * Otherwise, saves the community expression dataset to files.
 	 */
 	protected String filename_ = null;
+	
+	/** Pipeline writing the dataset files (if null, the files are written by the calling thread). */
+	protected WJExportPipeline exportPipeline_ = null;
 
 	// ============================================================================
 	// PUBLIC METHODS
@@ -256,216 +260,143 @@ public class ExpressionDataset2DAggregated extends SwingWorker<Void, Void> {
 		else { // save dataset to file
 			
 			WJSettings.log("Exporting expression dataset.");
+			
+			// the files are written by the writer threads of the pipeline while the
+			// next dataset is computed: the jobs only reference copies of the images
+			// registered in the manager, which are disposed at the end of this method
+			WJExportPipeline pipeline = exportPipeline_;
+			if (pipeline == null)
+				pipeline = WJExportPipeline.SYNCHRONOUS;
+			
+			final String filename = filename_;
+			final Structure meanStructure = meanAggregatedStructure_;
+			final Structure meanPlusStdStructure = meanPlusStdAggregatedStructure_;
+			final ImagePlus circularMap = aggregatedCircularExpressionMap_.duplicate();
+			final ImagePlus stdCircularMap = (aggregatedStdCircularExpressionMap_ != null ? aggregatedStdCircularExpressionMap_.duplicate() : null);
+			final ImagePlus map = aggregatedExpressionMap_.duplicate();
+			final ImagePlus stdMap = (aggregatedStdExpressionMap_ != null ? aggregatedStdExpressionMap_.duplicate() : null);
+			// saveExpressionImage() sets the display range of the image it saves: these jobs
+			// get their own copy while the other jobs read the maps concurrently
+			final ImagePlus mapCopy = map.duplicate();
+			final ImagePlus stdMapCopy = (stdMap != null ? stdMap.duplicate() : null);
+			final int circularMapWidth = circularMap.getWidth();
 
 			// save aggregated structure model
-			try {
-				File file = new File(filename_ + ".xml");
-				meanAggregatedStructure_.write(file.toURI());
-				WJSettings.log("[x] Writing mean structure model (xml)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean structure model (xml)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean structure model (xml)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					meanStructure.write(new File(filename + ".xml").toURI());
+				}
+			});
 			
 			// save mean+std aggregated structure model
-			try {
-				File file = new File(filename_ + "_meanPlusStd.xml");
-				meanPlusStdAggregatedStructure_.write(file.toURI());
-				WJSettings.log("[x] Writing mean+std structure model (xml)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean+std structure model (xml)");
-				WJMessage.showMessage(e);
-			}
-			
-//			// save mean-std aggregated structure model
-//			try {
-//				File file = new File(filename_ + "_meanMinusStd.xml");
-//				meanMinusStdAggregatedStructure_.write(file.toURI());
-//				WJSettings.log("[x] Writing " + geneName_ + " aggregated structure model -STD (xml)");
-//			} catch (Exception e) {
-//				WJSettings.log("[ ] Writing " + geneName_ + " aggregated structure model -STD (xml)");
-//				WJMessage.showMessage(e);
-//			}
+			pipeline.submit("Writing mean+std structure model (xml)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					meanPlusStdStructure.write(new File(filename + "_meanPlusStd.xml").toURI());
+				}
+			});
 			
 			// aggregated circular expression dataset
-			try {
-				File file = new File(filename_ + "_circular.tif");//EXPRESSION_PROJECTION_SUFFIX);
-				WJImages.saveExpressionImage(file.toURI().getPath(), aggregatedCircularExpressionMap_);
-//				if (settings.normalizeExpression())
-//					WJImages.save32Bit(file.toURI().getPath(), aggregatedCircularExpressionMap_);
-//				else
-//					WJImages.save32BitTo8BitWithoutScaling(file.toURI().getPath(), aggregatedCircularExpressionMap_);
-				
-//				ImagePlus clone = new Duplicator().run(aggregatedCircularExpressionMap_);
-////				new ImageConverter(clone).convertToRGB();
-//				ImageConverter converter = new ImageConverter(clone);
-//				if (!settings.normalizeExpression()) converter.convertToGray8();
-//				else converter.convertToGray32();
-//				IJ.save(clone, file.toURI().getPath());
-//				clone.close();
-				WJSettings.log("[x] Writing mean circular expression map (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean circular expression map (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean circular expression map (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					WJImages.saveExpressionImage(new File(filename + "_circular.tif").toURI().getPath(), circularMap);
+				}
+			});
 			
 			// aggregated std circular expression dataset
-			try {
-				if (aggregatedStdCircularExpressionMap_ != null) {
-					File file = new File(filename_ + "_circular_std.tif");//EXPRESSION_PROJECTION_SUFFIX);
-					WJImages.saveExpressionImage(file.toURI().getPath(), aggregatedStdCircularExpressionMap_);
-//					if (settings.normalizeExpression())
-//						WJImages.save32Bit(file.toURI().getPath(), aggregatedStdCircularExpressionMap_);
-//					else
-//						WJImages.save32BitTo8BitWithoutScaling(file.toURI().getPath(), aggregatedStdCircularExpressionMap_);
-					WJSettings.log("[x] Writing std circular expression map (tif)");
-				}
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing std circular expression map (tif)");
-				WJMessage.showMessage(e);
+			if (stdCircularMap != null) {
+				pipeline.submit("Writing std circular expression map (tif)", new WJExportPipeline.Job() {
+					@Override
+					public void run() throws Exception {
+						WJImages.saveExpressionImage(new File(filename + "_circular_std.tif").toURI().getPath(), stdCircularMap);
+					}
+				});
 			}
 			
 			// circular mask
-			try {
-				File file = new File(filename_ + "_circular_mask.tif");
-				ImagePlus mask = WJImagesMask.createCircularBinaryMask(aggregatedCircularExpressionMap_.getWidth()); // square image dimensions
-				IJ.save(mask, file.toURI().getPath());
-				WJSettings.log("[x] Writing mean circular expression map binary mask (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean circular expression map binary mask (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean circular expression map binary mask (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					ImagePlus mask = WJImagesMask.createCircularBinaryMask(circularMapWidth); // square image dimensions
+					IJ.save(mask, new File(filename + "_circular_mask.tif").toURI().getPath());
+				}
+			});
 			
 			// aggregated expression dataset
-			try {
-				File file = new File(filename_ + ".tif");//EXPRESSION_PROJECTION_SUFFIX);
-				WJImages.saveExpressionImage(file.toURI().getPath(), aggregatedExpressionMap_);
-//				if (settings.normalizeExpression())
-//					WJImages.save32Bit(file.toURI().getPath(), aggregatedExpressionMap_);
-//				else
-//					WJImages.save32BitTo8BitWithoutScaling(file.toURI().getPath(), aggregatedExpressionMap_);
-				
-//				ImagePlus clone = new Duplicator().run(aggregatedExpressionMap_);
-////				new ImageConverter(clone).convertToRGB();
-//				ImageConverter converter = new ImageConverter(clone);
-//				if (!settings.normalizeExpression()) converter.convertToGray8();
-//				else converter.convertToGray32();
-//				IJ.save(clone, file.toURI().getPath());
-//				clone.close();
-				WJSettings.log("[x] Writing mean expression map (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean expression map (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean expression map (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					WJImages.saveExpressionImage(new File(filename + ".tif").toURI().getPath(), mapCopy);
+				}
+			});
 			
 			// std aggregated expression dataset
-			try {
-				if (aggregatedStdExpressionMap_ != null) {
-					File file = new File(filename_ + "_std.tif");//EXPRESSION_PROJECTION_SUFFIX);
-					WJImages.saveExpressionImage(file.toURI().getPath(), aggregatedStdExpressionMap_);
-//					WindowManager.setTempCurrentImage(aggregatedStdExpressionMap_);
-//					IJ.run("Fire");
-//					if (settings.normalizeExpression())
-//						WJImages.save32Bit(file.toURI().getPath(), aggregatedStdExpressionMap_);
-//					else
-//						WJImages.save32BitTo8BitWithoutScaling(file.toURI().getPath(), aggregatedStdExpressionMap_);
-					
-//					ImagePlus clone = new Duplicator().run(aggregatedExpressionMap_);
-////					new ImageConverter(clone).convertToRGB();
-//					ImageConverter converter = new ImageConverter(clone);
-//					if (!settings.normalizeExpression()) converter.convertToGray8();
-//					else converter.convertToGray32();
-//					IJ.save(clone, file.toURI().getPath());
-//					clone.close();
-					WJSettings.log("[x] Writing std expression map (tif)");
-				}
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing std expression map (tif)");
-				WJMessage.showMessage(e);
+			if (stdMap != null) {
+				pipeline.submit("Writing std expression map (tif)", new WJExportPipeline.Job() {
+					@Override
+					public void run() throws Exception {
+						WJImages.saveExpressionImage(new File(filename + "_std.tif").toURI().getPath(), stdMapCopy);
+					}
+				});
 			}
 			
 			// aggregated expression dataset + structure on top of it
-			try {
-				File file = new File(filename_ + "_plus.tif");//EXPRESSION_PROJECTION_SUFFIX);
-				// creates structure viewer
-				structureViewer_ = new WJStructureViewer(meanAggregatedStructure_, aggregatedExpressionMap_, true); // use ImageWindow (not displayed)
-				structureViewer_.save(file.toURI());
-				WJSettings.log("[x] Writing mean expression map with structure (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean expression map with structure (tif)");
-				WJMessage.showMessage(e);
-			}
+			// the structure is painted off-screen (no ImageWindow required)
+			pipeline.submit("Writing mean expression map with structure (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					meanStructure.getStructureRenderer().save(new File(filename + "_plus.tif").toURI(), map);
+				}
+			});
 			
 			// aggregated std expression dataset + structure on top of it
-			try {
-				if (aggregatedStdExpressionMap_ != null) {
-					File file = new File(filename_ + "_std_plus.tif");//EXPRESSION_PROJECTION_SUFFIX);
-					// creates structure viewer
-					structureViewer_ = new WJStructureViewer(meanAggregatedStructure_, aggregatedStdExpressionMap_, true); // use ImageWindow (not displayed)
-					structureViewer_.save(file.toURI());
-					WJSettings.log("[x] Writing std expression map with structure (tif)");
-				}
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing std expression map with structure (tif)");
-				WJMessage.showMessage(e);
+			if (stdMap != null) {
+				pipeline.submit("Writing std expression map with structure (tif)", new WJExportPipeline.Job() {
+					@Override
+					public void run() throws Exception {
+						meanStructure.getStructureRenderer().save(new File(filename + "_std_plus.tif").toURI(), stdMap);
+					}
+				});
 			}
 
 			// binary mask corresponding to the aggregated structure
-			try {
-				File file = new File(filename_ + "_mask.tif");
-				WJImagesMask.saveBinaryMask(file.toURI(), aggregatedExpressionMap_, meanAggregatedStructure_);
-				WJSettings.log("[x] Writing mean expression map binary mask (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean expression map binary mask (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean expression map binary mask (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					WJImagesMask.saveBinaryMask(new File(filename + "_mask.tif").toURI(), map, meanStructure);
+				}
+			});
 			
 			// exporting the grid preview of the aggregated structure
-			try {
-				File file = new File(filename_ + "_sampling_grid_preview.tif");
-//				WJImages.saveRgbImage(file.toURI().getPath(), manager.getImage("expression_sampling_grid_preview"));
-				
-				IJ.save(manager.getImage("expression_sampling_grid_preview"), file.toURI().getPath());
-//				if (settings.normalizeExpression())
-//					WJImages.save32Bit(file.toURI().getPath(), manager.getImage("expression_sampling_grid_preview"));
-//				else
-//					WJImages.save32BitToRGB(file.toURI().getPath(), manager.getImage("expression_sampling_grid_preview"));
-				
-//				ImagePlus clone = new Duplicator().run(manager.getImage("expression_grid_preview"));
-//				ImageConverter converter = new ImageConverter(clone);
-//				if (!settings.normalizeExpression()) converter.convertToRGB();
-//				else converter.convertToGray32();
-//				IJ.save(clone, file.toURI().getPath());
-//				clone.close();
-				WJSettings.log("[x] Writing mean expression map sampling grid preview (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean expression map sampling grid preview (tif)");
-				WJMessage.showMessage(e);
-			}
+			// the image is copied from the manager before submitting the job
+			ImagePlus preview = manager.getImage("expression_sampling_grid_preview");
+			final ImagePlus gridPreview = (preview != null ? preview.duplicate() : null);
+			pipeline.submit("Writing mean expression map sampling grid preview (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					if (gridPreview == null)
+						throw new Exception("ERROR: Sampling grid preview is null.");
+					IJ.save(gridPreview, new File(filename + "_sampling_grid_preview.tif").toURI().getPath());
+				}
+			});
 			
 			// mean+std aggregated structure preview
-			try {
-				File file = new File(filename_ + "_meanPlusStd.tif");//EXPRESSION_PROJECTION_SUFFIX);
-				// creates structure viewer
-				ImagePlus ip = new Duplicator().run(aggregatedExpressionMap_);
-				ip.setTitle(ip.getTitle() + "_meanPlusStd");
-				meanPlusStdStructureViewer_ = new WJStructureViewer(meanPlusStdAggregatedStructure_, ip, true); // use ImageWindow (not displayed)
-				meanPlusStdStructureViewer_.save(file.toURI());
-				WJSettings.log("[x] Writing mean expression map with mean+std structure (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean expression map with mean+std structure (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean expression map with mean+std structure (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					meanPlusStdStructure.getStructureRenderer().save(new File(filename + "_meanPlusStd.tif").toURI(), map);
+				}
+			});
 
 			// mean+std aggregated structure preview mask
-			try {
-				File file = new File(filename_ + "_meanPlusStd_mask.tif");
-				WJImagesMask.saveBinaryMask(file.toURI(), aggregatedExpressionMap_, meanPlusStdAggregatedStructure_);
-				WJSettings.log("[x] Writing mean+std structure binary mask (tif)");
-			} catch (Exception e) {
-				WJSettings.log("[ ] Writing mean+std structure binary mask (tif)");
-				WJMessage.showMessage(e);
-			}
+			pipeline.submit("Writing mean+std structure binary mask (tif)", new WJExportPipeline.Job() {
+				@Override
+				public void run() throws Exception {
+					WJImagesMask.saveBinaryMask(new File(filename + "_meanPlusStd_mask.tif").toURI(), map, meanPlusStdStructure);
+				}
+			});
 			
 			// remove images
 			disposeVisibleOutput();
@@ -501,4 +432,5 @@ public class ExpressionDataset2DAggregated extends SwingWorker<Void, Void> {
 	// SETTERS AND GETTERS
 
 	public void setFilename(String filename) { filename_ = filename; }
+	public void setExportPipeline(WJExportPipeline pipeline) { exportPipeline_ = pipeline; }
 }
@@ -27,6 +27,8 @@ THE SOFTWARE.
 package ch.epfl.lis.wingj.expression;
 
 import java.awt.Color;
+import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.event.WindowListener;
 import java.net.URI;
 import java.util.ArrayList;
@@ -39,17 +41,17 @@ import ch.epfl.lis.wingj.structure.Compartment;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.ImageWindow;
-import ij.gui.PolygonRoi;
-import ij.gui.Roi;
-import ij.macro.Interpreter;
-import ij.plugin.Duplicator;
-import ij.process.ImageConverter;
-import ij.process.ImageProcessor;
+import ij.process.ColorProcessor;
 
 /**
  * Shows the spatial domain where expression profiles are quantified.
+ * <p>
+ * The structure contour and the sampling band are rasterized directly into the
+ * pixels of a RGB copy of the expression image. An ImageWindow is only created
+ * when the visualization is shown, so that the domain can be exported under
+ * java.awt.headless=true.
  * 
- * @version August 31, 2011
+ * @version October 19, 2026
  * 
  * @author Thomas Schaffter (thomas.schaff...@gmail.com)
  * @author Ricard Delgado-Gonzalo (ricard.delg...@gmail.com)
@@ -59,7 +61,9 @@ public class ExpressionDomain {
 	/** Instances of ExpressionDomain. */
 	private static List<ExpressionDomain> instances_ = new ArrayList<ExpressionDomain>();
 	
-	/** Projection of the expression image stack. */
+	/** RGB copy of the projection of the expression image stack. */
+	private ImagePlus image_ = null;
+	/** Window showing the domain (only created if the visualization is shown). */
 	private ImageWindow imageWindow_ = null;
 	
 	/** Window title. */
@@ -69,10 +73,167 @@ public class ExpressionDomain {
 	private Compartment contour_ = null;
 	/** Reference boundary along which the expression is measured. */
 	private Boundary boundary_ = null;
+	/** Sigma of the expression quantification (the measurement domain is 6*sigma wide). */
+	private double sigma_ = WJSettings.getInstance().getExpression1DSigma();
 	
 	// ============================================================================
 	// PRIVATE METHODS
 	
+	/** Returns true if the point (px,py) is inside the triangle (a,b,c). */
+	private static boolean insideTriangle(double px, double py, double ax, double ay, double bx, double by, double cx, double cy) {
+		
+		double d1 = (px-bx)*(ay-by) - (ax-bx)*(py-by);
+		double d2 = (px-cx)*(by-cy) - (bx-cx)*(py-cy);
+		double d3 = (px-ax)*(cy-ay) - (cx-ax)*(py-ay);
+		boolean hasNeg = (d1 < 0) || (d2 < 0) || (d3 < 0);
+		boolean hasPos = (d1 > 0) || (d2 > 0) || (d3 > 0);
+		return !(hasNeg && hasPos);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Rasterizes a band of the given width centered on the polyline p and blends
+	 * it with the given color into the RGB pixels.
+	 * <p>
+	 * The geometry is the one of a BasicStroke(width, CAP_BUTT, JOIN_BEVEL) without
+	 * antialiasing: a pixel belongs to the band if its center (x+0.5,y+0.5) is inside
+	 * the rectangle of one segment or inside the bevel triangle of one joint. Each
+	 * pixel of the band is blended only once (SrcOver with the alpha of the color).
+	 */
+	private static void paintBand(int[] pixels, int width, int height, Polygon p, double lineWidth, Color color) {
+		
+		if (p.npoints < 2 || lineWidth <= 0)
+			return;
+		
+		double h = lineWidth/2.;
+		
+		// bounding box of the band clipped to the image
+		Rectangle r = p.getBounds();
+		int x0 = Math.max(0, (int)Math.floor(r.x - h));
+		int y0 = Math.max(0, (int)Math.floor(r.y - h));
+		int x1 = Math.min(width-1, (int)Math.ceil(r.x + r.width + h));
+		int y1 = Math.min(height-1, (int)Math.ceil(r.y + r.height + h));
+		if (x1 < x0 || y1 < y0)
+			return;
+		int bw = x1-x0+1;
+		int bh = y1-y0+1;
+		boolean[] mask = new boolean[bw*bh];
+		
+		double ax, ay, bx, by, dx, dy, len, nx, ny, t, d;
+		for (int k = 0; k < p.npoints-1; k++) {
+			ax = p.xpoints[k];
+			ay = p.ypoints[k];
+			bx = p.xpoints[k+1];
+			by = p.ypoints[k+1];
+			dx = bx-ax;
+			dy = by-ay;
+			len = Math.sqrt(dx*dx + dy*dy);
+			if (len == 0)
+				continue;
+			dx /= len;
+			dy /= len;
+			nx = -dy;
+			ny = dx;
+			
+			// segment rectangle (butt caps)
+			int sx0 = Math.max(x0, (int)Math.floor(Math.min(ax, bx) - h));
+			int sy0 = Math.max(y0, (int)Math.floor(Math.min(ay, by) - h));
+			int sx1 = Math.min(x1, (int)Math.ceil(Math.max(ax, bx) + h));
+			int sy1 = Math.min(y1, (int)Math.ceil(Math.max(ay, by) + h));
+			for (int y = sy0; y <= sy1; y++) {
+				double cy = y + 0.5 - ay;
+				int row = (y-y0)*bw - x0;
+				for (int x = sx0; x <= sx1; x++) {
+					double cx = x + 0.5 - ax;
+					t = cx*dx + cy*dy;
+					if (t < 0 || t > len)
+						continue;
+					d = cx*nx + cy*ny;
+					if (d >= -h && d <= h)
+						mask[row + x] = true;
+				}
+			}
+			
+			// bevel joint with the next segment
+			if (k+2 < p.npoints) {
+				double ex = p.xpoints[k+2]-bx;
+				double ey = p.ypoints[k+2]-by;
+				double elen = Math.sqrt(ex*ex + ey*ey);
+				if (elen == 0)
+					continue;
+				double mx = -ey/elen;
+				double my = ex/elen;
+				// outer side of the turn
+				double side = (dx*ey - dy*ex) > 0 ? -1. : 1.;
+				double p1x = bx + side*h*nx, p1y = by + side*h*ny;
+				double p2x = bx + side*h*mx, p2y = by + side*h*my;
+				int tx0 = Math.max(x0, (int)Math.floor(Math.min(bx, Math.min(p1x, p2x))));
+				int ty0 = Math.max(y0, (int)Math.floor(Math.min(by, Math.min(p1y, p2y))));
+				int tx1 = Math.min(x1, (int)Math.ceil(Math.max(bx, Math.max(p1x, p2x))));
+				int ty1 = Math.min(y1, (int)Math.ceil(Math.max(by, Math.max(p1y, p2y))));
+				for (int y = ty0; y <= ty1; y++) {
+					int row = (y-y0)*bw - x0;
+					for (int x = tx0; x <= tx1; x++) {
+						if (insideTriangle(x+0.5, y+0.5, bx, by, p1x, p1y, p2x, p2y))
+							mask[row + x] = true;
+					}
+				}
+			}
+		}
+		
+		// blends the band once (SrcOver)
+		int alpha = color.getAlpha();
+		int inv = 255 - alpha;
+		int sr = color.getRed() * alpha;
+		int sg = color.getGreen() * alpha;
+		int sb = color.getBlue() * alpha;
+		int c, index;
+		for (int y = y0; y <= y1; y++) {
+			int row = (y-y0)*bw;
+			for (int x = x0; x <= x1; x++) {
+				if (!mask[row + x - x0])
+					continue;
+				index = y*width + x;
+				c = pixels[index];
+				pixels[index] = (((sr + ((c>>16)&0xff)*inv + 127)/255) << 16)
+							  | (((sg + ((c>>8)&0xff)*inv + 127)/255) << 8)
+							  | ((sb + (c&0xff)*inv + 127)/255);
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Rasterizes the contour and the measurement domain directly into the pixels
+	 * of the given processor (no window, canvas or Graphics2D involved).
+	 */
+	private void paintDomain(ColorProcessor cp) throws Exception {
+		
+		WJSettings settings = WJSettings.getInstance();
+		Color color = settings.getDefaultColor();
+		
+		// contour of the structure (one pixel wide, as drawn by ImageProcessor.draw(Roi))
+		if (contour_ != null) {
+			Polygon p = contour_.toPolygon();
+			if (p.npoints > 1) {
+				cp.setColor(color);
+				cp.setLineWidth(1);
+				cp.moveTo(p.xpoints[0], p.ypoints[0]);
+				for (int i = 1; i < p.npoints; i++)
+					cp.lineTo(p.xpoints[i], p.ypoints[i]);
+				cp.lineTo(p.xpoints[0], p.ypoints[0]);
+			}
+		}
+		// measurement domain as a semi-transparent band of width 6*sigma around the trajectory
+		if (boundary_ != null) {
+			Polygon p = boundary_.resample((int)Math.round((double)boundary_.lengthInPx()/Math.PI)).toPolygon();
+			Color bandColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), 128);
+			paintBand((int[])cp.getPixels(), cp.getWidth(), cp.getHeight(), p, Math.round(6.0*sigma_), bandColor);
+		}
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 
@@ -87,25 +248,16 @@ public class ExpressionDomain {
 	/** Sets the background image of the domain viewer. */
 	public void setImage(ImagePlus image) throws Exception {
 		
-		if (image == null)
+		if (image == null || image.getProcessor() == null)
 			throw new Exception("ERROR: image is null."); 
 		
-		ImagePlus clone = new Duplicator().run(image);
-		ImageConverter converter = new ImageConverter(clone);
-		converter.convertToRGB();
+		// only the current slice is used
+		ColorProcessor cp = (ColorProcessor)image.getProcessor().duplicate().convertToRGB();
 		
-		if (imageWindow_ == null) {
-			boolean batchMode = Interpreter.isBatchMode();
-			Interpreter.batchMode = true;
-			imageWindow_ = new ImageWindow(clone);
-			Interpreter.batchMode = batchMode;
-		}
-		else {
-			imageWindow_.getImagePlus().setProcessor(clone.getProcessor());
-		}
-		
-		imageWindow_.setTitle(title_);
-		imageWindow_.repaint();
+		if (image_ == null)
+			image_ = new ImagePlus(title_, cp);
+		else
+			image_.setProcessor(title_, cp);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -113,33 +265,20 @@ public class ExpressionDomain {
 	/** Generates expression domain visualization. */
 	public void generateVisualization(boolean visible) throws Exception {
 		
-		if (imageWindow_ == null)
-			throw new Exception("ERROR: stackWindow_ is null.");
-		if (imageWindow_.getImagePlus() == null || imageWindow_.getImagePlus().getProcessor() == null)
-			throw new Exception("ERROR: stackWindow_.getImagePlus() is null.");
-		
-		ImagePlus image = imageWindow_.getImagePlus();
-		ImageProcessor ip = image.getProcessor();
-		ip.setColor(WJSettings.getInstance().getDefaultColor());
+		if (image_ == null || image_.getProcessor() == null)
+			throw new Exception("ERROR: image_ is null.");
 		
-		if (contour_ != null) ip.draw(contour_.toRoi());
-		
-		if (boundary_ != null) {
-			Roi pr = new PolygonRoi(boundary_.resample((int)Math.round((double)boundary_.lengthInPx()/Math.PI)).toPolygon(), Roi.FREELINE);
-			pr.setStrokeColor(new Color(WJSettings.getInstance().getDefaultColor().getRed(),
-										WJSettings.getInstance().getDefaultColor().getGreen(),
-										WJSettings.getInstance().getDefaultColor().getBlue(), 128));
-			Roi.setColor(WJSettings.getInstance().getDefaultColor());
-			pr.updateWideLine((int)Math.round(6.0*WJSettings.getInstance().getExpression1DSigma()));
-			image.setRoi(pr);
-		}
-		ImagePlus finalImage = image.flatten();
-		image.killRoi();
-		finalImage.setTitle(title_);
-		setImage(finalImage);
+		paintDomain((ColorProcessor)image_.getProcessor());
+		image_.setTitle(title_);
 		
 		// show the image if required
-		imageWindow_.setVisible(visible);
+		if (visible) {
+			if (imageWindow_ == null)
+				imageWindow_ = new ImageWindow(image_);
+			imageWindow_.setVisible(true);
+		}
+		else if (imageWindow_ != null)
+			imageWindow_.setVisible(false);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -157,8 +296,9 @@ public class ExpressionDomain {
 				imageWindow_.removeWindowListener(listeners[i]);
 			
 			imageWindow_.close();
-			imageWindow_ = null;
 		}
+		imageWindow_ = null;
+		image_ = null;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -166,7 +306,7 @@ public class ExpressionDomain {
 	/** Saves domain where expression is measured as PNG. */
 	public void saveTIFF(URI uri) throws Exception {
 		
-		IJ.save(imageWindow_.getImagePlus(), uri.getPath());
+		IJ.save(image_, uri.getPath());
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -187,4 +327,5 @@ public class ExpressionDomain {
 	public void setTitle(String title) { title_ = title; }
 	public void setCompartment(Compartment contour) { contour_ = contour; }
 	public void setTrajectory(Boundary boundary) { boundary_ = boundary; }
-}
\ No newline at end of file
+	public void setSigma(double sigma) { sigma_ = sigma; }
+}
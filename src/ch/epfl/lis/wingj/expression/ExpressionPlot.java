@@ -28,46 +28,26 @@ package ch.epfl.lis.wingj.expression;
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
-import java.awt.Graphics2D;
-import java.awt.geom.Rectangle2D;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JDialog;
 
-import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
-import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.chart.plot.XYPlot;
-import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.xy.XYDataset;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
-import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.WingJ;
 
-import com.itextpdf.text.Document;
-import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.PageSize;
-import com.itextpdf.text.Rectangle;
-import com.itextpdf.awt.DefaultFontMapper;
-import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfTemplate;
-import com.itextpdf.text.pdf.PdfWriter;
-
 /** 
  * Plots gene expression profile in a JDialog using JFree chart.
  * <p>
- * A method is implemented to export the vector plot in PDF format.
+ * A method is implemented to export the vector plot in PDF format. Plots which
+ * don't have to be displayed should be exported using ExpressionPlotService.
  * 
  * @version August 31, 2011
  * 
@@ -103,8 +83,8 @@ public class ExpressionPlot extends JDialog {
 	// ============================================================================
 	// PRIVATE METHODS
 	
-	/** Formats the expression data to XYDataset. */
-	private XYDataset getXYDataset() throws Exception {
+	/** Formats the expression data to XYSeriesCollection. */
+	private XYSeriesCollection getXYDataset() throws Exception {
 		
 		XYSeries series = new XYSeries("");
 		
@@ -122,80 +102,6 @@ public class ExpressionPlot extends JDialog {
         return dataset;
 	}
 	
-	// ----------------------------------------------------------------------------
-
-	/** Generates a PDF document containing the chart using iText. */
-	private ByteArrayOutputStream generatePdf() throws Exception {
-		
-		Document doc = new Document();
-		ByteArrayOutputStream baosPDF = new ByteArrayOutputStream();
-        PdfWriter docWriter = null;
-        
-        try {
-			docWriter = PdfWriter.getInstance(doc, baosPDF);
-			 
-			doc.addProducer();
-			doc.addCreator(this.getClass().getName());
-			doc.addTitle("jfreechart pdf");
-			Rectangle documentArea = PageSize.LETTER.rotate();
-			doc.setPageSize(documentArea); // or PageSize.A4.rotate()
-			doc.open();
-			 
-//			// add some text to the document
-//			doc.add(new Phrase("WingJ (wingj.sf.net)"));
-			
-			int margin = 40;
-			int width = (int) Math.floor(documentArea.getWidth()) - 2*margin;
-			int height = (int) Math.floor(documentArea.getHeight()) - 2*margin;
-			 
-			// SOLUTION 1 from http://www.wirelust.com/2008/03/17/creating-an-itext-pdf-with-embedded-jfreechart/
-			// NOTE: createGraphics() is deprecated
-			// get the direct pdf content
-			PdfContentByte dc = docWriter.getDirectContent();
-			 
-			// get a pdf template from the direct content
-			PdfTemplate tp = dc.createTemplate(width, height);
-			 
-			// create an AWT renderer from the pdf template
-			@SuppressWarnings("deprecation")
-			Graphics2D g2 = tp.createGraphics(width, height, new DefaultFontMapper());
-			Rectangle2D r2D = new Rectangle2D.Double(0,0, width,height);
-			chart_.draw(g2,r2D,null);
-			g2.dispose();
-			 
-			// add the rendered pdf template to the direct content
-			// you will have to play around with this because the chart is absolutely positioned.
-			// 38 is just a typical left margin
-			// docWriter.getVerticalPosition(true) will approximate the position that the content above the chart ended
-			dc.addTemplate(tp, margin, docWriter.getVerticalPosition(true)-height);
-			
-//			// SOLUTION 2 from http://vangjee.wordpress.com/2010/11/03/how-to-use-and-not-use-itext-and-jfreechart/
-//			// NOTE: convert the chart to an image and thus no interest in saving to PDF
-//			BufferedImage bufferedImage = chart_.createBufferedImage(width, height);
-//			Image image = Image.getInstance(docWriter, bufferedImage, 1.0f);
-//			doc.add(image);
-
-        } catch (DocumentException dex) {
-            baosPDF.reset();
-            dex.printStackTrace();
-            throw new DocumentException(dex);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (doc != null && doc.isOpen()) {
-                doc.close();
-            }
-            if (docWriter != null) {
-                docWriter.close();
-            }
-        }
-		
-        if (baosPDF.size() < 1) {
-            throw new DocumentException("document has "     + baosPDF.size() + " bytes");
-        }
-        return baosPDF;		
-	}
-	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -243,31 +149,11 @@ public class ExpressionPlot extends JDialog {
 	/** Generates the plot. */
 	public void generatePlot() throws Exception {
 		
-		WJSettings settings = WJSettings.getInstance();
-		
 		// create formated dataset for JFreeChart
-		XYDataset dataset = getXYDataset();
+		XYSeriesCollection dataset = getXYDataset();
 		// create chart
-		chart_ = ChartFactory.createXYLineChart(title_, xlabel_, ylabel_, dataset, PlotOrientation.VERTICAL, false, false, false);
-		Font titleFont = chart_.getTitle().getFont();
-		titleFont = new Font(titleFont.getFontName(), titleFont.getStyle(), 14);
-		chart_.getTitle().setFont(titleFont);
-        XYPlot plot = (XYPlot) chart_.getPlot();
-        plot.setBackgroundAlpha(0);
-        
-        double xmin = expressionProfile_.getX()[0];
-        double xmax = expressionProfile_.getX()[expressionProfile_.getX().length-1];
-        plot.getDomainAxis().setRange(xmin, xmax);
-        
-        double max = 255.0;
-        if (settings.normalizeExpression()) max = 1.0;
-        plot.getRangeAxis(0).setRange(0.0, max); // set y-axis range [0, 255]
-        
-        XYLineAndShapeRenderer renderer = new XYLineAndShapeRenderer();
-        renderer.setSeriesLinesVisible(0, true); // show the data line
-        renderer.setSeriesShapesVisible(0, false);
-        renderer.setSeriesPaint(0, color_);
-        plot.setRenderer(renderer);
+		chart_ = ExpressionPlotService.createChart(title_, xlabel_, ylabel_, dataset, color_);
+		ExpressionPlotService.setRanges(chart_, expressionProfile_);
         
         // place the chart in the dialog
         final ChartPanel chartPanel = new ChartPanel(chart_);
@@ -294,17 +180,10 @@ public class ExpressionPlot extends JDialog {
 	/** Saves the plot in PDF format. */
 	public void savePDF(URI uri) throws Exception {
 		
-        ByteArrayOutputStream baosPDF = generatePdf();
-        OutputStream outputStream = new FileOutputStream(new File(uri));
-        try {
-            baosPDF.writeTo(outputStream);
-        } catch (NullPointerException npe) {
-        	outputStream.flush();
-        	outputStream.close();
-        	throw npe;
-        }
-        outputStream.flush();
-        outputStream.close();
+		if (chart_ == null)
+			throw new Exception("ERROR: Expression plot doesn't exist and so can not be saved in PDF format.");
+		
+		ExpressionPlotService.getInstance().savePDF(uri, chart_);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -0,0 +1,318 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.expression;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+
+import ch.epfl.lis.wingj.WJSettings;
+
+import com.itextpdf.awt.DefaultFontMapper;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
+import com.itextpdf.text.pdf.PdfWriter;
+
+/** 
+ * Exports expression profile plots to PDF by reusing the same chart.
+ * <p>
+ * Creating a JFreeChart, its renderer and the font mapper used by iText takes
+ * more time than drawing a small profile. The service therefore creates the chart
+ * once and only updates its dataset, title, labels and ranges for each export.
+ * <p>
+ * Profiles can be written to one PDF file each (savePDF()) or as the pages of a
+ * single PDF document streamed to disk (openDocument(), addPage() and
+ * closeDocument()), for instance to gather all the profiles of a batch.
+ * <p>
+ * A JFreeChart is not thread-safe. getInstance() returns one service per thread,
+ * which the writer threads of the export pipeline use for the PDF files of single
+ * profiles. The multi-page document of a batch is only written by the thread
+ * running the experiments, which adds the pages in the order of the genes once
+ * their profiles have been computed. The methods of a service are synchronized
+ * so that it can still be passed between threads.
+ * 
+ * @see ExpressionPlot
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class ExpressionPlotService {
+	
+	/** Page size of the PDF documents. */
+	public static final Rectangle PAGE_SIZE = PageSize.LETTER.rotate();
+	/** Margin in the PDF pages. */
+	public static final int PAGE_MARGIN = 40;
+	
+	/** One service per thread. */
+	private static final ThreadLocal<ExpressionPlotService> instances_ = new ThreadLocal<ExpressionPlotService>() {
+		@Override
+		protected ExpressionPlotService initialValue() {
+			return new ExpressionPlotService();
+		}
+	};
+	
+	/** Series updated for each profile. */
+	private XYSeries series_ = null;
+	/** Chart reused for each profile. */
+	private JFreeChart chart_ = null;
+	/** Font mapper reused for each PDF page. */
+	private DefaultFontMapper fontMapper_ = null;
+	
+	/** Multi-page document (null if not open). */
+	private Document document_ = null;
+	/** Writer of the multi-page document. */
+	private PdfWriter documentWriter_ = null;
+	/** Number of pages written in the multi-page document. */
+	private int numPages_ = 0;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Updates the chart with the given profile. */
+	private void updateChart(String title, String xlabel, String ylabel, ExpressionProfile profile) throws Exception {
+		
+		double[] x = profile.getX();
+		double[] y = profile.getY();
+		
+		if (x.length != y.length)
+			throw new Exception("ERROR: Dimensions X and Y of the expression dataset mismatch.");
+		
+		chart_.setNotify(false);
+		try {
+			series_.clear();
+			for (int i = 0; i < x.length; i++)
+				series_.add(x[i], y[i], false);
+			series_.fireSeriesChanged();
+			
+			chart_.getTitle().setText(title);
+			XYPlot plot = (XYPlot) chart_.getPlot();
+			plot.getDomainAxis().setLabel(xlabel);
+			plot.getRangeAxis(0).setLabel(ylabel);
+			setRanges(chart_, profile);
+		} finally {
+			chart_.setNotify(true);
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Draws the chart in a new page of the given document. */
+	private void drawPage(Document doc, PdfWriter writer, JFreeChart chart) throws Exception {
+		
+		int width = (int) Math.floor(PAGE_SIZE.getWidth()) - 2*PAGE_MARGIN;
+		int height = (int) Math.floor(PAGE_SIZE.getHeight()) - 2*PAGE_MARGIN;
+		
+		// see ExpressionPlot for the origin of this solution
+		PdfContentByte dc = writer.getDirectContent();
+		PdfTemplate tp = dc.createTemplate(width, height);
+		@SuppressWarnings("deprecation")
+		Graphics2D g2 = tp.createGraphics(width, height, fontMapper_);
+		Rectangle2D r2D = new Rectangle2D.Double(0,0, width,height);
+		chart.draw(g2, r2D, null);
+		g2.dispose();
+		
+		dc.addTemplate(tp, PAGE_MARGIN, writer.getVerticalPosition(true)-height);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Opens a new document writing directly to the given stream. */
+	private PdfWriter openDocument(Document doc, OutputStream stream) throws Exception {
+		
+		PdfWriter writer = PdfWriter.getInstance(doc, stream);
+		doc.addProducer();
+		doc.addCreator(ExpressionPlot.class.getName());
+		doc.addTitle("jfreechart pdf");
+		doc.setPageSize(PAGE_SIZE);
+		doc.open();
+		
+		return writer;
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Default constructor. */
+	public ExpressionPlotService() {
+		
+		series_ = new XYSeries("");
+		XYSeriesCollection dataset = new XYSeriesCollection();
+		dataset.addSeries(series_);
+		chart_ = createChart("", "", "", dataset, Color.BLUE);
+		fontMapper_ = new DefaultFontMapper();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the service of the current thread. */
+	public static ExpressionPlotService getInstance() {
+		
+		return instances_.get();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Creates a chart with the style of the expression profile plots. */
+	public static JFreeChart createChart(String title, String xlabel, String ylabel, XYSeriesCollection dataset, Color color) {
+		
+		JFreeChart chart = ChartFactory.createXYLineChart(title, xlabel, ylabel, dataset, PlotOrientation.VERTICAL, false, false, false);
+		Font titleFont = chart.getTitle().getFont();
+		titleFont = new Font(titleFont.getFontName(), titleFont.getStyle(), 14);
+		chart.getTitle().setFont(titleFont);
+		XYPlot plot = (XYPlot) chart.getPlot();
+		plot.setBackgroundAlpha(0);
+		
+		XYLineAndShapeRenderer renderer = new XYLineAndShapeRenderer();
+		renderer.setSeriesLinesVisible(0, true); // show the data line
+		renderer.setSeriesShapesVisible(0, false);
+		renderer.setSeriesPaint(0, color);
+		plot.setRenderer(renderer);
+		
+		return chart;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Sets the range of the axes of the given chart for the given profile. */
+	public static void setRanges(JFreeChart chart, ExpressionProfile profile) {
+		
+		XYPlot plot = (XYPlot) chart.getPlot();
+		
+		double xmin = profile.getX()[0];
+		double xmax = profile.getX()[profile.getX().length-1];
+		plot.getDomainAxis().setRange(xmin, xmax);
+		
+		double max = 255.0;
+		if (WJSettings.getInstance().normalizeExpression()) max = 1.0;
+		plot.getRangeAxis(0).setRange(0.0, max); // set y-axis range [0, 255]
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Saves the given chart to a single page PDF file. */
+	public synchronized void savePDF(URI uri, JFreeChart chart) throws Exception {
+		
+		Document doc = new Document();
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(new File(uri)));
+		try {
+			PdfWriter writer = openDocument(doc, stream);
+			drawPage(doc, writer, chart);
+		} finally {
+			if (doc.isOpen())
+				doc.close(); // also closes the stream
+			else
+				stream.close();
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Saves the plot of the given profile to a single page PDF file. */
+	public synchronized void savePDF(URI uri, String title, String xlabel, String ylabel, ExpressionProfile profile) throws Exception {
+		
+		updateChart(title, xlabel, ylabel, profile);
+		savePDF(uri, chart_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Opens a multi-page PDF document which is written to disk as pages are added. */
+	public synchronized void openDocument(URI uri) throws Exception {
+		
+		if (document_ != null)
+			throw new Exception("ERROR: A PDF document is already open.");
+		
+		document_ = new Document();
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(new File(uri)));
+		try {
+			documentWriter_ = openDocument(document_, stream);
+		} catch (Exception e) {
+			document_ = null;
+			stream.close();
+			throw e;
+		}
+		numPages_ = 0;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Adds the plot of the given profile as a new page of the multi-page document. */
+	public synchronized void addPage(String title, String xlabel, String ylabel, ExpressionProfile profile) throws Exception {
+		
+		if (document_ == null)
+			throw new Exception("ERROR: No PDF document is open.");
+		
+		updateChart(title, xlabel, ylabel, profile);
+		if (numPages_ > 0)
+			document_.newPage();
+		drawPage(document_, documentWriter_, chart_);
+		// the content of the page is written to disk with the next page
+		numPages_++;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Closes the multi-page document. */
+	public synchronized void closeDocument() throws Exception {
+		
+		if (document_ == null)
+			return;
+		
+		try {
+			if (numPages_ == 0)
+				documentWriter_.setPageEmpty(false); // iText refuses to close documents without pages
+			document_.close();
+		} finally {
+			document_ = null;
+			documentWriter_ = null;
+		}
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public synchronized boolean isDocumentOpen() { return document_ != null; }
+	public synchronized int getNumPages() { return numPages_; }
+}
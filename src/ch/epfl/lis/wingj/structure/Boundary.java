@@ -60,6 +60,15 @@ public class Boundary extends ij.process.FloatPolygon {
 	/** Name or identifier of the boundary. */
 	protected String name_ = "";
 	
+	/** Cached parametrization of the points (null if not computed or invalidated). */
+	private BoundaryParametrization parametrization_ = null;
+	/** Number of points when the parametrization was computed. */
+	private int parametrizationNumPoints_ = -1;
+	/** X coordinates array when the parametrization was computed (detects reallocations). */
+	private float[] parametrizationXPoints_ = null;
+	/** Y coordinates array when the parametrization was computed (detects reallocations). */
+	private float[] parametrizationYPoints_ = null;
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -204,6 +213,7 @@ public class Boundary extends ij.process.FloatPolygon {
 			xpoints[i] = xtmp[npoints - i - 1];
 			ypoints[i] = ytmp[npoints - i - 1];
 		}
+		invalidateParametrization();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -264,53 +274,43 @@ public class Boundary extends ij.process.FloatPolygon {
 
 	// ----------------------------------------------------------------------------
 	
-	/** Returns a new Boundary resampled in arc length. */
+	/** Returns a new Boundary resampled in arc length (uses the cached parametrization). */
 	public final Boundary resample(int nPoints) throws Exception {
 		
 		if(nPoints<0)
 			throw new Exception("ERROR: A Boundary cannot contain a negative number of points.");
 		
-		if (npoints <= 0)
-			throw new Exception("ERROR: Boundary object is empty.");
-
-		Point2D.Double[] resampledCurve = new Point2D.Double[nPoints];
-
-		if(nPoints==0)
-			return new Boundary(name_, resampledCurve);
-		
-		if(nPoints==1){
-			resampledCurve[0] = new Point2D.Double(xpoints[0], ypoints[0]);
-			return new Boundary(name_, resampledCurve);
-		}
-		
-		if(npoints == 1){
-			for(int i=0; i<nPoints; i++){
-				resampledCurve[i] = new Point2D.Double(xpoints[0], ypoints[0]);
-			}
-			return new Boundary(name_, resampledCurve);
-		}
+		return parametrize().resample(nPoints);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the arc-length and spline parametrization of the current points of the
+	 * boundary. It is computed on the first call and reused until the points change.
+	 * The cache is invalidated by invalidateParametrization() and automatically when
+	 * the number of points or the coordinate arrays change.
+	 */
+	public final synchronized BoundaryParametrization parametrize() throws Exception {
 		
-		double[] arcLength = new double[npoints];
-		for(int i=1; i<npoints; i++){
-			arcLength[i] = arcLength[i-1] + Math.sqrt((xpoints[i]-xpoints[i-1])*(xpoints[i]-xpoints[i-1])+(ypoints[i]-ypoints[i-1])*(ypoints[i]-ypoints[i-1]));
+		if (parametrization_ == null || parametrizationNumPoints_ != npoints || parametrizationXPoints_ != xpoints || parametrizationYPoints_ != ypoints) {
+			parametrization_ = new BoundaryParametrization(this);
+			parametrizationNumPoints_ = npoints;
+			parametrizationXPoints_ = xpoints;
+			parametrizationYPoints_ = ypoints;
 		}
+		return parametrization_;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Discards the cached parametrization. Must be called after modifying directly
+	 * the coordinates in xpoints and ypoints.
+	 */
+	public synchronized void invalidateParametrization() {
 		
-		double delta = arcLength[npoints-1]/(nPoints-1);
-		int index = 0;
-		for(int i=0; i<nPoints; i++){
-			double t = delta*i;
-			boolean found = false;
-			for(; index<(npoints-1) && !found; index++){
-				if(arcLength[index]<=t && arcLength[index+1]>=t){
-					found = true;
-				}
-			}
-			index--;
-			resampledCurve[i] = new Point2D.Double(
-					((arcLength[index+1]-t)*xpoints[index]+(t-arcLength[index])*xpoints[index+1])/(arcLength[index+1]-arcLength[index]),
-					((arcLength[index+1]-t)*ypoints[index]+(t-arcLength[index])*ypoints[index+1])/(arcLength[index+1]-arcLength[index]));
-		}
-		return new Boundary(name_, resampledCurve);
+		parametrization_ = null;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -375,41 +375,14 @@ public class Boundary extends ij.process.FloatPolygon {
 
 	// ----------------------------------------------------------------------------
 
-	/** Computes a smoothed version of the normal vectors for each point of the boundary. */
-	public Point2D.Double[] getSmoothedNormalVectors(){
-		//compute raw estimation of the tangent vectors
-		double[] dx = new double[npoints];
-		double[] dy = new double[npoints];
+	/**
+	 * Returns a smoothed version of the normal vectors for each point of the boundary.
+	 * The vectors are computed once by the cached parametrization and shared: the
+	 * returned array must not be modified.
+	 */
+	public Point2D.Double[] getSmoothedNormalVectors() throws Exception {
 		
-		dx[0] = xpoints[1]-xpoints[0];
-		dy[0] = ypoints[1]-ypoints[0];
-		for(int i=1; i<npoints-1; i++) {
-   			dx[i] = (xpoints[i+1]-xpoints[i-1])/2.0;
-   			dy[i] = (ypoints[i+1]-ypoints[i-1])/2.0;
-		}
-		dx[npoints-1] = xpoints[npoints-1]-xpoints[npoints-2];
-		dy[npoints-1] = ypoints[npoints-1]-ypoints[npoints-2];
-		
-		//smooth the estimation of the tangent vectors
-		double[] dxSmoothed = new double[npoints];
-		double[] dySmoothed = new double[npoints];
-		
-		dxSmoothed[0] = (3.0*dx[0]+dx[1])/4.0;
-		dySmoothed[0] = (3.0*dy[0]+dy[1])/4.0;
-		for(int i=1; i<npoints-1; i++) {
-			dxSmoothed[i] = (dx[i-1]+4.0*dx[i]+dx[i+1])/6.0;
-			dySmoothed[i] = (dy[i-1]+4.0*dy[i]+dy[i+1])/6.0;
-		}
-		dxSmoothed[npoints-1] = (3.0*dx[npoints-1]+dx[npoints-2])/4.0;
-		dySmoothed[npoints-1] = (3.0*dy[npoints-1]+dy[npoints-2])/4.0;
-
-		//estimate unit normal vectors
-		Point2D.Double[] normalVectors = new Point2D.Double[npoints];
-		for(int i=0; i<npoints; i++) {
-			double norm = Math.sqrt(dxSmoothed[i]*dxSmoothed[i]+dySmoothed[i]*dySmoothed[i]);
-			normalVectors[i] = new Point2D.Double(-dySmoothed[i]/norm, dxSmoothed[i]/norm);
-		}
-		return(normalVectors);
+		return parametrize().getSmoothedNormalVectors();
 	}
 
 	// ----------------------------------------------------------------------------
@@ -432,7 +405,7 @@ public class Boundary extends ij.process.FloatPolygon {
 	
 	/** Returns an expand version of the current boundary in the direction of the normal of the tangent. */
 	@Deprecated
-	public final Boundary expand(double d) {
+	public final Boundary expand(double d) throws Exception {
 	
 		Boundary c = new Boundary(this.getName() + "_contract");
 		
@@ -454,6 +427,7 @@ public class Boundary extends ij.process.FloatPolygon {
 			xpoints[i] += dx;
 			ypoints[i] += dy;
 		}
+		invalidateParametrization();
 	}
 
 	// ----------------------------------------------------------------------------
@@ -474,6 +448,7 @@ public class Boundary extends ij.process.FloatPolygon {
 		this.npoints = b.npoints;
 		this.xpoints = b.xpoints;
 		this.ypoints = b.ypoints;
+		invalidateParametrization();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -498,6 +473,7 @@ public class Boundary extends ij.process.FloatPolygon {
 		this.npoints = b.npoints;
 		this.xpoints = b.xpoints;
 		this.ypoints = b.ypoints;
+		invalidateParametrization();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -527,6 +503,7 @@ public class Boundary extends ij.process.FloatPolygon {
 		npoints = 0;
 		xpoints = new float[10];
 		ypoints = new float[10];
+		invalidateParametrization();
 	}
 	
 	// ----------------------------------------------------------------------------
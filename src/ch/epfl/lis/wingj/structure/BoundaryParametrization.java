@@ -0,0 +1,341 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.structure;
+
+import java.awt.geom.Point2D;
+
+import ij.process.FloatPolygon;
+
+/** 
+ * Arc-length and cubic spline parametrization of a boundary (snapshot of its points).
+ * <p>
+ * The cumulative arc-length table of the polyline and the natural cubic spline
+ * x(s), y(s) interpolating its points are computed once, in O(n). The length of
+ * the boundary is then available in constant time and the boundary can be
+ * resampled to any number of points without recomputing the table, either
+ * linearly in arc length (same points as Boundary.resample()) or on the spline.
+ * evaluate() returns positions, unit normal vectors and curvatures at equally
+ * spaced arc lengths in a single pass.
+ * <p>
+ * The smoothed normal vectors at the points of the boundary (see
+ * Boundary.getSmoothedNormalVectors()) are computed on the first request and
+ * kept with the parametrization.
+ * <p>
+ * The parametrization is cached by Boundary.parametrize() until the points of
+ * the boundary change. Later modifications of the boundary are not reflected in
+ * an instance obtained before them.
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class BoundaryParametrization {
+	
+	/** Name of the boundary. */
+	private String name_ = null;
+	
+	/** Number of points of the boundary (including duplicated points). */
+	private int npoints_ = 0;
+	/** X-coordinates of the points of the boundary. */
+	private float[] xpoints_ = null;
+	/** Y-coordinates of the points of the boundary. */
+	private float[] ypoints_ = null;
+	
+	/** Number of distinct consecutive points. */
+	private int n_ = 0;
+	/** X-coordinates of the distinct points. */
+	private double[] x_ = null;
+	/** Y-coordinates of the distinct points. */
+	private double[] y_ = null;
+	/** Cumulative arc length in [px] at each distinct point. */
+	private double[] arcLength_ = null;
+	/** Second derivatives of x(s) at each distinct point. */
+	private double[] x2_ = null;
+	/** Second derivatives of y(s) at each distinct point. */
+	private double[] y2_ = null;
+	
+	/** Smoothed normal vectors at the points of the boundary (computed on request). */
+	private Point2D.Double[] normalVectors_ = null;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Computes the second derivatives of the natural cubic spline interpolating the
+	 * values v at the knots s (Thomas algorithm, O(n)).
+	 */
+	private static double[] computeSecondDerivatives(double[] s, double[] v, int n) {
+		
+		double[] m = new double[n];
+		if (n < 3)
+			return m;
+		
+		double[] c = new double[n]; // modified upper diagonal
+		double[] d = new double[n]; // modified right-hand side
+		for (int i = 1; i < n-1; i++) {
+			double h0 = s[i] - s[i-1];
+			double h1 = s[i+1] - s[i];
+			double b = 2 * (h0 + h1);
+			double r = 6 * ((v[i+1] - v[i]) / h1 - (v[i] - v[i-1]) / h0);
+			double denom = b - h0 * c[i-1];
+			c[i] = h1 / denom;
+			d[i] = (r - h0 * d[i-1]) / denom;
+		}
+		for (int i = n-2; i > 0; i--)
+			m[i] = d[i] - c[i] * m[i+1];
+		
+		return m;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the index i of the segment [s_i,s_i+1] containing the given arc length, starting the search at the given index. */
+	private int findSegment(double s, int start) {
+		
+		int i = Math.max(0, start);
+		while (i < n_-2 && arcLength_[i+1] < s)
+			i++;
+		return i;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Computes the normal vectors at the points of the boundary from the tangents
+	 * estimated by finite differences and smoothed with the kernel [1 4 1]/6.
+	 */
+	private Point2D.Double[] computeSmoothedNormalVectors() {
+		
+		int n = npoints_;
+		float[] xp = xpoints_;
+		float[] yp = ypoints_;
+		
+		//compute raw estimation of the tangent vectors
+		double[] dx = new double[n];
+		double[] dy = new double[n];
+		
+		dx[0] = xp[1]-xp[0];
+		dy[0] = yp[1]-yp[0];
+		for(int i=1; i<n-1; i++) {
+			dx[i] = (xp[i+1]-xp[i-1])/2.0;
+			dy[i] = (yp[i+1]-yp[i-1])/2.0;
+		}
+		dx[n-1] = xp[n-1]-xp[n-2];
+		dy[n-1] = yp[n-1]-yp[n-2];
+		
+		//smooth the estimation of the tangent vectors and estimate unit normal vectors
+		Point2D.Double[] normalVectors = new Point2D.Double[n];
+		for(int i=0; i<n; i++) {
+			double tx, ty;
+			if (i == 0) {
+				tx = (3.0*dx[0]+dx[1])/4.0;
+				ty = (3.0*dy[0]+dy[1])/4.0;
+			} else if (i == n-1) {
+				tx = (3.0*dx[n-1]+dx[n-2])/4.0;
+				ty = (3.0*dy[n-1]+dy[n-2])/4.0;
+			} else {
+				tx = (dx[i-1]+4.0*dx[i]+dx[i+1])/6.0;
+				ty = (dy[i-1]+4.0*dy[i]+dy[i+1])/6.0;
+			}
+			double norm = Math.sqrt(tx*tx+ty*ty);
+			normalVectors[i] = new Point2D.Double(-ty/norm, tx/norm);
+		}
+		return normalVectors;
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor. */
+	public BoundaryParametrization(Boundary boundary) throws Exception {
+		
+		if (boundary == null || boundary.npoints <= 0)
+			throw new Exception("ERROR: Boundary object is empty.");
+		
+		name_ = boundary.getName();
+		int npoints = boundary.npoints;
+		float[] xp = boundary.xpoints;
+		float[] yp = boundary.ypoints;
+		
+		npoints_ = npoints;
+		xpoints_ = new float[npoints];
+		ypoints_ = new float[npoints];
+		System.arraycopy(xp, 0, xpoints_, 0, npoints);
+		System.arraycopy(yp, 0, ypoints_, 0, npoints);
+		
+		// consecutive duplicated points are skipped (zero-length segments)
+		x_ = new double[npoints];
+		y_ = new double[npoints];
+		arcLength_ = new double[npoints];
+		x_[0] = xp[0];
+		y_[0] = yp[0];
+		n_ = 1;
+		for (int i = 1; i < npoints; i++) {
+			double dx = xp[i] - xp[i-1];
+			double dy = yp[i] - yp[i-1];
+			double l = Math.sqrt(dx*dx + dy*dy);
+			if (l == 0)
+				continue;
+			x_[n_] = xp[i];
+			y_[n_] = yp[i];
+			arcLength_[n_] = arcLength_[n_-1] + l;
+			n_++;
+		}
+		
+		x2_ = computeSecondDerivatives(arcLength_, x_, n_);
+		y2_ = computeSecondDerivatives(arcLength_, y_, n_);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a new Boundary resampled linearly in arc length (see Boundary.resample()). */
+	public Boundary resample(int nPoints) throws Exception {
+		
+		if (nPoints < 0)
+			throw new Exception("ERROR: A Boundary cannot contain a negative number of points.");
+		
+		float[] x = new float[nPoints];
+		float[] y = new float[nPoints];
+		if (n_ == 1 || nPoints == 1) {
+			for (int k = 0; k < nPoints; k++) {
+				x[k] = (float)x_[0];
+				y[k] = (float)y_[0];
+			}
+			return new Boundary(name_, new FloatPolygon(x, y, nPoints));
+		}
+		
+		double delta = getLength() / (nPoints - 1);
+		int i = 0;
+		for (int k = 0; k < nPoints; k++) {
+			double t = delta * k;
+			i = findSegment(t, i);
+			double h = arcLength_[i+1] - arcLength_[i];
+			x[k] = (float)(((arcLength_[i+1] - t) * x_[i] + (t - arcLength_[i]) * x_[i+1]) / h);
+			y[k] = (float)(((arcLength_[i+1] - t) * y_[i] + (t - arcLength_[i]) * y_[i+1]) / h);
+		}
+		return new Boundary(name_, new FloatPolygon(x, y, nPoints));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a new Boundary resampled with points equally spaced in arc length on the spline. */
+	public Boundary resampleSpline(int nPoints) throws Exception {
+		
+		if (nPoints < 0)
+			throw new Exception("ERROR: A Boundary cannot contain a negative number of points.");
+		
+		double[] x = new double[nPoints];
+		double[] y = new double[nPoints];
+		evaluate(nPoints, x, y, null, null, null);
+		
+		float[] xf = new float[nPoints];
+		float[] yf = new float[nPoints];
+		for (int k = 0; k < nPoints; k++) {
+			xf[k] = (float)x[k];
+			yf[k] = (float)y[k];
+		}
+		return new Boundary(name_, new FloatPolygon(xf, yf, nPoints));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Evaluates the spline at nPoints arc lengths equally spaced from the first to the
+	 * last point of the boundary. Fills the positions (x,y), the unit normal vectors
+	 * (nx,ny) = (-y',x')/|(x',y')| (same orientation as getSmoothedNormalVectors())
+	 * and the signed curvatures. Arrays which are not required can be null.
+	 */
+	public void evaluate(int nPoints, double[] x, double[] y, double[] nx, double[] ny, double[] curvature) {
+		
+		if (nPoints <= 0)
+			return;
+		
+		double delta = (nPoints > 1) ? getLength() / (nPoints - 1) : 0;
+		int i = 0;
+		for (int k = 0; k < nPoints; k++) {
+			if (n_ == 1) {
+				if (x != null) x[k] = x_[0];
+				if (y != null) y[k] = y_[0];
+				if (nx != null) nx[k] = 0;
+				if (ny != null) ny[k] = 0;
+				if (curvature != null) curvature[k] = 0;
+				continue;
+			}
+			double s = delta * k;
+			i = findSegment(s, i);
+			double h = arcLength_[i+1] - arcLength_[i];
+			double b = (s - arcLength_[i]) / h;
+			double a = 1 - b;
+			double h26 = h * h / 6;
+			
+			if (x != null) x[k] = a*x_[i] + b*x_[i+1] + ((a*a*a - a)*x2_[i] + (b*b*b - b)*x2_[i+1]) * h26;
+			if (y != null) y[k] = a*y_[i] + b*y_[i+1] + ((a*a*a - a)*y2_[i] + (b*b*b - b)*y2_[i+1]) * h26;
+			
+			if (nx == null && ny == null && curvature == null)
+				continue;
+			
+			// first and second derivatives with respect to s
+			double ca = (3*a*a - 1) * h / 6;
+			double cb = (3*b*b - 1) * h / 6;
+			double dx = (x_[i+1] - x_[i]) / h - ca*x2_[i] + cb*x2_[i+1];
+			double dy = (y_[i+1] - y_[i]) / h - ca*y2_[i] + cb*y2_[i+1];
+			double norm = Math.sqrt(dx*dx + dy*dy);
+			if (nx != null) nx[k] = (norm > 0) ? -dy / norm : 0;
+			if (ny != null) ny[k] = (norm > 0) ? dx / norm : 0;
+			if (curvature != null) {
+				double ddx = a*x2_[i] + b*x2_[i+1];
+				double ddy = a*y2_[i] + b*y2_[i+1];
+				curvature[k] = (norm > 0) ? (dx*ddy - dy*ddx) / (norm*norm*norm) : 0;
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the smoothed normal vectors at the points of the boundary (see
+	 * Boundary.getSmoothedNormalVectors()). The array is computed once and shared:
+	 * it must not be modified.
+	 */
+	public synchronized Point2D.Double[] getSmoothedNormalVectors() throws Exception {
+		
+		if (npoints_ < 2)
+			throw new Exception("ERROR: Boundary must have at least two points.");
+		
+		if (normalVectors_ == null)
+			normalVectors_ = computeSmoothedNormalVectors();
+		return normalVectors_;
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Returns the length of the boundary in [px]. */
+	public double getLength() { return arcLength_[n_-1]; }
+	/** Returns the number of distinct consecutive points of the boundary. */
+	public int getNumPoints() { return n_; }
+}
@@ -38,10 +38,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ch.epfl.lis.wingj.WJSettings;
-import ch.epfl.lis.wingj.structure.tools.ContourTracer;
 
 /** 
  * Describes a compartment (XY closed shape).
@@ -50,7 +50,7 @@ import ch.epfl.lis.wingj.structure.tools.ContourTracer;
  * 1 [px] = WJSettings.getScale() [UNIT]. The string identifier of [UNIT] is given by
  * WJSettings.getUnit(), for instance "um", "mm", etc.
  * 
- * @version November 7, 2011
+ * @version October 19, 2026
  * 
  * @author Thomas Schaffter (thomas.schaff...@gmail.com)
  * @author Ricard Delgado-Gonzalo (ricard.delg...@gmail.com)
@@ -60,6 +60,165 @@ public class Compartment extends ij.process.FloatPolygon {
 	/** Name or identifier of the compartment. */
 	protected String name_ = "compartment";
 	
+	/** Default spacing in [px] between the points of the resampled compartments. */
+	public static final double RESAMPLING_STEP = 1.0;
+	/** Number of previous segments tested for self-intersection when removing loops. */
+	public static final int LOOP_WINDOW = 16;
+	
+	/** True if the cached geometry below describes the current points. */
+	private boolean geometryValid_ = false;
+	/** Number of points when the geometry was computed. */
+	private int geometryNumPoints_ = -1;
+	/** X coordinates array when the geometry was computed (detects reallocations). */
+	private float[] geometryXPoints_ = null;
+	/** Y coordinates array when the geometry was computed (detects reallocations). */
+	private float[] geometryYPoints_ = null;
+	
+	/** Twice the signed area in [px^2] (integer accumulation, as in the original area computation). */
+	private int signedArea2_ = 0;
+	/** Sum used to compute the X coordinate of the centroid. */
+	private double centroidSumX_ = 0.;
+	/** Sum used to compute the Y coordinate of the centroid. */
+	private double centroidSumY_ = 0.;
+	/** Perimeter in [px]. */
+	private double perimeterInPx_ = 0.;
+	/** Bounding box in [px]. */
+	private double minX_ = 0., minY_ = 0., maxX_ = 0., maxY_ = 0.;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Computes area, centroid sums, perimeter and bounding box in a single pass over
+	 * the points if the cached values are not valid anymore. The cache is invalidated
+	 * by invalidateGeometry() and automatically when the number of points or the
+	 * coordinate arrays change.
+	 */
+	private synchronized void updateGeometry() {
+		
+		if (geometryValid_ && geometryNumPoints_ == npoints && geometryXPoints_ == xpoints && geometryYPoints_ == ypoints)
+			return;
+		
+		int n = npoints;
+		float[] xp = xpoints;
+		float[] yp = ypoints;
+		int carea = 0;
+		double cx = 0., cy = 0.;
+		double length = 0., closingLength = 0.;
+		double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+		double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			int iminus1 = (i == 0) ? n-1 : i-1;
+			float x = xp[i];
+			float y = yp[i];
+			float xprev = xp[iminus1];
+			float yprev = yp[iminus1];
+			// shoelace with the previous point (closing edge included)
+			carea += (x + xprev) * (y - yprev);
+			// centroid terms do not include the closing edge
+			if (i > 0) {
+				float cross = xprev * y - yprev * x;
+				cx += (xprev + x) * cross;
+				cy += (yprev + y) * cross;
+			}
+			double dx = x - xprev;
+			double dy = y - yprev;
+			if (i > 0)
+				length += Math.sqrt(dx*dx + dy*dy);
+			else
+				closingLength = Math.sqrt(dx*dx + dy*dy);
+			if (x < x0) x0 = x;
+			if (x > x1) x1 = x;
+			if (y < y0) y0 = y;
+			if (y > y1) y1 = y;
+		}
+		if (n == 0)
+			x0 = y0 = x1 = y1 = 0.;
+		
+		signedArea2_ = carea;
+		centroidSumX_ = cx;
+		centroidSumY_ = cy;
+		perimeterInPx_ = length + closingLength;
+		minX_ = x0;
+		minY_ = y0;
+		maxX_ = x1;
+		maxY_ = y1;
+		geometryNumPoints_ = n;
+		geometryXPoints_ = xp;
+		geometryYPoints_ = yp;
+		geometryValid_ = true;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the cross product (a-o)x(b-o) of the points packed in the given keys. */
+	private static long cross(long o, long a, long b) {
+		
+		long ox = unpackX(o), oy = unpackY(o);
+		return (unpackX(a) - ox) * (unpackY(b) - oy) - (unpackY(a) - oy) * (unpackX(b) - ox);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Packs the integer point (x,y) in a long whose natural order is lexicographic in (x,y). */
+	private static long pack(int x, int y) {
+		
+		return ((long)x << 32) | ((long)y - Integer.MIN_VALUE);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the X coordinate of a packed point. */
+	private static long unpackX(long key) { return key >> 32; }
+	
+	/** Returns the Y coordinate of a packed point. */
+	private static long unpackY(long key) { return (key & 0xFFFFFFFFL) + Integer.MIN_VALUE; }
+	
+	/**
+	 * Copies the n points of the given polygon to (x,y) and removes the loops created
+	 * by a segment crossing one of the LOOP_WINDOW previous segments: the points of
+	 * the loop are replaced by the intersection point. Returns the number of points
+	 * written (x and y must be of size n+1 at least). Cost: O(n*LOOP_WINDOW).
+	 */
+	private static int removeLocalLoops(float[] xp, float[] yp, int n, double[] x, double[] y) {
+		
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			double px = xp[i];
+			double py = yp[i];
+			if (m >= 3) {
+				// new segment (m-1) -> p tested against the segments (k) -> (k+1), k < m-2
+				double ax = x[m-1];
+				double ay = y[m-1];
+				for (int k = m-3; k >= 0 && k >= m-2-LOOP_WINDOW; k--) {
+					double rx = px - ax;
+					double ry = py - ay;
+					double sx = x[k+1] - x[k];
+					double sy = y[k+1] - y[k];
+					double denom = rx*sy - ry*sx;
+					if (denom == 0)
+						continue; // parallel segments
+					double qx = x[k] - ax;
+					double qy = y[k] - ay;
+					double t = (qx*sy - qy*sx) / denom; // along the new segment
+					double u = (qx*ry - qy*rx) / denom; // along segment k
+					if (t > 0 && t < 1 && u >= 0 && u < 1) {
+						// drop the loop and keep the intersection point
+						m = k+1;
+						x[m] = ax + t*rx;
+						y[m] = ay + t*ry;
+						m++;
+						break;
+					}
+				}
+			}
+			x[m] = px;
+			y[m] = py;
+			m++;
+		}
+		return m;
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -125,15 +284,8 @@ public class Compartment extends ij.process.FloatPolygon {
 		
 		WJSettings settings = WJSettings.getInstance();
 		
-        int carea = 0;
-        int iminus1;
-        for (int i = 0; i < npoints; i++) {
-            iminus1 = i-1;
-            if (iminus1 < 0)
-            	iminus1 = npoints-1;
-            carea += (xpoints[i] + xpoints[iminus1]) * (ypoints[i] - ypoints[iminus1]);
-        }
-        return Math.abs((carea/2) * Math.pow(settings.getScale(), 2));
+		updateGeometry();
+		return Math.abs((signedArea2_/2) * Math.pow(settings.getScale(), 2));
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -150,44 +302,26 @@ public class Compartment extends ij.process.FloatPolygon {
 	/** Computes the perimeter of the compartment in [px]. */
 	public final double perimeterInPx() {
 		
-		double length = 0;
-        int nPoints = npoints;
-        float[] xp = xpoints;
-        float[] yp = ypoints;
-		double dx, dy;
-		for (int i = 0; i < nPoints-1; i++) {
-            dx = xp[i+1] - xp[i];
-            dy = yp[i+1] - yp[i];
-            length += Math.sqrt(dx * dx+dy * dy);
-        }
-        dx = xp[0] - xp[nPoints-1];
-        dy = yp[0] - yp[nPoints-1];
-        length += Math.sqrt(dx * dx+dy * dy);
-        
-        return (length);
+		updateGeometry();
+		return perimeterInPx_;
 	}
 
 	// ----------------------------------------------------------------------------
 	
-	 /** Returns the centroid or center of mass (com) of the compartment as a Point2D.Double. */
-    public final Point2D.Double centroid() {
-    	
-        double cx = 0.0, cy = 0.0;
-        double area = area() / Math.pow(WJSettings.getInstance().getScale(), 2); // back to [px^2]
-        
-        for (int i = 0; i < npoints-1; i++) {
-            cx += (xpoints[i] + xpoints[i+1]) * (xpoints[i] * ypoints[i+1] - ypoints[i] * xpoints[i+1]);
-            cy += (ypoints[i] + ypoints[i+1]) * (xpoints[i] * ypoints[i+1] - ypoints[i] * xpoints[i+1]);
-        }
-
-        // cx and cy could be negative depending on the orientation the points are read.
-        // Here, pixel XY locations are positive.
-        cx = Math.abs(cx / (6 * area));
-        cy = Math.abs(cy / (6 * area));
-  
-        return new Point2D.Double(cx, cy);
-    }
-    
+	/** Returns the centroid or center of mass (com) of the compartment as a Point2D.Double. */
+	public final Point2D.Double centroid() {
+		
+		updateGeometry();
+		double area = Math.abs(signedArea2_/2); // [px^2]
+		
+		// cx and cy could be negative depending on the orientation the points are read.
+		// Here, pixel XY locations are positive.
+		double cx = Math.abs(centroidSumX_ / (6 * area));
+		double cy = Math.abs(centroidSumY_ / (6 * area));
+		
+		return new Point2D.Double(cx, cy);
+	}
+	
 	// ----------------------------------------------------------------------------
 	
 	/** Returns a ShapeRoi that describes the compartment. */
@@ -226,15 +360,9 @@ public class Compartment extends ij.process.FloatPolygon {
 	 */
 	public final double orientation() {
 		
-        int carea = 0;
-        int iminus1;
-        for (int i = 0; i < npoints; i++) {
-            iminus1 = i-1;
-            if (iminus1 < 0) iminus1 = npoints-1;
-            carea += (xpoints[i]+xpoints[iminus1]) * (ypoints[i]-ypoints[iminus1]);
-        }
-        return (Math.signum(carea));
-    }
+		updateGeometry();
+		return (Math.signum(signedArea2_));
+	}
 
 	// ----------------------------------------------------------------------------
 	
@@ -248,6 +376,7 @@ public class Compartment extends ij.process.FloatPolygon {
 			xpoints[i] = xtmp[npoints - i - 1];
 			ypoints[i] = ytmp[npoints - i - 1];
 		}
+		invalidateGeometry();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -270,34 +399,120 @@ public class Compartment extends ij.process.FloatPolygon {
 
 	// ----------------------------------------------------------------------------
 
-	/** Creates an arc-length resampled compartment. */
+	/** Creates an arc-length resampled compartment (points spaced by about RESAMPLING_STEP px, local loops removed). */
 	public final Compartment createResampledCompartment(){
 		
-		Polygon polygon = this.toPolygon();
-		
-		int xMax = 0;
-		int yMax = 0;
-		for(int i=0; i<polygon.npoints; i++){
-			if(polygon.xpoints[i]>xMax) xMax = polygon.xpoints[i];
-			if(polygon.ypoints[i]>yMax) yMax = polygon.ypoints[i];
+		return createResampledCompartment(RESAMPLING_STEP, true);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Creates a compartment whose closed outline is sampled with points equally spaced
+	 * along the arc length of the polygon, the spacing being as close as possible to
+	 * the given step in [px]. If removeLoops is true, the small loops created by local
+	 * self-intersections of the polygon (within LOOP_WINDOW segments) are removed first.
+	 * Cost: O(N) where N is the number of vertices and samples. No image is allocated.
+	 */
+	public final Compartment createResampledCompartment(double step, boolean removeLoops){
+		
+		int n = npoints;
+		if (n < 3 || step <= 0)
+			return copy();
+		
+		double[] x = new double[n+1];
+		double[] y = new double[n+1];
+		if (removeLoops)
+			n = removeLocalLoops(xpoints, ypoints, npoints, x, y);
+		else {
+			for (int i = 0; i < n; i++) {
+				x[i] = xpoints[i];
+				y[i] = ypoints[i];
+			}
+		}
+		// close the polygon
+		x[n] = x[0];
+		y[n] = y[0];
+		
+		// cumulative arc length at each vertex
+		double[] arcLength = new double[n+1];
+		for (int i = 1; i <= n; i++) {
+			double dx = x[i] - x[i-1];
+			double dy = y[i] - y[i-1];
+			arcLength[i] = arcLength[i-1] + Math.sqrt(dx*dx + dy*dy);
+		}
+		double length = arcLength[n];
+		if (length == 0)
+			return copy();
+		
+		int numSamples = Math.max(3, (int)Math.round(length / step));
+		double spacing = length / numSamples;
+		float[] xs = new float[numSamples];
+		float[] ys = new float[numSamples];
+		int segment = 0;
+		for (int k = 0; k < numSamples; k++) {
+			double s = k * spacing;
+			while (segment < n-1 && arcLength[segment+1] <= s)
+				segment++;
+			double segmentLength = arcLength[segment+1] - arcLength[segment];
+			double t = (segmentLength > 0) ? (s - arcLength[segment]) / segmentLength : 0;
+			xs[k] = (float)(x[segment] + t * (x[segment+1] - x[segment]));
+			ys[k] = (float)(y[segment] + t * (y[segment+1] - y[segment]));
 		}
-		boolean[] mask = getBinaryMask(xMax+2, yMax+2);
 		
-		ContourTracer tracer = new ContourTracer(mask, xMax+2, yMax+2);
-		tracer.trace();
-
-		Compartment resampledCompartment = new Compartment("", new Polygon(tracer.getXCoordinates(), tracer.getYCoordinates(), tracer.getNPoints()));
-		return(resampledCompartment);
+		return new Compartment("", new FloatPolygon(xs, ys, numSamples));
 	}
 	
 	// ----------------------------------------------------------------------------
 
-	/** Creates the convex hull of the compartment. */
+	/**
+	 * Creates the convex hull of the compartment (Andrew's monotone chain on the
+	 * rounded coordinates of the points, collinear points removed). Cost: O(N log N).
+	 */
 	public final Compartment createConvexHull(){
 		
-		PolygonRoi currentRoi = new PolygonRoi(this.toPolygon(), Roi.POLYGON); 
-   		Polygon convexHull = currentRoi.getConvexHull();
-		return new Compartment(name_+"_convex_hull", convexHull);
+		int n = npoints;
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = pack((int)Math.round(xpoints[i]), (int)Math.round(ypoints[i]));
+		Arrays.sort(keys);
+		
+		// remove duplicates
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m == 0 || keys[i] != keys[m-1])
+				keys[m++] = keys[i];
+		}
+		
+		long[] hull = new long[2*m];
+		int k = 0;
+		if (m < 3) {
+			for (int i = 0; i < m; i++)
+				hull[k++] = keys[i];
+		} else {
+			// lower hull
+			for (int i = 0; i < m; i++) {
+				while (k >= 2 && cross(hull[k-2], hull[k-1], keys[i]) <= 0)
+					k--;
+				hull[k++] = keys[i];
+			}
+			// upper hull
+			int lower = k+1;
+			for (int i = m-2; i >= 0; i--) {
+				while (k >= lower && cross(hull[k-2], hull[k-1], keys[i]) <= 0)
+					k--;
+				hull[k++] = keys[i];
+			}
+			k--; // last point is the first one
+		}
+		
+		int[] xh = new int[k];
+		int[] yh = new int[k];
+		for (int i = 0; i < k; i++) {
+			xh[i] = (int)unpackX(hull[i]);
+			yh[i] = (int)unpackY(hull[i]);
+		}
+		return new Compartment(name_+"_convex_hull", new Polygon(xh, yh, k));
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -321,6 +536,18 @@ public class Compartment extends ij.process.FloatPolygon {
 	  */
 	public void reset() {
 		npoints = 0;
+		invalidateGeometry();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Discards the cached area, centroid, perimeter and bounding box. Must be called
+	 * after modifying directly the coordinates in xpoints and ypoints.
+	 */
+	public synchronized void invalidateGeometry() {
+		
+		geometryValid_ = false;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -351,6 +578,7 @@ public class Compartment extends ij.process.FloatPolygon {
 			xpoints[i] += dx;
 			ypoints[i] += dy;
 		}
+		invalidateGeometry();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -361,27 +589,9 @@ public class Compartment extends ij.process.FloatPolygon {
 	 */
 	public List<Point2D.Double> getAoiPoints() throws Exception {
 		
-		Point2D.Double xy0 = new Point2D.Double(Double.MAX_VALUE, Double.MAX_VALUE);
-		Point2D.Double xy1 = new Point2D.Double(Double.MIN_VALUE, Double.MIN_VALUE);
-		
-		double x = 0.;
-		double y = 0.;
-		for (int i = 0; i < npoints; i++) {
-			x = xpoints[i];
-			y = ypoints[i];
-			
-			if (x < xy0.x) xy0.x = x;
-			else if (x > xy1.x) xy1.x = x;
-			
-			if (y < xy0.y) xy0.y = y;
-			else if (y > xy1.y) xy1.y = y;
-		}
-		
-//		// want entire
-//		xy0.x = Math.floor(xy0.x);
-//		xy0.y = Math.floor(xy0.y);
-//		xy1.x = Math.ceil(xy1.x);
-//		xy1.y = Math.ceil(xy1.y);
+		updateGeometry();
+		Point2D.Double xy0 = new Point2D.Double(minX_, minY_);
+		Point2D.Double xy1 = new Point2D.Double(maxX_, maxY_);
 		
 		List<Point2D.Double> points = new ArrayList<Point2D.Double>();
 		points.add(xy0);
@@ -438,6 +648,7 @@ public class Compartment extends ij.process.FloatPolygon {
 		int[] yp = p.ypoints;
 		for(int i = 0; i < nPoints; i++)
 			addPoint(xp[i], yp[i]);
+		invalidateGeometry();
 	}
 	
 	public synchronized void setFloatPolygon(FloatPolygon p) {
@@ -446,5 +657,6 @@ public class Compartment extends ij.process.FloatPolygon {
 		float[] yp = p.ypoints;
 		for(int i = 0; i < nPoints; i++)
 			addPoint(xp[i], yp[i]); // deep copy
+		invalidateGeometry();
 	}
 }
@@ -27,17 +27,14 @@ THE SOFTWARE.
 package ch.epfl.lis.wingj.structure;
 
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.Rectangle;
-import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.net.URI;
 
 import ch.epfl.lis.wingj.WJMessage;
 import ch.epfl.lis.wingj.utilities.ImageUtils;
 
-import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.ImageCanvas;
 import ij.gui.ImageWindow;
@@ -90,12 +87,7 @@ abstract public class Overlay extends ImageCanvas {
 	/** Magnify a Polygon */
 	protected Polygon magnifyPolygon(FloatPolygon polygon, Rectangle rectOffset, double magnification) {
 
-		Polygon p = new Polygon();
-		for (int i = 0; i < polygon.npoints; i++) {
-			p.addPoint((int) (magnification*(polygon.xpoints[i]-rectOffset.x)),
-					(int) (magnification*(polygon.ypoints[i]-rectOffset.y)));
-		}
-		return p;
+		return StructureRenderer.magnifyPolygon(polygon, rectOffset, magnification);
 	}
 	
 	// ============================================================================
@@ -250,21 +242,24 @@ abstract public class Overlay extends ImageCanvas {
 	
 	// ----------------------------------------------------------------------------
 
-	/** Returns a BufferedImage from the content of the StackWindow. */
-	public BufferedImage overlayToBufferedImage() {
-
-		ImagePlus image = stackWindow_.getImagePlus();
-		int width = image.getWidth();
-		int  height = image.getHeight();
-		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		Graphics2D g = (Graphics2D)bi.getGraphics();
+	/** Returns the renderer of the structure configured like this overlay. */
+	public StructureRenderer getStructureRenderer() {
+		
+		StructureRenderer renderer = structure_.getStructureRenderer();
+		renderer.isStructureVisible(showStructure_);
+		renderer.isInformationVisible(showInformation_);
+		return renderer;
+	}
+	
+	// ----------------------------------------------------------------------------
 
-		double tmpMagnification = getMagnification();
-		setMagnification(1);
-		paint(g);
-		setMagnification(tmpMagnification);
+	/**
+	 * Returns a BufferedImage from the content of the StackWindow.
+	 * The image is painted off-screen by the structure renderer (magnification 1).
+	 */
+	public BufferedImage overlayToBufferedImage() throws Exception {
 
-		return bi;
+		return getStructureRenderer().render(stackWindow_.getImagePlus());
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -272,8 +267,7 @@ abstract public class Overlay extends ImageCanvas {
 	/**  Saves the detected structure and overlay to image file (extension defines the image format). */
 	public void save(URI uri) throws Exception {
 
-		ImagePlus img = new ImagePlus("structure_save", Toolkit.getDefaultToolkit().createImage(overlayToBufferedImage().getSource()));
-		IJ.save(img, uri.getPath());
+		getStructureRenderer().save(uri, stackWindow_.getImagePlus());
 	}
 	
 	// ============================================================================
@@ -156,6 +156,11 @@ abstract public class Structure extends Compartment {
 	 * @see ch.epfl.lis.wingj.WJStructureViewer
 	 */
 	abstract public Overlay getStructureOverlay(ImagePlus image, boolean singleImage);
+	/**
+	 * Returns an object extending the abstract class StructureRenderer for painting the structure
+	 * directly onto an image buffer (doesn't require any window).
+	 */
+	abstract public StructureRenderer getStructureRenderer();
 	
 	/** Returns a new StructureDataset corresponding to this structure. */
 	abstract public StructureDataset newStructureDataset();
@@ -0,0 +1,214 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.structure;
+
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.net.URI;
+
+import ch.epfl.lis.wingj.utilities.ImageUtils;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+
+/** 
+ * Abstract class for painting structures directly onto an image buffer.
+ * <p>
+ * Contrary to Overlay, which extends ImageCanvas and requires an ImageWindow, the
+ * renderer draws the structure, its boundaries/axes and the compartment labels with
+ * Graphics2D on a BufferedImage. It can therefore be used to export structure
+ * previews under java.awt.headless=true (e.g. batch processing on a cluster) and
+ * doesn't pay for the creation of a window for each exported image.
+ * <p>
+ * Overlay uses the renderer of the structure to paint on the canvas so that the
+ * content of the viewers and of the exported images is the same.
+ * 
+ * @see ch.epfl.lis.wingj.structure.Overlay
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+abstract public class StructureRenderer {
+	
+	/** Structure object. */
+	protected Structure structure_ = null;
+	
+	/** Paints the structure. */
+	protected boolean showStructure_ = true;
+	/** Paints additional information such as compartment labels. */
+	protected boolean showInformation_ = true;
+	
+	// ============================================================================
+	// ABSTRACT METHODS
+	
+	/** Paints the structure (contour, boundaries, etc.) with the given offset and magnification. */
+	abstract public void paintStructure(Graphics2D g, Rectangle offset, double magnification);
+	/** Paints information, for instance compartments name, with the given offset and magnification. */
+	abstract public void paintInformation(Graphics2D g, Rectangle offset, double magnification);
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor. */
+	public StructureRenderer(Structure structure) {
+		
+		structure_ = structure;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Magnifies a polygon and returns it as a Polygon (integer coordinates). */
+	public static Polygon magnifyPolygon(FloatPolygon polygon, Rectangle offset, double magnification) {
+		
+		Polygon p = new Polygon();
+		for (int i = 0; i < polygon.npoints; i++) {
+			p.addPoint((int) (magnification*(polygon.xpoints[i]-offset.x)),
+					(int) (magnification*(polygon.ypoints[i]-offset.y)));
+		}
+		return p;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a RGB BufferedImage of the current slice of the given image.
+	 * <p>
+	 * As for Overlay, the pixel values are scaled to [0,255] if the image has been
+	 * normalized and the display range is set to [0,255]. The source image is not
+	 * modified.
+	 */
+	public static BufferedImage createBackground(ImagePlus image) throws Exception {
+		
+		if (image == null || image.getProcessor() == null)
+			throw new Exception("ERROR: Image is null.");
+		
+		ImageProcessor ip = image.getProcessor().duplicate();
+		// in case the image has been normalized
+		try {
+			double max = ImageUtils.getMaxPixelValue(image);
+			if (max > 0 && max <= 1.5)
+				ip.multiply(255./max); // same as ImageUtils.scalePixelValues()
+		} catch (Exception e) {}
+		ip.setMinAndMax(0., 255.);
+		
+		ColorProcessor cp = (ColorProcessor)ip.convertToRGB();
+		int width = cp.getWidth();
+		int height = cp.getHeight();
+		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		bi.getRaster().setDataElements(0, 0, width, height, cp.getPixels());
+		
+		return bi;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a Graphics2D which paints directly into the pixel array of the given
+	 * ColorProcessor (no copy, no window). The graphics must be disposed by the caller.
+	 */
+	public static Graphics2D createGraphics(ColorProcessor cp) {
+		
+		int width = cp.getWidth();
+		int height = cp.getHeight();
+		DataBufferInt buffer = new DataBufferInt((int[])cp.getPixels(), width * height);
+		DirectColorModel cm = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+		WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, cm.getMasks(), null);
+		BufferedImage bi = new BufferedImage(cm, raster, false, null);
+		
+		Graphics2D g = bi.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		return g;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Paints the structure and information (if visible) on the given graphics. */
+	public void paint(Graphics2D g, Rectangle offset, double magnification) {
+		
+		if (showStructure_)
+			paintStructure(g, offset, magnification);
+		if (showInformation_)
+			paintInformation(g, offset, magnification);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a BufferedImage of the structure painted on top of the given image. */
+	public BufferedImage render(ImagePlus image) throws Exception {
+		
+		BufferedImage bi = createBackground(image);
+		Graphics2D g = bi.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		try {
+			paint(g, new Rectangle(0, 0, bi.getWidth(), bi.getHeight()), 1.);
+		} finally {
+			g.dispose();
+		}
+		return bi;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns an RGB ImagePlus of the structure painted on top of the given image. */
+	public ImagePlus renderToImagePlus(String title, ImagePlus image) throws Exception {
+		
+		BufferedImage bi = render(image);
+		// the pixels of the BufferedImage are used directly (no copy)
+		int[] pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+		return new ImagePlus(title, new ColorProcessor(bi.getWidth(), bi.getHeight(), pixels));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Saves the structure painted on top of the given image to file (extension defines the image format). */
+	public void save(URI uri, ImagePlus image) throws Exception {
+		
+		IJ.save(renderToImagePlus("structure_save", image), uri.getPath());
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public Structure getStructure() { return structure_; }
+	
+	public void isInformationVisible(boolean b) { showInformation_ = b; }
+	public boolean isInformationVisible() { return showInformation_; }
+
+	public void isStructureVisible(boolean b) { showStructure_ = b; }
+	public boolean isStructureVisible() { return showStructure_; }
+}
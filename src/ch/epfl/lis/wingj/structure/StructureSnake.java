@@ -330,6 +330,8 @@ abstract public class StructureSnake implements Snake2D {
 			y[i] = anchorPoints[i].y;
 		}
 
+		if (si_ == null)
+			si_ = new SplineInterpolator();
 		polynomialSplineFunctions[0] = (PolynomialSplineFunction) si_.interpolate(t, x);
 		polynomialSplineFunctions[1] = (PolynomialSplineFunction) si_.interpolate(t, y);
 		return polynomialSplineFunctions;
@@ -28,6 +28,7 @@ package ch.epfl.lis.wingj.structure.drosophila.embryo;
 
 import java.awt.geom.Point2D;
 
+import big.ij.snake2D.Snake2D;
 import big.ij.snake2D.Snake2DKeeper;
 import big.ij.snake2D.Snake2DNode;
 
@@ -39,6 +40,7 @@ import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.Compartment;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
 import ch.epfl.lis.wingj.structure.tools.EmbryoSnake;
+import ch.epfl.lis.wingj.structure.tools.SnakePyramid;
 import ch.epfl.lis.wingj.utilities.Filters;
 
 /** 
@@ -152,6 +154,24 @@ public class EmbryoContourDetection extends StructureDetectionModule {
 			snakeBackupNodes[snakeNodeCounter] = new Snake2DNode(snakeInitialNodes[snakeNodeCounter].x, snakeInitialNodes[snakeNodeCounter].y, snakeInitialNodes[snakeNodeCounter].frozen, snakeInitialNodes[snakeNodeCounter].hidden);
 		}
 		
+		// coarse-to-fine initialization of the snake
+		final FloatProcessor snakeBinaryImage = thresholdedImage;
+		final FloatProcessor snakeGrayscaleImage = (FloatProcessor)detector.structureProjection_.getProcessor();
+		final int numNodes = snakeNumNodes;
+		final double std = stdSnakeSmoothing;
+		final double lambda = snakeLambda;
+		final double alpha = snakeAlpha;
+		final Point2D.Double snakeCenter = center;
+		final double snakeRadius = rad;
+		SnakePyramid pyramid = new SnakePyramid(snakeGrayscaleImage.getWidth(), snakeGrayscaleImage.getHeight()) {
+			@Override
+			protected Snake2D createSnake(int factor) throws Exception {
+				return new EmbryoSnake(SnakePyramid.downsample(snakeBinaryImage, factor), SnakePyramid.downsample(snakeGrayscaleImage, factor),
+						numNodes, 200, std / factor, lambda, alpha, SnakePyramid.toCoarse(snakeCenter, factor), snakeRadius / factor);
+			}
+		};
+		pyramid.optimize(embryoSnake);
+		
 		Snake2DKeeper keeper = new Snake2DKeeper();
 		if(detector.isInteractive() && !hidden_){ // do not show the image in hidden mode
 			detector.structureProjection_.show();
@@ -28,15 +28,9 @@ package ch.epfl.lis.wingj.structure.drosophila.embryo;
 
 import ij.ImagePlus;
 
-import java.awt.BasicStroke;
-import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Polygon;
-import java.awt.geom.Point2D;
 
-import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.Overlay;
 import ch.epfl.lis.wingj.structure.Structure;
 
@@ -55,15 +49,6 @@ public class EmbryoOverlay extends Overlay {
 	/** Default serial. */
 	private static final long serialVersionUID = 1L;
 
-	/** Centroid of the DA compartment */
-	private Point2D.Double daCentroid_ = null;
-	/** Centroid of the DP compartment */
-	private Point2D.Double dpCentroid_ = null;
-	/** Centroid of the VA compartment */
-	private Point2D.Double vaCentroid_ = null;
-	/** Centroid of the VP compartment */
-	private Point2D.Double vpCentroid_ = null;
-
 	// ============================================================================
 	// PUBLIC METHODS
 
@@ -87,23 +72,7 @@ public class EmbryoOverlay extends Overlay {
 	@Override
 	protected void paintStructure(Graphics g) {
 		
-		WJSettings settings = WJSettings.getInstance();
-		EmbryoStructure structure = (EmbryoStructure)structure_;
-		
-		// set font
-		g.setColor(settings.getDefaultColor());
-		
-		// set pen stroke
-		Graphics2D g2d = (Graphics2D)g;
-		g2d.setStroke(new BasicStroke(settings.getDefaultStrokeWidth()));
-		
-		// wing pouch contour
-		g.drawPolygon(magnifyPolygon(structure, rectOffset_, magnification));
-		// D/V and A/P boundaries
-		Polygon b = magnifyPolygon(structure.getDVBoundary(), rectOffset_, magnification);
-		g.drawPolyline(b.xpoints, b.ypoints, b.npoints);
-		b = magnifyPolygon(structure.getAPBoundary(), rectOffset_, magnification);
-		g.drawPolyline(b.xpoints, b.ypoints, b.npoints);
+		structure_.getStructureRenderer().paintStructure((Graphics2D)g, rectOffset_, magnification);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -112,31 +81,6 @@ public class EmbryoOverlay extends Overlay {
 	@Override
 	protected void paintInformation(Graphics g) {
 		
-		WJSettings settings = WJSettings.getInstance();
-		
-		EmbryoStructure s = (EmbryoStructure)structure_;
-		daCentroid_ = s.getDACompartment().centroid();
-		dpCentroid_ = s.getDPCompartment().centroid();
-		vaCentroid_ = s.getVACompartment().centroid();
-		vpCentroid_ = s.getVPCompartment().centroid();
-		
-		// set font
-		g.setFont(new Font(null, Font.PLAIN, (int)Math.round(settings.getStructureOverlayFontSizeCoeff()*magnification_)));
-		g.setColor(settings.getDefaultColor());
-		FontMetrics fm = g.getFontMetrics();
-		
-		// paint
-		g.drawString("DA", (int)(magnification_*(daCentroid_.x-rectOffset_.x))-fm.stringWidth("DA")/2, (int)(magnification_*(daCentroid_.y-rectOffset_.y))+fm.getAscent()/3);
-		g.drawString("DP", (int)(magnification_*(dpCentroid_.x-rectOffset_.x))-fm.stringWidth("DP")/2, (int)(magnification_*(dpCentroid_.y-rectOffset_.y))+fm.getAscent()/3);
-		g.drawString("VA", (int)(magnification_*(vaCentroid_.x-rectOffset_.x))-fm.stringWidth("VA")/2, (int)(magnification_*(vaCentroid_.y-rectOffset_.y))+fm.getAscent()/3);
-		g.drawString("VP", (int)(magnification_*(vpCentroid_.x-rectOffset_.x))-fm.stringWidth("VP")/2, (int)(magnification_*(vpCentroid_.y-rectOffset_.y))+fm.getAscent()/3);
+		structure_.getStructureRenderer().paintInformation((Graphics2D)g, rectOffset_, magnification_);
 	}
-
-	// ============================================================================
-	// SETTERS AND GETTERS
-
-	public void setDACentroid(Point2D.Double p) { daCentroid_ = p; }
-	public void setDPCentroid(Point2D.Double p) { dpCentroid_ = p; }
-	public void setVACentroid(Point2D.Double p) { vaCentroid_ = p; }
-	public void setVPCentroid(Point2D.Double p) { vpCentroid_ = p; }
 }
\ No newline at end of file
@@ -28,20 +28,34 @@ package ch.epfl.lis.wingj.structure.drosophila.wingpouch;
 
 import ch.epfl.lis.wingj.ImagePlusManager;
 import ch.epfl.lis.wingj.WJImagesMask;
+import ch.epfl.lis.wingj.WJLog;
 import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
 import ch.epfl.lis.wingj.structure.tools.Skeleton;
 import ch.epfl.lis.wingj.utilities.Filters;
+import ch.epfl.lis.wingj.utilities.PixelBufferPool;
 import ij.ImagePlus;
 import ij.process.AutoThresholder;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /** 
  * Pre-processing of the Wg-Ptc-AB maximum intensity projection.
  * 
  * - Blur image
  * - Threshold image
+ * <p>
+ * If the skeleton of the thresholded image is too small, the thresholds thld+5,
+ * thld+10, etc. are evaluated concurrently on the same blurred image and the first
+ * one accepted is kept. The result is the same as increasing the threshold by 5
+ * after each failed test() but the image is blurred only once.
  * 
  * @version June 2, 2011
  *
@@ -50,11 +64,174 @@ import ij.process.ImageProcessor;
  */
 public class PreProcessing extends StructureDetectionModule {
 	
+	/**
+	 * Maximum number of thresholds evaluated in parallel. Each of them requires a
+	 * full-size thresholded image and its skeleton.
+	 */
+	public static final int MAX_NUM_THREADS = 4;
+	
 	/** Auto threshold method. */
 	public static AutoThresholder.Method autoThresholdMethod_ = AutoThresholder.Method.Minimum;
 	/** Threshold increment automatically added to the threshold if test() returns false. */
 	private int ppThresholdIncrement_ = 5;
 	
+	/** Last pre-processed image whose skeleton size has been computed during the threshold search. */
+	private ImagePlus testedImage_ = null;
+	/** Skeleton size of testedImage_. */
+	private int testedSkeletonSize_ = 0;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Returns the size in pixels of the pruned skeleton of the given pre-processed image. */
+	private static int computeSkeletonSize(ImagePlus ppImage) throws Exception {
+		
+		Skeleton skeleton = new Skeleton();
+		// can takes time, I guess depending on the content of ppImage_
+		// TODO: Error in IJ47e: cannot convert float to byte
+		skeleton.prune((FloatProcessor)ppImage.getProcessor(), true);
+		return skeleton.countNonZeroPixels();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the skeleton size of the given pre-processed image, or -1 if it can not be computed. */
+	private static int computeSkeletonSizeOrFail(ImagePlus ppImage) {
+		
+		try {
+			return computeSkeletonSize(ppImage);
+		} catch (Exception e) {
+			WJSettings.log("PreProcessing: " + e.getMessage());
+			return -1;
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a blurred copy of the processor of the given image whose pixels are
+	 * taken from the PixelBufferPool if the image is a 32-bit image. The buffer should
+	 * be given back with releasePixels().
+	 */
+	private static ImageProcessor blurToPooledBuffer(ImagePlus projection, double blur) throws Exception {
+		
+		ImageProcessor ip = projection.getProcessor();
+		if (!(ip instanceof FloatProcessor))
+			return blur(projection, blur);
+		
+		float[] pixels = PixelBufferPool.getInstance().acquireFloatCopy((float[])ip.getPixels());
+		ImageProcessor processor = new FloatProcessor(ip.getWidth(), ip.getHeight(), pixels, ip.getColorModel());
+		Filters.applyGaussianFilter(processor, blur);
+		
+		return processor;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Same as threshold() but the pixels are taken from the PixelBufferPool if the blurred processor is a 32-bit processor. */
+	private static ImagePlus thresholdToPooledBuffer(ImageProcessor blurred, int thld) throws Exception {
+		
+		if (!(blurred instanceof FloatProcessor))
+			return threshold(blurred, thld);
+		
+		float[] pixels = PixelBufferPool.getInstance().acquireFloatCopy((float[])blurred.getPixels());
+		FloatProcessor processor = new FloatProcessor(blurred.getWidth(), blurred.getHeight(), pixels, blurred.getColorModel());
+		Filters.binaryThresholdedImageFilter(processor, thld);
+		
+		return new ImagePlus("detection_structure_preprocessed", processor);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Gives back the pixels of the given 32-bit processor to the PixelBufferPool. The processor must not be used anymore. */
+	private static void releasePixels(ImageProcessor ip) {
+		
+		if (ip instanceof FloatProcessor)
+			PixelBufferPool.getInstance().release((float[])ip.getPixels());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Waits for the images computed from the given index and gives back their pixels to the PixelBufferPool. */
+	private static void releasePixels(List<Future<ImagePlus>> images, int from) {
+		
+		for (int i = from; i < images.size(); i++) {
+			try {
+				releasePixels(images.get(i).get().getProcessor());
+			} catch (Exception e) {
+				// no image to release
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the first threshold thld, thld+increment, etc. (below 255) for which the
+	 * skeleton of the thresholded image has at least minSkeletonSize pixels, or -1.
+	 * <p>
+	 * The first threshold is evaluated alone. If it is rejected, the next ones are
+	 * evaluated by batches of one threshold per processor (at most MAX_NUM_THREADS).
+	 * The accepted image is stored in testedImage_, the pixels of the other images
+	 * are given back to the PixelBufferPool.
+	 */
+	private int searchThreshold(final ImageProcessor blurred, int thld, int minSkeletonSize) throws Exception {
+		
+		testedImage_ = thresholdToPooledBuffer(blurred, thld);
+		testedSkeletonSize_ = computeSkeletonSizeOrFail(testedImage_);
+		if (testedSkeletonSize_ >= minSkeletonSize)
+			return thld;
+		releasePixels(testedImage_.getProcessor());
+		WJSettings.log("PreProcessing: Skeleton size smaller than required (" + testedSkeletonSize_ + " < " + minSkeletonSize + ")");
+		
+		int numThreads = Math.max(1, Math.min(MAX_NUM_THREADS, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			int t = thld + ppThresholdIncrement_;
+			while (t < 255) {
+				List<Integer> thresholds = new ArrayList<Integer>();
+				List<Future<ImagePlus>> images = new ArrayList<Future<ImagePlus>>();
+				final int[] sizes = new int[numThreads];
+				for (int i = 0; i < numThreads && t < 255; i++, t += ppThresholdIncrement_) {
+					final int threshold = t;
+					final int index = i;
+					thresholds.add(threshold);
+					images.add(executor.submit(new Callable<ImagePlus>() {
+						@Override
+						public ImagePlus call() throws Exception {
+							ImagePlus image = thresholdToPooledBuffer(blurred, threshold);
+							sizes[index] = computeSkeletonSizeOrFail(image);
+							return image;
+						}
+					}));
+				}
+				// the results are read in increasing threshold order
+				int next = 0; // index of the next result to read
+				try {
+					while (next < thresholds.size()) {
+						ImagePlus image = images.get(next).get();
+						int size = sizes[next];
+						int threshold = thresholds.get(next++);
+						if (size >= minSkeletonSize) {
+							testedImage_ = image;
+							testedSkeletonSize_ = size;
+							return threshold;
+						}
+						WJLog.log(WJLog.Level.INFO, "PreProcessing: Skeleton size smaller than required ({} < {}) [threshold = {}]", size, minSkeletonSize, threshold);
+						releasePixels(image.getProcessor());
+					}
+				} finally {
+					// the images of the larger thresholds of the batch are not used
+					releasePixels(images, next);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		testedImage_ = null;
+		return -1;
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -117,8 +294,28 @@ public class PreProcessing extends StructureDetectionModule {
    		
 //   		WJSettings.log("==> Threshold: " + thld);
    		
-   		// blur and thld image
-   		detector.ppImage_ = blurAndThreshold(detector.structureProjection_, blur, thld);
+   		// blur once and search the first threshold accepted by test()
+   		ImageProcessor blurred = blurToPooledBuffer(detector.structureProjection_, blur);
+   		int acceptedThld = -1;
+   		try {
+   			acceptedThld = searchThreshold(blurred, thld, settings.getMinSkeletonSizeInPixels());
+   		} finally {
+   			releasePixels(blurred);
+   		}
+   		if (acceptedThld < 0) {
+   			// first threshold which would have been reached by update()
+   			while (thld < 255) thld += ppThresholdIncrement_;
+   			settings.setPpThreshold(thld);
+   			throw new Exception("WARNING: Pre-processing threshold value is too high.\n" +
+					"\n" +
+					"Modify the pre-processing bluring value and\n" +
+					"re-initialize the structure detection.");
+   		}
+   		if (acceptedThld != thld) {
+   			WJSettings.log("Increasing the pre-processing threshold to " + acceptedThld + ".");
+   			settings.setPpThreshold(acceptedThld);
+   		}
+   		detector.ppImage_ = testedImage_;
    		manager.add(detector.ppImage_.getTitle(), detector.ppImage_, detector.isInteractive() && !hidden_); // do not show the image in hidden mode
 	}
 	
@@ -127,12 +324,30 @@ public class PreProcessing extends StructureDetectionModule {
 	/** Computes the pre-processed image (mask must have been already applied). */
 	public static ImagePlus blurAndThreshold(ImagePlus projection, double blur, int thld) throws Exception {
 		
+   		return threshold(blur(projection, blur), thld);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a blurred copy of the processor of the given image. */
+	public static ImageProcessor blur(ImagePlus projection, double blur) throws Exception {
+		
    		// get image processor to work with
    		ImageProcessor processor = projection.getProcessor().duplicate();
    		
    		// Gaussian blurring
    		Filters.applyGaussianFilter(processor, blur);
    		
+   		return processor;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the pre-processed image obtained by thresholding the given blurred processor (not modified). */
+	public static ImagePlus threshold(ImageProcessor blurred, int thld) throws Exception {
+		
+   		ImageProcessor processor = blurred.duplicate();
+   		
    		// thresholding image to get a binary image
    		Filters.binaryThresholdedImageFilter((FloatProcessor) processor.convertToFloat(), thld);
    		
@@ -146,14 +361,13 @@ public class PreProcessing extends StructureDetectionModule {
 	public static int computeAutoPpThreshold(ImagePlus image, double blur) throws Exception {
 		
    		// Gaussian blurring
-		ImageProcessor ip = image.getProcessor().duplicate();
-   		Filters.applyGaussianFilter(ip, blur);
-   		ip.setAutoThreshold(autoThresholdMethod_, true, ImageProcessor.NO_LUT_UPDATE);
-   		
-   		int threshold = (int) Math.round(((double)ip.getMaxThreshold() + (double)ip.getMinThreshold()) / 2.);
-   		ip = null;
-   		
-   		return threshold;
+		ImageProcessor ip = blurToPooledBuffer(image, blur);
+		try {
+			ip.setAutoThreshold(autoThresholdMethod_, true, ImageProcessor.NO_LUT_UPDATE);
+			return (int) Math.round(((double)ip.getMaxThreshold() + (double)ip.getMinThreshold()) / 2.);
+		} finally {
+			releasePixels(ip);
+		}
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -191,11 +405,12 @@ public class PreProcessing extends StructureDetectionModule {
 		int minSkeletonSize = settings.getMinSkeletonSizeInPixels();
 		
 		try {
-			Skeleton skeleton = new Skeleton();
-			// can takes time, I guess depending on the content of ppImage_
-			// TODO: Error in IJ47e: cannot convert float to byte
-			skeleton.prune((FloatProcessor)detector.ppImage_.getProcessor(), true);
-			int skeletonSize = skeleton.countNonZeroPixels();
+			// the skeleton size of the image returned by the threshold search is already known
+			int skeletonSize = 0;
+			if (detector.ppImage_ != null && detector.ppImage_ == testedImage_)
+				skeletonSize = testedSkeletonSize_;
+			else
+				skeletonSize = computeSkeletonSize(detector.ppImage_);
 			WJSettings.log("Skeleton size: " + skeletonSize + " px");
 			
 			if (skeletonSize < minSkeletonSize)
@@ -227,7 +442,15 @@ public class PreProcessing extends StructureDetectionModule {
 	/** Returns the sigma value of the 2D Gaussian filter used to smooth the image. */
 	public static double getPpBlurSigma() {
 		
-		return WJSettings.getInstance().getExpectedBoundariesThicknessInPixels()/2.*Math.sqrt(2.*Math.log(2));
+		return getPpBlurSigma(WJSettings.getInstance().getExpectedBoundariesThicknessInPixels());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the sigma value of the 2D Gaussian filter for the given expected thickness of the boundaries in [px]. */
+	public static double getPpBlurSigma(double expectedBoundariesThicknessInPixels) {
+		
+		return expectedBoundariesThicknessInPixels/2.*Math.sqrt(2.*Math.log(2));
 	}
 	
 	// ----------------------------------------------------------------------------
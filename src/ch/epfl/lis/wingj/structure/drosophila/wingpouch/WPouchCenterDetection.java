@@ -27,7 +27,6 @@ THE SOFTWARE.
 package ch.epfl.lis.wingj.structure.drosophila.wingpouch;
 
 import ij.ImagePlus;
-import ij.plugin.Duplicator;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 
@@ -41,9 +40,12 @@ import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.tools.KiteSnake;
 import ch.epfl.lis.wingj.structure.tools.PlusShapeCenterDetector;
 import ch.epfl.lis.wingj.structure.tools.Skeleton;
+import ch.epfl.lis.wingj.structure.tools.SnakePyramid;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
 import ch.epfl.lis.wingj.utilities.Filters;
+import ch.epfl.lis.wingj.utilities.PixelBufferPool;
 
+import big.ij.snake2D.Snake2D;
 import big.ij.snake2D.Snake2DKeeper;
 import big.ij.snake2D.Snake2DNode;
 
@@ -92,7 +94,7 @@ public class WPouchCenterDetection extends StructureDetectionModule {
 	public static double TEST_KITESNAKE_DYNAMIC_WIDTH_RATIO = 0.5;
 
 	/** Maximum number of iterations the KiteSnake can run */
-	private static final int KITESNAKE_MAX_NUM_ITERATIONS = 5000;
+	public static final int KITESNAKE_MAX_NUM_ITERATIONS = 5000;
 	
 	/** Allows to disable the KiteSnake, for instance when testing the performance of the structure center optimization. */
 	private boolean kiteSnakeDisabled_ = false;
@@ -208,6 +210,29 @@ public class WPouchCenterDetection extends StructureDetectionModule {
 		return centerCandidates;
 	}
 	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the pyramid used to optimize the KiteSnake on downsampled images before the full resolution. */
+	private SnakePyramid createKiteSnakePyramid(final Point2D.Double center, final double branchWidth) {
+		
+		final FloatProcessor image = (FloatProcessor)((WPouchStructureDetector)detector_).structureProjection_.getProcessor();
+		final double branchLength = WJSettings.getInstance().getKiteSnakeBranchLength();
+		
+		return new SnakePyramid(image.getWidth(), image.getHeight()) {
+			@Override
+			protected Snake2D createSnake(int factor) throws Exception {
+				KiteSnake snake = new KiteSnake();
+				snake.setImage(SnakePyramid.downsample(image, factor), PreProcessing.getPpBlurSigma() / factor);
+				snake.setInitialKiteCenter(SnakePyramid.toCoarse(center, factor));
+				snake.setGeometry(branchLength / factor, branchWidth / factor);
+				snake.setMaxNumIters(KITESNAKE_MAX_NUM_ITERATIONS);
+				snake.build();
+				snake.setImmortal(false);
+				return snake;
+			}
+		};
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -248,35 +273,45 @@ public class WPouchCenterDetection extends StructureDetectionModule {
 //		IJ.save(dilatedSkeleton, "/home/tschaffter/Documents/WingJ_experiments/20111108_StructureCenterTest_projection_only/data/dilated_skeleton.tif");
 		
 		// optimize each center candidates
-		ImagePlus optimizerImage = new Duplicator().run(detector.structureProjection_);
+		// the blurred projection is taken from the pool and shared by the optimizers, which
+		// only read it (each optimizer gets its own ImagePlus and processor)
+		PixelBufferPool pool = PixelBufferPool.getInstance();
+		FloatProcessor projection = (FloatProcessor)detector.structureProjection_.getProcessor();
+		int width = projection.getWidth();
+		int height = projection.getHeight();
+		float[] optimizerPixels = pool.acquireFloatCopy((float[])projection.getPixels());
 		
-   		Filters.applyGaussianFilter(optimizerImage.getProcessor(), PreProcessing.getPpBlurSigma()/2.);
+   		Filters.applyGaussianFilter(new FloatProcessor(width, height, optimizerPixels, null), PreProcessing.getPpBlurSigma()/2.);
    		Point2D.Double bestCenterCandidate = null;
    		double bestScore = 0.;
-   		for (int i = 0; i < centerCandidates.size(); i++) {
-   	   		PlusShapeCenterDetector optimizer = new PlusShapeCenterDetector();
-   			optimizer.setImage(new Duplicator().run(optimizerImage));
-   			// set the geometry of the center optimizer
-   			// 1. dimension of the entire optimizer
-   			// set it as a square whose sides are 3-4 times the expected fitness of the boundaries
-   			int expectedBoundariesThickness = (int)settings.getExpectedBoundariesThicknessInPixels();
-   			Dimension optimizerDim = new Dimension(3*expectedBoundariesThickness, 3*expectedBoundariesThickness);
-   			// 2. dimension of the four background squares
-   			Dimension backgroundDim = new Dimension(expectedBoundariesThickness, expectedBoundariesThickness);
-   			// 3. scaling coefficient (default: 1)
-   			double scaleCoeff = settings.getCenterOptimizerScale();
+   		try {
+   			for (int i = 0; i < centerCandidates.size(); i++) {
+   		   		PlusShapeCenterDetector optimizer = new PlusShapeCenterDetector();
+   				optimizer.setImage(new ImagePlus(detector.structureProjection_.getTitle(), new FloatProcessor(width, height, optimizerPixels, null)));
+   				// set the geometry of the center optimizer
+   				// 1. dimension of the entire optimizer
+   				// set it as a square whose sides are 3-4 times the expected fitness of the boundaries
+   				int expectedBoundariesThickness = (int)settings.getExpectedBoundariesThicknessInPixels();
+   				Dimension optimizerDim = new Dimension(3*expectedBoundariesThickness, 3*expectedBoundariesThickness);
+   				// 2. dimension of the four background squares
+   				Dimension backgroundDim = new Dimension(expectedBoundariesThickness, expectedBoundariesThickness);
+   				// 3. scaling coefficient (default: 1)
+   				double scaleCoeff = settings.getCenterOptimizerScale();
 
 //   			int size = (int) (2*settings.getKiteSnakeBranchWidth()) + 2*WPouchCenterDetectionOptimizer.CENTER_OPTIMIZER_DEFAULT_BACKGROUND_GEOMETRY.width;
 //   			optimizer.initialize(new Point2D.Double(centerCandidates.get(i).x, centerCandidates.get(i).y), new Dimension(size, size), WPouchCenterDetectionOptimizer.CENTER_OPTIMIZER_DEFAULT_BACKGROUND_GEOMETRY, 1);
-   			optimizer.initialize(new Point2D.Double(centerCandidates.get(i).x, centerCandidates.get(i).y), null, optimizerDim, backgroundDim, scaleCoeff);
-   			optimizer.optimize();
+   				optimizer.initialize(new Point2D.Double(centerCandidates.get(i).x, centerCandidates.get(i).y), null, optimizerDim, backgroundDim, scaleCoeff);
+   				optimizer.optimize();
    			
-   			if (optimizer.getScore() > bestScore) {
-   				bestScore = optimizer.getScore();
-   				bestCenterCandidate = optimizer.getCorrectedCenter();
-   				 // optimizer.drawRois("/home/tschaffter/CenterTest.tif");
+   				if (optimizer.getScore() > bestScore) {
+   					bestScore = optimizer.getScore();
+   					bestCenterCandidate = optimizer.getCorrectedCenter();
+   					 // optimizer.drawRois("/home/tschaffter/CenterTest.tif");
+   				}
+   				optimizer.clean();
    			}
-   			optimizer.clean();
+   		} finally {
+   			pool.release(optimizerPixels);
    		}
 		
    		// final wing pouch center (could be null)
@@ -312,6 +347,7 @@ public class WPouchCenterDetection extends StructureDetectionModule {
    				detector.structureProjection_.show();
    				detector.kiteSnake_.freezeKiteCenter(true);
    				detector.kiteSnake_.setImmortal(false);
+   				createKiteSnakePyramid(structure.center_, kiteSnakeBranchesWidth).optimize(detector.kiteSnake_);
    				keeper.optimize(detector.kiteSnake_, detector.structureProjection_);
    				detector.kiteSnake_.freezeKiteCenter(false);
    				detector.kiteSnake_.reviveSnake();
@@ -331,6 +367,7 @@ public class WPouchCenterDetection extends StructureDetectionModule {
    			} else{
    				detector.kiteSnake_.freezeKiteCenter(true);
    				detector.kiteSnake_.setImmortal(false);
+   				createKiteSnakePyramid(structure.center_, kiteSnakeBranchesWidth).optimize(detector.kiteSnake_);
    				keeper.optimize(detector.kiteSnake_, null);
    				detector.kiteSnake_.freezeKiteCenter(false);
    			}
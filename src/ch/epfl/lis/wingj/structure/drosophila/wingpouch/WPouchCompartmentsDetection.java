@@ -32,9 +32,11 @@ import java.awt.geom.Point2D;
 
 import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.tools.CompartmentSnake;
+import ch.epfl.lis.wingj.structure.tools.SnakePyramid;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
 import ch.epfl.lis.wingj.structure.Compartment;
 
+import big.ij.snake2D.Snake2D;
 import big.ij.snake2D.Snake2DKeeper;
 import big.ij.snake2D.Snake2DNode;
 import big.ij.snake2D.Snake2DScale;
@@ -58,6 +60,27 @@ public class WPouchCompartmentsDetection extends StructureDetectionModule {
 	// ============================================================================
 	// PRIVATE METHODS
 	
+	/** Returns the pyramid used to optimize a CompartmentSnake on downsampled images before the full resolution. */
+	private SnakePyramid createCompartmentSnakePyramid(final FloatProcessor dilatedSkeleton, final FloatProcessor mip, final Point2D.Double centroid) {
+		
+		WJSettings settings = WJSettings.getInstance();
+		final double lambda = settings.getSnakeLambda();
+		final double alpha = settings.getSnakeAlpha();
+		final double std = settings.getSnakeBlur();
+		final double rad = settings.getSnakeRadius();
+		final int numNodes = settings.getSnakeNumNodes();
+		
+		return new SnakePyramid(mip.getWidth(), mip.getHeight()) {
+			@Override
+			protected Snake2D createSnake(int factor) throws Exception {
+				return new CompartmentSnake(SnakePyramid.downsample(dilatedSkeleton, factor), SnakePyramid.downsample(mip, factor),
+						numNodes, samplingRate_, std / factor, lambda, alpha, SnakePyramid.toCoarse(centroid, factor), rad / factor);
+			}
+		};
+	}
+	
+	// ----------------------------------------------------------------------------
+	
 	/**
 	 * Performs the segmentation four compartments using prior-shape snakes. 
 	 * @param centroids Centroids of the four compartments
@@ -90,6 +113,9 @@ public class WPouchCompartmentsDetection extends StructureDetectionModule {
 				snakeBackupNodes[snakeNodeCounter] = new Snake2DNode(snakeInitialNodes[snakeNodeCounter].x, snakeInitialNodes[snakeNodeCounter].y, snakeInitialNodes[snakeNodeCounter].frozen, snakeInitialNodes[snakeNodeCounter].hidden);
 			}
 			
+			// coarse-to-fine initialization of the snake
+			createCompartmentSnakePyramid(dilatedSkeleton, mip, centroids[i]).optimize(detector.shapeSnake_[i]);
+			
 			Snake2DKeeper keeper = new Snake2DKeeper();
 			if (detector.isInteractive() && !hidden_) { // do not show the image in hidden mode
 				detector.structureProjection_.show();
@@ -28,17 +28,17 @@ package ch.epfl.lis.wingj.structure.drosophila.wingpouch;
 
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.util.Arrays;
 
 import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
 import ch.epfl.lis.wingj.structure.tools.ContourTracer;
 import ch.epfl.lis.wingj.structure.tools.Dilation;
+import ch.epfl.lis.wingj.utilities.PixelBufferPool;
 
 import ch.epfl.lis.wingj.structure.Compartment;
 
 import ij.gui.ShapeRoi;
-import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 /** 
@@ -60,6 +60,88 @@ public class WPouchContourDetection extends StructureDetectionModule {
 	// ============================================================================
 	// PRIVATE METHODS
 	
+	/** Sets to 255 the pixels of the binary mask which are non-zero in the given mask located at the given bounds. */
+	private static void insertMask(byte[] mask, int width, int height, ImageProcessor roiMask, Rectangle bounds) {
+		
+		int xmin = Math.max(0, bounds.x);
+		int xmax = Math.min(width, bounds.x + bounds.width);
+		int ymin = Math.max(0, bounds.y);
+		int ymax = Math.min(height, bounds.y + bounds.height);
+		
+		if (roiMask == null) { // rectangular shape
+			for (int y = ymin; y < ymax; y++)
+				for (int x = xmin; x < xmax; x++)
+					mask[y*width + x] = (byte)255;
+			return;
+		}
+		
+		byte[] roiPixels = (byte[])roiMask.getPixels();
+		int roiWidth = roiMask.getWidth();
+		for (int y = ymin; y < ymax; y++) {
+			int roiOffset = (y - bounds.y)*roiWidth - bounds.x;
+			int offset = y*width;
+			for (int x = xmin; x < xmax; x++) {
+				if (roiPixels[roiOffset + x] != 0)
+					mask[offset + x] = (byte)255;
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Sets to 255 the pixels of the binary mask inside the given polygon. Only the rows
+	 * of the bounding box of the polygon are scanned. For each row, the pixels between
+	 * pairs of edge crossings are filled, which gives the same pixels as testing each
+	 * pixel with Polygon.contains(x, y) (even-odd rule, insideness of AWT shapes).
+	 */
+	private static void fillPolygon(byte[] mask, int width, int height, Polygon polygon) {
+		
+		int n = polygon.npoints;
+		if (n < 3)
+			return;
+		
+		Rectangle bounds = polygon.getBounds();
+		int ymin = Math.max(0, bounds.y);
+		int ymax = Math.min(height, bounds.y + bounds.height);
+		int[] crossings = new int[n];
+		
+		for (int y = ymin; y < ymax; y++) {
+			// pixel x is on the left of the crossing of an edge iff x < crossing
+			int numCrossings = 0;
+			int lastx = polygon.xpoints[n-1];
+			int lasty = polygon.ypoints[n-1];
+			for (int i = 0; i < n; i++) {
+				int curx = polygon.xpoints[i];
+				int cury = polygon.ypoints[i];
+				if (cury != lasty && y >= Math.min(cury, lasty) && y < Math.max(cury, lasty)) {
+					double e;
+					int x0;
+					if (cury < lasty) {
+						e = (double)(y - cury) / (lasty - cury) * (lastx - curx);
+						x0 = curx;
+					} else {
+						e = (double)(y - lasty) / (lasty - cury) * (lastx - curx);
+						x0 = lastx;
+					}
+					crossings[numCrossings++] = x0 + (int)Math.ceil(e);
+				}
+				lastx = curx;
+				lasty = cury;
+			}
+			Arrays.sort(crossings, 0, numCrossings);
+			
+			// inside if the number of crossings on the right is odd
+			int offset = y*width;
+			for (int k = 0; k+1 < numCrossings; k += 2) {
+				int xstart = Math.max(0, crossings[k]);
+				int xend = Math.min(width, crossings[k+1]);
+				for (int x = xstart; x < xend; x++)
+					mask[offset + x] = (byte)255;
+			}
+		}
+	}
+	
 	/** Computes the internal contour of the wing pouch. */
 	private void detectWPouchContour() throws Exception {
 		
@@ -69,35 +151,38 @@ public class WPouchContourDetection extends StructureDetectionModule {
 		// compute the hull from the four compartments returned by the kite snake
 		ShapeRoi allCompartments = snake.getAllCompartmentsAsShape();
 		
-		Rectangle rect = allCompartments.getBounds();
-		ByteProcessor totalRegions = new ByteProcessor(detector.structureProjection_.getWidth(), detector.structureProjection_.getHeight());
-   		ImageProcessor mask = allCompartments.getMask();
-   		totalRegions.insert(mask, rect.x, rect.y);
-   		FloatProcessor regionsCorrectSize = (FloatProcessor) totalRegions.duplicate().convertToFloat();
+		int width = detector.structureProjection_.getWidth();
+		int height = detector.structureProjection_.getHeight();
+		PixelBufferPool pool = PixelBufferPool.getInstance();
+		byte[] regions = pool.acquireByteBuffer(width*height, true);
+		Compartment internalBoundary = null;
+		try {
+			Rectangle bounds = allCompartments.getBounds();
+			insertMask(regions, width, height, allCompartments.getMask(), bounds);
 		
-		Polygon regionConnection = new Polygon();
-		for(int i = 0; i < 4; i++)
-			regionConnection.addPoint((int)Math.round(snake.getInitialCompartment(i).centroid().x), (int)Math.round(snake.getInitialCompartment(i).centroid().y));
+			Polygon regionConnection = new Polygon();
+			for(int i = 0; i < 4; i++)
+				regionConnection.addPoint((int)Math.round(snake.getInitialCompartment(i).centroid().x), (int)Math.round(snake.getInitialCompartment(i).centroid().y));
 		
-		// connects the four compartments to generate a four-leaf clover
-   		for (int i = 0; i < totalRegions.getWidth(); i++) {
-   			for (int j = 0; j < totalRegions.getHeight(); j++) {
-   				if(regionConnection.contains(i, j)) {
-   					regionsCorrectSize.putPixelValue(i, j, 255);
-   				}
-   			}
-   		}
+			// connects the four compartments to generate a four-leaf clover
+			fillPolygon(regions, width, height, regionConnection);
+			bounds.add(regionConnection.getBounds());
    		
-   		// dilates to compensate the gap between the outer boundary model and the effective contour
-   		// of the wing pouch
-   		FloatProcessor dilated = Dilation.dilate(regionsCorrectSize, (int)WJSettings.getInstance().getOuterBoundaryExpansion());
+   			// dilates to compensate the gap between the outer boundary model and the effective contour
+   			// of the wing pouch
+   			int expansion = (int)WJSettings.getInstance().getOuterBoundaryExpansion();
+   			Dilation.dilate(regions, width, height, expansion);
+   			bounds.grow(Math.max(0, expansion), Math.max(0, expansion));
 
-   		// get the contour of the binary shape
-   		ContourTracer tracer = new ContourTracer((float[])dilated.getPixels(), dilated.getWidth(), dilated.getHeight());
-   		tracer.trace();
+   			// get the contour of the binary shape
+   			ContourTracer tracer = new ContourTracer(regions, width, height);
+   			tracer.trace(bounds);
+   			internalBoundary = new Compartment("", tracer.getTrace());
+		} finally {
+			pool.release(regions);
+		}
    		
-   		Compartment internalBoundary = new Compartment("", tracer.getTrace());
-   		snake.setInitialContour(internalBoundary.createConvexHull());
+		snake.setInitialContour(internalBoundary.createConvexHull());
 	}
 	
 	// ============================================================================
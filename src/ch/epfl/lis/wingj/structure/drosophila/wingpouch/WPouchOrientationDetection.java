@@ -28,10 +28,9 @@ package ch.epfl.lis.wingj.structure.drosophila.wingpouch;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 
+import ch.epfl.lis.wingj.WJLog;
 import ch.epfl.lis.wingj.WJMessage;
 import ch.epfl.lis.wingj.WJSettings;
 import ch.epfl.lis.wingj.structure.StructureDetectionModule;
@@ -59,6 +58,15 @@ public class WPouchOrientationDetection extends StructureDetectionModule {
 	/** Wing pouch contour. */
 	protected Compartment contour_ = null;
 	
+	/** Index of the D half-axis. */
+	private static final int AXIS_D = 0;
+	/** Index of the A half-axis. */
+	private static final int AXIS_A = 1;
+	/** Index of the V half-axis. */
+	private static final int AXIS_V = 2;
+	/** Index of the P half-axis. */
+	private static final int AXIS_P = 3;
+	
 	// ============================================================================
 	// PUBLIC METHODS
 	
@@ -411,13 +419,13 @@ public class WPouchOrientationDetection extends StructureDetectionModule {
    		Point2D.Double A = dv.getFirstPoint();
    		Point2D.Double P = dv.getLastPoint();
    		
-   		WJSettings.log("Point D: " + D);
-   		WJSettings.log("Point V: " + V);
-   		WJSettings.log("Point A: " + A);
-   		WJSettings.log("Point P: " + P);
+   		WJLog.debug("Point D: {}", D);
+   		WJLog.debug("Point V: {}", V);
+   		WJLog.debug("Point A: {}", A);
+   		WJLog.debug("Point P: {}", P);
    		
-   		WJSettings.log("Wing disc center: " + structure.discCenter_);
-   		WJSettings.log("Wing pouch center: " + M);
+   		WJLog.debug("Wing disc center: {}", structure.discCenter_);
+   		WJLog.debug("Wing pouch center: {}", M);
    		
    		// Before going further, it is important for the following algorithm that
    		// the compartments listed in C are in a circular order and not in a Z order.
@@ -431,111 +439,141 @@ public class WPouchOrientationDetection extends StructureDetectionModule {
    		centroids.add(C.get(2).centroid());
    		centroids.add(C.get(3).centroid());
    		
-   		for (int i = 0; i < centroids.size(); i++)
-   			WJSettings.log("Compartment " + i + " centroid: " + centroids.get(i));
-   		
-   		// Construct segments
-   		Segment DM = new Segment(D, M);
-   		Segment VM = new Segment(V, M);
-   		Segment AM = new Segment(A, M);
-   		Segment PM = new Segment(P, M);
-   		
-   		int N = C.size();   		
-   		// Find compartment DA
-   		for (int i = 0; i < N; i++) {
-   			Segment s1 = new Segment(centroids.get(i), centroids.get((i+1)%N));
-   			Segment s2 = new Segment(centroids.get((i+1)%N), centroids.get((i+2)%N));
-   			
-   			if ((AM.intersection(s1) != null && DM.intersection(s2) != null) || (AM.intersection(s2) != null && DM.intersection(s1) != null)) {
-//   				WJSettings.log("DA compartment found (compartment " + i + ")");
-   				compartments.add(C.get((i+1)%N));
-   				break;
-   			}
+   		if (WJLog.isEnabled(WJLog.Level.DEBUG)) {
+   			for (int i = 0; i < centroids.size(); i++)
+   				WJLog.debug("Compartment {} centroid: {}", i, centroids.get(i));
    		}
    		
-   		// Find compartment DP
-   		for (int i = 0; i < N; i++) {
-   			Segment s1 = new Segment(centroids.get(i), centroids.get((i+1)%N));
-   			Segment s2 = new Segment(centroids.get((i+1)%N), centroids.get((i+2)%N));
-   			
-   			if ((DM.intersection(s1) != null && PM.intersection(s2) != null) || (DM.intersection(s2) != null && PM.intersection(s1) != null)) {
-//   				WJSettings.log("DP compartment found (compartment " + i + ")");
-   				compartments.add(C.get((i+1)%N));
-   				break;
-   			}
-   		}
+   		// Angles of the four half-axes seen from the center of the wing pouch
+   		double[] axisAngles = new double[4];
+   		axisAngles[AXIS_D] = angle(M, D);
+   		axisAngles[AXIS_A] = angle(M, A);
+   		axisAngles[AXIS_V] = angle(M, V);
+   		axisAngles[AXIS_P] = angle(M, P);
    		
-   		// Find compartment VA
-   		for (int i = 0; i < N; i++) {
-   			Segment s1 = new Segment(centroids.get(i), centroids.get((i+1)%N));
-   			Segment s2 = new Segment(centroids.get((i+1)%N), centroids.get((i+2)%N));
-   			
-   			if ((VM.intersection(s1) != null && AM.intersection(s2) != null) || (VM.intersection(s2) != null && AM.intersection(s1) != null)) {
-//   				WJSettings.log("VA compartment found (compartment " + i + ")");
-   				compartments.add(C.get((i+1)%N));
-   				break;
+   		// Each compartment is in the angular sector delimited by one half-axis of the
+   		// A/P boundary (D or V) and one half-axis of the D/V boundary (A or P)
+   		int N = C.size();
+   		Compartment[] identified = new Compartment[N]; // DA, DP, VA, VP
+   		boolean success = true;
+   		for (int i = 0; i < N && success; i++) {
+   			double a = angle(M, centroids.get(i));
+   			int lower = -1; // first half-axis found clockwise
+   			int upper = -1; // first half-axis found counterclockwise
+   			double lowerDistance = Double.MAX_VALUE;
+   			double upperDistance = Double.MAX_VALUE;
+   			for (int k = 0; k < 4; k++) {
+   				double d = modTwoPi(a - axisAngles[k]);
+   				if (d < lowerDistance) {
+   					lowerDistance = d;
+   					lower = k;
+   				}
+   				d = modTwoPi(axisAngles[k] - a);
+   				if (d < upperDistance) {
+   					upperDistance = d;
+   					upper = k;
+   				}
    			}
+   			int quadrant = quadrant(lower, upper);
+   			if (quadrant < 0 || identified[quadrant] != null)
+   				success = false;
+   			else
+   				identified[quadrant] = C.get(i);
    		}
    		
-   		// Find compartment VP
-   		for (int i = 0; i < N; i++) {
-   			Segment s1 = new Segment(centroids.get(i), centroids.get((i+1)%N));
-   			Segment s2 = new Segment(centroids.get((i+1)%N), centroids.get((i+2)%N));
-   			
-   			if ((PM.intersection(s1) != null && VM.intersection(s2) != null) || (PM.intersection(s2) != null && VM.intersection(s1) != null)) {
-//   				WJSettings.log("VP compartment found (compartment " + i + ")");
-   				compartments.add(C.get((i+1)%N));
-   				break;
-   			}
-   		}
-   		
-   		// check that compartments contains four compartments
-   		if (compartments.size() != N) {
+   		if (success) {
+   			for (int i = 0; i < N; i++)
+   				compartments.add(identified[i]);
+   		} else {
    			WJMessage.showMessage("Unable to find the identity of the compartments.\n" +
    								  "Please check the orientation of the structure model.", WJMessage.WARNING_PREFIX);
-   			// empty the identified compartments and put all the compartment together
-   			compartments.clear();
+   			// put all the compartment together
    			compartments.addAll(C);
    		}
    		
-   		// check that compartments contains unique compartment
-   		outerloop : for (int i = 0; i < N; i++) {
-   			for (int j = i; j < N; j++) {
-   				if (i != j && compartments.get(i) == compartments.get(j)) {
-   		   			WJMessage.showMessage("Unable to find the identity of the compartments.\n" +
-								  		  "Please check the orientation of the structure model.", WJMessage.WARNING_PREFIX);
-   		   			break outerloop;
-   				}	
-   			}
-   		}
-   		
    		return compartments;
    	}
 	
    	// ----------------------------------------------------------------------------
    	
    	/**
-   	 * Sets the given list of compartment in circular order. If the compartments are not in circular order,
-   	 * the list is randomly shuffled until a circular order is found. There is tiny possibility that
-   	 * the code stays stuck there that's why I'd prefer a deterministic approach. For now, it should
-   	 * be good enough.
+   	 * Sets the given list of compartment in circular order by sorting the compartments
+   	 * by the angle of their centroid around the mean of the centroids. The result is
+   	 * deterministic and obtained in a single pass.
    	 */
    	private void setCompartmentsInCircularOrder(List<Compartment> compartments) throws Exception {
    		
-   		int maxIters = 1000;
-   		int iter = 0;
-   		while (!compartmentsInCircularOrder(compartments) && iter < maxIters) {
-	   		Random rand = new Random();
-	   		Collections.shuffle(compartments, rand);
-	   		iter++;
+   		int n = compartments.size();
+   		Compartment[] sorted = new Compartment[n];
+   		Point2D.Double[] centroids = new Point2D.Double[n];
+   		Point2D.Double c = new Point2D.Double(0, 0);
+   		for (int i = 0; i < n; i++) {
+   			sorted[i] = compartments.get(i);
+   			centroids[i] = sorted[i].centroid();
+   			c.x += centroids[i].x / n;
+   			c.y += centroids[i].y / n;
    		}
    		
-   		if (iter >= maxIters)
+   		// insertion sort by angle around c
+   		double[] angles = new double[n];
+   		for (int i = 0; i < n; i++) {
+   			double a = angle(c, centroids[i]);
+   			Compartment compartment = sorted[i];
+   			int j = i - 1;
+   			while (j >= 0 && angles[j] > a) {
+   				angles[j+1] = angles[j];
+   				sorted[j+1] = sorted[j];
+   				j--;
+   			}
+   			angles[j+1] = a;
+   			sorted[j+1] = compartment;
+   		}
+   		for (int i = 0; i < n; i++)
+   			compartments.set(i, sorted[i]);
+   		
+   		// the centroids must form a convex quadrilateral
+   		if (!compartmentsInCircularOrder(compartments))
    			throw new Exception("ERROR: Unable to list the compartments in circular order.");
    	}
    	
    	// ----------------------------------------------------------------------------
    	
+   	/** Returns the angle in [0,2*PI) of the vector going from c to p. */
+   	private static double angle(Point2D.Double c, Point2D.Double p) {
+   		
+   		return modTwoPi(Math.atan2(p.y - c.y, p.x - c.x));
+   	}
+   	
+   	// ----------------------------------------------------------------------------
+   	
+   	/** Returns the given angle in [0,2*PI). */
+   	private static double modTwoPi(double a) {
+   		
+   		a %= 2*Math.PI;
+   		return (a < 0) ? a + 2*Math.PI : a;
+   	}
+   	
+   	// ----------------------------------------------------------------------------
+   	
+   	/**
+   	 * Returns the index of the compartment (DA=0, DP=1, VA=2, VP=3) whose angular sector
+   	 * is delimited by the two given half-axes, or -1 if both half-axes belong to the
+   	 * same boundary.
+   	 */
+   	private static int quadrant(int axis1, int axis2) {
+   		
+   		boolean apAxis1 = (axis1 == AXIS_D || axis1 == AXIS_V);
+   		boolean apAxis2 = (axis2 == AXIS_D || axis2 == AXIS_V);
+   		if (apAxis1 == apAxis2)
+   			return -1;
+   		
+   		int ap = apAxis1 ? axis1 : axis2;
+   		int dv = apAxis1 ? axis2 : axis1;
+   		return ((ap == AXIS_D) ? 0 : 2) + ((dv == AXIS_A) ? 0 : 1);
+   	}
+   	
+   	// ----------------------------------------------------------------------------
+   	
    	/**
    	 * Tests if the compartments are listed in circular order. To do so, I take the
    	 * centroid of each compartment (C0, C1, C2, and C3). If the segments (C0,C2) and 
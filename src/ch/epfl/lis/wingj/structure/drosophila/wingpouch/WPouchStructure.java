@@ -45,6 +45,7 @@ import ch.epfl.lis.wingj.structure.Compartment;
 import ch.epfl.lis.wingj.structure.Overlay;
 import ch.epfl.lis.wingj.structure.Structure;
 import ch.epfl.lis.wingj.structure.StructureDataset;
+import ch.epfl.lis.wingj.structure.StructureRenderer;
 import ch.epfl.lis.wingj.structure.StructureSnake;
 
 /** 
@@ -712,6 +713,7 @@ public class WPouchStructure extends Structure {
 			va_.xpoints[i] = (float) (2.0 * center_.x - va_.xpoints[i]);
 		for(int i=0; i<vp_.npoints; i++)
 			vp_.xpoints[i] = (float) (2.0 * center_.x - vp_.xpoints[i]);
+		invalidateCompartmentsGeometry();
 		snake_.flipHorizontally(center_);
 	}
 	
@@ -739,6 +741,7 @@ public class WPouchStructure extends Structure {
 			va_.ypoints[i] = (float) (2.0 * center_.y - va_.ypoints[i]);
 		for(int i=0; i<vp_.npoints; i++)
 			vp_.ypoints[i] = (float) (2.0 * center_.y - vp_.ypoints[i]);	
+		invalidateCompartmentsGeometry();
 		snake_.flipVertically(center_);
 	}
 
@@ -795,6 +798,7 @@ public class WPouchStructure extends Structure {
 			vp_.xpoints[i] = (float) xr;
 			vp_.ypoints[i] = (float) yr;
 		}
+		invalidateCompartmentsGeometry();
 		snake_.rotate(center_, angle);
 	}
 
@@ -1277,6 +1281,15 @@ public class WPouchStructure extends Structure {
 	
 	// ----------------------------------------------------------------------------
 	
+	/** Returns a WPouchStructureRenderer for painting the structure onto an image buffer. */
+	@Override
+	public StructureRenderer getStructureRenderer() {
+		
+		return new WPouchStructureRenderer(this);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
 	/** Prints the points D, V, A, and P to the standard output. */
 	public void printDVAP() throws Exception {
 		
@@ -1302,6 +1315,24 @@ public class WPouchStructure extends Structure {
 	// ============================================================================
 	// PRIVATE METHODS
 
+	/** Discards the cached geometry of the structure, its compartments and its boundaries after direct writes to their points. */
+	private void invalidateCompartmentsGeometry() {
+		
+		invalidateGeometry();
+		Compartment[] compartments = {da_, dp_, va_, vp_};
+		for (Compartment c : compartments) {
+			if (c != null)
+				c.invalidateGeometry();
+		}
+		Boundary[] boundaries = {dv_, ap_};
+		for (Boundary b : boundaries) {
+			if (b != null)
+				b.invalidateParametrization();
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+
 	/** 
 	 * Computes the disparity in alignment of between the current structure and a
 	 * rotates structure. Both structures need to be in canonical orientation.
@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.structure.drosophila.wingpouch;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+
+import ch.epfl.lis.wingj.WJSettings;
+import ch.epfl.lis.wingj.structure.Structure;
+import ch.epfl.lis.wingj.structure.StructureRenderer;
+
+/** 
+ * Paints the wing pouch structure (contour, D/V and A/P boundaries and compartment
+ * labels) directly onto an image buffer.
+ * <p>
+ * Also used for the embryo structure which extends WPouchStructure.
+ * 
+ * @see ch.epfl.lis.wingj.structure.StructureRenderer
+ * @see ch.epfl.lis.wingj.structure.drosophila.wingpouch.WPouchOverlay
+ * 
+ * @version October 19, 2026
+ * 
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class WPouchStructureRenderer extends StructureRenderer {
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Paints the given label centered on the given point. */
+	private void paintLabel(Graphics2D g, FontMetrics fm, String label, Point2D.Double p, Rectangle offset, double magnification) {
+		
+		g.drawString(label, (int)(magnification*(p.x-offset.x))-fm.stringWidth(label)/2, (int)(magnification*(p.y-offset.y))+fm.getAscent()/3);
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor. */
+	public WPouchStructureRenderer(Structure structure) {
+
+		super(structure);
+	}
+
+	// ----------------------------------------------------------------------------
+	
+	/** Paints the contour and the D/V and A/P boundaries of the wing pouch. */
+	@Override
+	public void paintStructure(Graphics2D g, Rectangle offset, double magnification) {
+		
+		WJSettings settings = WJSettings.getInstance();
+		WPouchStructure structure = (WPouchStructure)structure_;
+		
+		// set color and pen stroke
+		g.setColor(settings.getDefaultColor());
+		g.setStroke(new BasicStroke(settings.getDefaultStrokeWidth()));
+		
+		// wing pouch contour
+		g.drawPolygon(magnifyPolygon(structure, offset, magnification));
+		// D/V and A/P boundaries
+		Polygon b = magnifyPolygon(structure.getDVBoundary(), offset, magnification);
+		g.drawPolyline(b.xpoints, b.ypoints, b.npoints);
+		b = magnifyPolygon(structure.getAPBoundary(), offset, magnification);
+		g.drawPolyline(b.xpoints, b.ypoints, b.npoints);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Paints the name of the compartments around the location of their center of mass. */
+	@Override
+	public void paintInformation(Graphics2D g, Rectangle offset, double magnification) {
+		
+		WJSettings settings = WJSettings.getInstance();
+		WPouchStructure s = (WPouchStructure)structure_;
+		
+		// set font
+		g.setFont(new Font(null, Font.PLAIN, (int)Math.round(settings.getStructureOverlayFontSizeCoeff()*magnification)));
+		g.setColor(settings.getDefaultColor());
+		FontMetrics fm = g.getFontMetrics();
+		
+		// paint
+		paintLabel(g, fm, "DA", s.getDACompartment().centroid(), offset, magnification);
+		paintLabel(g, fm, "DP", s.getDPCompartment().centroid(), offset, magnification);
+		paintLabel(g, fm, "VA", s.getVACompartment().centroid(), offset, magnification);
+		paintLabel(g, fm, "VP", s.getVPCompartment().centroid(), offset, magnification);
+	}
+}
@@ -31,12 +31,10 @@ import ij.process.FloatPolygon;
 
 import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 
-import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-
 import big.ij.snake2D.Snake2DNode;
 import big.ij.snake2D.Snake2DScale;
 import ch.epfl.lis.wingj.WJSettings;
@@ -44,6 +42,7 @@ import ch.epfl.lis.wingj.structure.Boundary;
 import ch.epfl.lis.wingj.structure.Compartment;
 import ch.epfl.lis.wingj.structure.StructureSnake;
 import ch.epfl.lis.wingj.structure.geometry.Segment;
+import ch.epfl.lis.wingj.structure.tools.BSplinesUtils;
 import ch.epfl.lis.wingj.utilities.Filters;
 import ch.epfl.lis.wingj.utilities.MathUtils;
 
@@ -76,6 +75,19 @@ public class WPouchStructureSnake extends StructureSnake {
 	/** LUT with the samples of the y coordinates of the inner snake boundary. */
 	protected double[][] yInnerPosSkin_ = null;
 	
+	/** LUTs with the weights of y_q, y_q+1, M_q and M_q+1 in the axis samples q*R+r (natural cubic splines). */
+	private double[][] axisSplineWeights_ = null;
+	/** Modified upper diagonal of the tridiagonal system giving the second derivatives M_q (Thomas algorithm). */
+	private double[] axisSplineUpperDiagonal_ = null;
+	/** Anchor points (x coordinates) of each axis when its samples have been computed. */
+	private double[][] xAxisAnchors_ = null;
+	/** Anchor points (y coordinates) of each axis when its samples have been computed. */
+	private double[][] yAxisAnchors_ = null;
+	/** Second derivatives of the axis spline (buffer). */
+	private double[] axisSecondDerivatives_ = null;
+	/** Inner skin LUT for which the axis caches above are valid. */
+	private double[][] axisCachedSkin_ = null;
+	
 	/** Total number of control points for the outer contour. */
 	private int M_ = 0;
 	/** Product of M and R. */
@@ -213,12 +225,8 @@ public class WPouchStructureSnake extends StructureSnake {
 			xInnerPosSkin_ = new double[4][(M0_+1)*R_];
 			yInnerPosSkin_ = new double[4][(M0_+1)*R_];
 
-			si_ = new SplineInterpolator();
-
 			eSplineFunc_ = new double[NR_];
-			for (int i=0; i<NR_; i++){
-				eSplineFunc_[i] = ESpline4((double)i/(double)R_);
-			}
+			BSplinesUtils.sampleESpline4(PI2M_, R_, eSplineFunc_);
 
 			allNodes_ = new Snake2DNode[8*M0_-2];
 			innerNodes_ = new Snake2DNode[4][M0_-1];
@@ -808,9 +816,7 @@ public class WPouchStructureSnake extends StructureSnake {
 				yInnerPosSkin_ = new double[4][(M0_+1)*R_];
 
 				eSplineFunc_ = new double[NR_];
-				for (int i=0; i<NR_; i++){
-					eSplineFunc_[i] = ESpline4((double)i/(double)R_);
-				}
+				BSplinesUtils.sampleESpline4(PI2M_, R_, eSplineFunc_);
 
 				allNodes_ = new Snake2DNode[8*M0_-2];
 				innerNodes_ = new Snake2DNode[4][M0_-1];
@@ -1059,64 +1065,134 @@ public class WPouchStructureSnake extends StructureSnake {
 
 	// ----------------------------------------------------------------------------
 
-	/** Computes and stores in a LUT the samples of the trace of the outside contour of the snake. */
+	/**
+	 * Computes and stores in a LUT the samples of the trace of the outside contour of the snake.
+	 * <p>
+	 * The sample i = q*R+r only depends on the N control points q, q-1, ..., q-N+1
+	 * (modulo M) which are weighted by the values eSplineFunc_[r+j*R], j = 0, ..., N-1.
+	 */
 	private void computeBoundarySnakeSkin (){
 
-		int index;
+		int i, k;
 		double aux, xPosVal, yPosVal;
-		for(int i=0; i<MR_; i++){
-			xPosVal = 0.0;
-			yPosVal = 0.0;
-			for(int k=0; k<M_; k++){
-				index = (i-k*R_)%(MR_);
-				if (index<0) index += MR_;
-
-				if(index>=NR_){
-					continue;
-				}else{
-					aux = eSplineFunc_[index];
+		for(int q=0; q<M_; q++){
+			for(int r=0; r<R_; r++){
+				xPosVal = 0.0;
+				yPosVal = 0.0;
+				for(int j=0; j<N_; j++){
+					k = q-j;
+					if (k<0) k += M_; // N <= M
+					aux = eSplineFunc_[r+j*R_];
+					xPosVal += outerNodes_[k].x*aux;
+					yPosVal += outerNodes_[k].y*aux;
 				}
-				xPosVal += outerNodes_[k].x*aux;
-				yPosVal += outerNodes_[k].y*aux;
+				i = q*R_+r;
+				xOuterPosSkin_[i] = xPosVal;
+				yOuterPosSkin_[i] = yPosVal;
 			}
-			xOuterPosSkin_[i] = xPosVal;
-			yOuterPosSkin_[i] = yPosVal;
 		}
 	}
 
 	// ----------------------------------------------------------------------------
 
-	/** Computes the trace of one axis of the wing pouch. */
-	private Point2D.Double[] computeAxisTrace(int nPoints, Snake2DNode wPouchCenterAnchorPoint, Snake2DNode[] intermediateAnchorPoints, Point2D.Double externalContourAnchorPoint) throws Exception {
-
-		Point2D.Double[] anchorPoints = new Point2D.Double[M0_+1];
-		anchorPoints[0] = externalContourAnchorPoint;
-		for(int i=1; i<M0_; i++){
-			anchorPoints[i] = intermediateAnchorPoints[i-1];
+	/**
+	 * Prepares the LUTs used to compute the natural cubic splines of the axes.
+	 * <p>
+	 * The M0+1 anchor points of an axis are interpolated at t = 0, 1, ..., M0. On the
+	 * segment [q,q+1] and with u = t-q, the spline is
+	 * S(t) = (1-u)*y_q + u*y_q+1 + ((1-u)^3-(1-u))/6*M_q + (u^3-u)/6*M_q+1
+	 * where the second derivatives M_q are solution of the tridiagonal system
+	 * M_q-1 + 4*M_q + M_q+1 = 6*(y_q+1 - 2*y_q + y_q-1) with M_0 = M_M0 = 0.
+	 */
+	private void initializeAxisSplines() {
+		
+		axisSplineWeights_ = new double[4][R_];
+		for(int r=0; r<R_; r++){
+			double u = (double)r/(double)R_;
+			double v = 1.0-u;
+			axisSplineWeights_[0][r] = v;
+			axisSplineWeights_[1][r] = u;
+			axisSplineWeights_[2][r] = (v*v*v-v)/6.0;
+			axisSplineWeights_[3][r] = (u*u*u-u)/6.0;
 		}
-		anchorPoints[M0_] = wPouchCenterAnchorPoint;
-
-		PolynomialSplineFunction[] psf = naturalCubicSplineInterpolator(anchorPoints);
-
-		Point2D.Double[] axis = new Point2D.Double[nPoints];
-		for(int i=0; i<nPoints; i++){
-			axis[i] = new Point2D.Double(psf[0].value((double)i/(double)R_), psf[1].value((double)i/(double)R_));
+		
+		// forward elimination coefficients, which only depend on M0
+		axisSplineUpperDiagonal_ = new double[M0_+1];
+		for(int q=1; q<M0_; q++)
+			axisSplineUpperDiagonal_[q] = 1.0/(4.0-axisSplineUpperDiagonal_[q-1]);
+		
+		axisSecondDerivatives_ = new double[M0_+1];
+		xAxisAnchors_ = new double[4][M0_+1];
+		yAxisAnchors_ = new double[4][M0_+1];
+		for(int axis=0; axis<4; axis++){
+			Arrays.fill(xAxisAnchors_[axis], Double.NaN); // forces the computation of the samples
+			Arrays.fill(yAxisAnchors_[axis], Double.NaN);
+		}
+		axisCachedSkin_ = xInnerPosSkin_;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Computes the M0*R samples of the natural cubic spline interpolating the given anchor values. */
+	private void computeAxisTrace(double[] anchors, double[] samples) {
+		
+		double[] m = axisSecondDerivatives_;
+		double[] c = axisSplineUpperDiagonal_;
+		
+		// solves the tridiagonal system (Thomas algorithm)
+		m[0] = 0.0;
+		m[M0_] = 0.0;
+		for(int q=1; q<M0_; q++)
+			m[q] = (6.0*(anchors[q+1]-2.0*anchors[q]+anchors[q-1]) - m[q-1])*c[q];
+		for(int q=M0_-2; q>=1; q--)
+			m[q] -= c[q]*m[q+1];
+		
+		double[] a = axisSplineWeights_[0];
+		double[] b = axisSplineWeights_[1];
+		double[] cm = axisSplineWeights_[2];
+		double[] dm = axisSplineWeights_[3];
+		for(int q=0; q<M0_; q++){
+			double y0 = anchors[q];
+			double y1 = anchors[q+1];
+			double m0 = m[q];
+			double m1 = m[q+1];
+			int offset = q*R_;
+			for(int r=0; r<R_; r++)
+				samples[offset+r] = a[r]*y0 + b[r]*y1 + cm[r]*m0 + dm[r]*m1;
 		}
-		return axis;
 	}
 
 	// ----------------------------------------------------------------------------
 
-	/** Computes and stores in a LUT the samples of the trace of the central cross of the snake. */
+	/**
+	 * Computes and stores in a LUT the samples of the trace of the central cross of the snake.
+	 * <p>
+	 * The samples of an axis are only recomputed if one of its anchor points moved.
+	 */
 	private void computeAxesSnakeSkin () throws Exception {
 
+		if (axisSplineWeights_ == null || axisSplineWeights_[0].length != R_ || axisSplineUpperDiagonal_.length != M0_+1 || axisCachedSkin_ != xInnerPosSkin_)
+			initializeAxisSplines();
+		
 		for(int axis=0; axis<4; axis++){
-			Point2D.Double[] axisTrace = computeAxisTrace(M0_*R_, wPouchCenterNode_, innerNodes_[axis], getAnchorPointOnContour(axis));
-
-			for(int i=0; i<M0_*R_; i++){
-				xInnerPosSkin_[axis][i] = axisTrace[i].x;
-				yInnerPosSkin_[axis][i] = axisTrace[i].y;
+			// anchor points from the contour to the center of the wing pouch
+			Snake2DNode contourAnchorPoint = getAnchorPointOnContour(axis);
+			double[] x = xAxisAnchors_[axis];
+			double[] y = yAxisAnchors_[axis];
+			boolean changed = false;
+			for(int i=0; i<=M0_; i++){
+				Point2D.Double p = (i == 0 ? contourAnchorPoint : (i == M0_ ? wPouchCenterNode_ : innerNodes_[axis][i-1]));
+				if (p.x != x[i] || p.y != y[i]) {
+					x[i] = p.x;
+					y[i] = p.y;
+					changed = true;
+				}
 			}
+			if (!changed)
+				continue;
+			
+			computeAxisTrace(x, xInnerPosSkin_[axis]);
+			computeAxisTrace(y, yInnerPosSkin_[axis]);
 		}
 	}
 
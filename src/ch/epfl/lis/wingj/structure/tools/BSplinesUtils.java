@@ -27,8 +27,16 @@ package ch.epfl.lis.wingj.structure.tools;
 
 /**
  * Utilities for exponential B-splines.
+ * <p>
+ * The batch methods sample[...]() and autocorrelation[...]() fill arrays with the
+ * values of the functions on a uniform grid t = i/R. The grid is traversed piece by
+ * piece of the support so that no branch is evaluated per sample. Because t-k has
+ * the same values u = j/R (j = 0, ..., R-1) on each piece [k,k+1), the sines and
+ * cosines are only evaluated R times and the terms in alpha*(t-k-1) are obtained
+ * with the angle addition formulas. They are used to build the look-up tables of
+ * the snakes.
  * 
- * @version March 5, 2013
+ * @version October 19, 2026
  * 
  * @author Ricard Delgado-Gonzalo (ricard.delgado@gmail.com)
  */
@@ -46,6 +54,28 @@ public class BSplinesUtils {
 	 */
 	public static int ESPLINE4SUPPORT = 4;
 
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Computes sin(alpha*u), cos(alpha*u), sin(alpha*(u-1)) and cos(alpha*(u-1))
+	 * for u = j/R, j = 0, ..., R-1.
+	 */
+	private static void sampleSinCos(double alpha, int R, double[] sinU, double[] cosU, double[] sinUm1, double[] cosUm1) {
+		
+		double cosAlpha = Math.cos(alpha);
+		double sinAlpha = Math.sin(alpha);
+		for (int j = 0; j < R; j++) {
+			double u = (double)j/(double)R;
+			double su = Math.sin(alpha*u);
+			double cu = Math.cos(alpha*u);
+			sinU[j] = su;
+			cosU[j] = cu;
+			sinUm1[j] = su*cosAlpha - cu*sinAlpha;
+			cosUm1[j] = cu*cosAlpha + su*sinAlpha;
+		}
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
 
@@ -238,4 +268,183 @@ public class BSplinesUtils {
 		}
 		return(value);
 	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the causal exponential B-Spline with parameters (0,-j alpha, j alpha)
+	 * at t = i/R into output[i]. Samples outside of the support are set to zero.
+	 */
+	public static void sampleESpline3(double alpha, int R, double[] output) {
+		
+		double[] sinU = new double[R];
+		double[] cosU = new double[R];
+		double[] sinUm1 = new double[R];
+		double[] cosUm1 = new double[R];
+		sampleSinCos(alpha, R, sinU, cosU, sinUm1, cosUm1);
+		
+		double cosAlpha2 = 2*Math.cos(alpha);
+		double norm = 1. / (2*(1-Math.cos(alpha))); // 1/(alpha^2*eta)
+		int numSamples = Math.min(output.length, ESPLINE3SUPPORT*R);
+		int i = 0;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (1 - cosU[j]) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (cosUm1[j] + cosU[j] - cosAlpha2) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (1 - cosUm1[j]) * norm;
+		for (; i < output.length; i++)
+			output[i] = 0.;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the causal exponential B-Spline with parameters (0, 0,-j alpha, j alpha)
+	 * at t = i/R into output[i]. Samples outside of the support are set to zero.
+	 */
+	public static void sampleESpline4(double alpha, int R, double[] output) {
+		
+		double[] sinU = new double[R];
+		double[] cosU = new double[R];
+		double[] sinUm1 = new double[R];
+		double[] cosUm1 = new double[R];
+		sampleSinCos(alpha, R, sinU, cosU, sinUm1, cosUm1);
+		
+		double cosAlpha = Math.cos(alpha);
+		double invAlpha = 1. / alpha;
+		double norm = 1. / (2*(1-cosAlpha)); // 1/(alpha^2*eta)
+		int numSamples = Math.min(output.length, ESPLINE4SUPPORT*R);
+		int i = 0;
+		for (int j = 0; j < R && i < numSamples; j++, i++) {
+			double t = (double)i/(double)R;
+			output[i] = (t - sinU[j]*invAlpha) * norm;
+		}
+		for (int j = 0; j < R && i < numSamples; j++, i++) {
+			double t = (double)i/(double)R;
+			output[i] = (2 - t + (2*sinU[j] + sinUm1[j])*invAlpha - 2*cosAlpha*t + 2*cosAlpha) * norm;
+		}
+		for (int j = 0; j < R && i < numSamples; j++, i++) {
+			double t = (double)i/(double)R;
+			output[i] = (t - 2 - 4*cosAlpha - (2*sinUm1[j] + sinU[j])*invAlpha + 2*cosAlpha*(t-1)) * norm;
+		}
+		for (int j = 0; j < R && i < numSamples; j++, i++) {
+			double t = (double)i/(double)R;
+			output[i] = (4 - t + sinUm1[j]*invAlpha) * norm;
+		}
+		for (; i < output.length; i++)
+			output[i] = 0.;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the derivative of the causal exponential B-Spline with parameters
+	 * (0,-j alpha, j alpha) at t = i/R into output[i].
+	 */
+	public static void sampleDerivativeESpline3(double alpha, int R, double[] output) {
+		
+		double[] sinU = new double[R];
+		double[] cosU = new double[R];
+		double[] sinUm1 = new double[R];
+		double[] cosUm1 = new double[R];
+		sampleSinCos(alpha, R, sinU, cosU, sinUm1, cosUm1);
+		
+		double norm = alpha / (2*(1-Math.cos(alpha))); // 1/(alpha*eta)
+		int numSamples = Math.min(output.length, ESPLINE3SUPPORT*R);
+		int i = 0;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = sinU[j] * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = -(sinUm1[j] + sinU[j]) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = sinUm1[j] * norm;
+		for (; i < output.length; i++)
+			output[i] = 0.;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the derivative of the causal exponential B-Spline with parameters
+	 * (0, 0,-j alpha, j alpha) at t = i/R into output[i].
+	 */
+	public static void sampleDerivativeESpline4(double alpha, int R, double[] output) {
+		
+		double[] sinU = new double[R];
+		double[] cosU = new double[R];
+		double[] sinUm1 = new double[R];
+		double[] cosUm1 = new double[R];
+		sampleSinCos(alpha, R, sinU, cosU, sinUm1, cosUm1);
+		
+		double cosAlpha2 = 2*Math.cos(alpha);
+		double norm = 1. / (2*(1-Math.cos(alpha))); // 1/(alpha^2*eta)
+		int numSamples = Math.min(output.length, ESPLINE4SUPPORT*R);
+		int i = 0;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (1 - cosU[j]) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (-1 + 2*cosU[j] + cosUm1[j] - cosAlpha2) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (1 - 2*cosUm1[j] + cosAlpha2 - cosU[j]) * norm;
+		for (int j = 0; j < R && i < numSamples; j++, i++)
+			output[i] = (-1 + cosUm1[j]) * norm;
+		for (; i < output.length; i++)
+			output[i] = 0.;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the autocorrelation of the exponential B-spline of order three at
+	 * l = -2, ..., 2 into output[l+2] (output must have a length of 5).
+	 */
+	public static void autocorrelationESpline3(double alpha, double[] output) {
+		
+		double PIM = 0.5 * alpha;
+		double M = Math.PI / PIM;
+		double c = Math.cos(PIM);
+		double sc = Math.sin(PIM) * c;
+		double c2 = c*c;
+		double c4 = c2*c2;
+		double den = M * (1.0 - 2.0*c2 + c4);
+		
+		double v2 = (1.0/8.0) * (Math.PI*sc - M + M*c2) / den;
+		double v1 = 0.25 * (Math.PI*sc + M - 3.0*M*c2 + 2.0*M*c4) / den;
+		output[0] = v2;
+		output[1] = -v1;
+		output[2] = 0.0;
+		output[3] = v1;
+		output[4] = -v2;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Samples the autocorrelation of the exponential B-spline of order four at
+	 * l = -3, ..., 3 into output[l+3] (output must have a length of 7).
+	 */
+	public static void autocorrelationESpline4(double alpha, double[] output) {
+		
+		double PIM = 0.5 * alpha;
+		double M = Math.PI / PIM;
+		double M2 = M*M;
+		double P2 = Math.PI*Math.PI;
+		double c = Math.cos(PIM);
+		double msc = M * Math.PI * Math.sin(PIM) * c;
+		double c2 = c*c;
+		double c4 = c2*c2;
+		double den = P2 * (1.0 - 2.0*c2 + c4);
+		
+		double v3 = (1.0/32.0) * (2.0*M2*c2 - 2.0*M2 + P2 + msc) / den;
+		double v2 = (1.0/8.0) * (-2.0*M2*c2 + 2.0*M2*c4 - P2 + 2.0*P2*c2 + msc) / den;
+		double v1 = (1.0/32.0) * (16.0*M2*c4 + 6.0*M2 + 16.0*P2*c4 - 22.0*M2*c2 + 5.0*msc + 5.0*P2 - 16.0*P2*c2) / den;
+		output[0] = -v3;
+		output[1] = v2;
+		output[2] = -v1;
+		output[3] = 0.0;
+		output[4] = v1;
+		output[5] = -v2;
+		output[6] = v3;
+	}
 }
@@ -30,9 +30,9 @@ import ij.process.FloatProcessor;
 
 import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 
 import ch.epfl.lis.wingj.structure.geometry.Segment;
-import ch.epfl.lis.wingj.utilities.Filters;
 
 import Jama.Matrix;
 import big.ij.snake2D.Snake2D;
@@ -77,6 +77,22 @@ public class CompartmentSnake implements Snake2D {
 	/** Vertical superior limit of the bounding box of the snake contour. */
 	private int yMaxSnakeContour_ = 0;
 	
+	// ----------------------------------------------------------------------------
+	// SEGMENT CACHE
+	// The R samples of the i-th segment of the contour only depend on the control
+	// points i, i-1, ..., i-N+1. When control points move, only the samples of the
+	// segments they support are computed again, and so are their contributions to
+	// the image energy.
+	
+	/** x coordinates of the control points for which the contour samples have been computed. */
+	private double[] xContourNodes_ = null;
+	/** y coordinates of the control points for which the contour samples have been computed. */
+	private double[] yContourNodes_ = null;
+	/** Contributions of the segments to the image energy (NaN if they must be computed). */
+	private double[] segmentImageEnergies_ = null;
+	/** Bounding boxes of the segments (xmin, xmax, ymin, ymax). */
+	private int[][] segmentBoundingBoxes_ = null;
+	
 	// ----------------------------------------------------------------------------
 	// SNAKE STATUS FIELDS
 
@@ -140,6 +156,18 @@ public class CompartmentSnake implements Snake2D {
 	private Matrix priorShapeOrthoProjectorMatrix_ = null;
 	/** LUT of the coefficient values. */
 	private double[][] vcArray_ = null;
+	/** Elements of the complementary orthogonal projector (symmetric). */
+	private double[][] orthoProjector_ = null;
+	/** x coordinates of the control points for which the shape residuals have been computed. */
+	private double[] xShapeNodes_ = null;
+	/** y coordinates of the control points for which the shape residuals have been computed. */
+	private double[] yShapeNodes_ = null;
+	/** x coordinates of the control points projected on the complementary space. */
+	private double[] xShapeResiduals_ = null;
+	/** y coordinates of the control points projected on the complementary space. */
+	private double[] yShapeResiduals_ = null;
+	/** Number of rank-one updates applied to the residuals since they have been computed from scratch. */
+	private int numShapeResidualsUpdates_ = -1;
 
 	// ----------------------------------------------------------------------------
 	// AUXILIARY FIELDS
@@ -153,9 +181,6 @@ public class CompartmentSnake implements Snake2D {
 	/** M*R. */
 	private int MR_ = 0;
 
-	/** Laplacian filter kennel. */
-	private static int LAPLACIAN_KERNEL [] = { 0,-1, 0, -1, 4,-1, 0,-1, 0};
-
 	// ============================================================================
 	// PUBLIC METHODS
 
@@ -190,28 +215,19 @@ public class CompartmentSnake implements Snake2D {
 		imageHeight_ = dilatedSkeleton.getHeight();
 		imageWidthMinusTwo_ = imageWidth_-2;
 		imageHeightMinusTwo_ = imageHeight_-2;
-		int size = imageWidth_*imageHeight_;
-
-		float[] dilatedSkeletonData = (float[])dilatedSkeleton.getPixels();
-		float[] mipData = (float[])mip.getPixels();
-		double[] combinedImageData = new double[size];
 
-		for(int i=0; i<size; i++){
-			combinedImageData[i] = (1-alpha)*dilatedSkeletonData[i]+alpha*mipData[i];
-		}
-
-		FloatProcessor laplacianProcessor = new FloatProcessor(imageWidth_, imageHeight_, combinedImageData);
-		laplacianProcessor.invert();
-		Filters.applyGaussianFilter(laplacianProcessor, sigma);
-
-		laplacianProcessor.convolve3x3(LAPLACIAN_KERNEL);
-		laplacianProcessor.resetMinAndMax();
-		laplacianProcessor.multiply(255.0 / Math.max(laplacianProcessor.getMax(), Math.abs(laplacianProcessor.getMin())));
-
-		filteredImage_ = (float[])laplacianProcessor.getPixels();
+		// shared with the other snakes computed on the same images (read-only)
+		float[][] laplacianImages = SnakeImageCache.getInstance().getLaplacianImages(dilatedSkeleton, mip, sigma, alpha, true);
+		filteredImage_ = laplacianImages[0];
+		preintegratedFilteredImage_ = laplacianImages[1];
 		xSnakeContour_ = new double[MR_];
 		ySnakeContour_ = new double[MR_];
 		xSnakeTangentVector_ = new double[MR_];
+		xContourNodes_ = new double[M_];
+		yContourNodes_ = new double[M_];
+		Arrays.fill(xContourNodes_, Double.NaN); // all the segments must be computed
+		segmentImageEnergies_ = new double[M_];
+		segmentBoundingBoxes_ = new int[M_][4];
 		buildLUT();
 		buildShapeProjectors();
 
@@ -412,30 +428,14 @@ public class CompartmentSnake implements Snake2D {
 	/** Creation of all LUT. */
 	private void buildLUT (){
 
-		preintegratedFilteredImage_ = new float[imageWidth_*imageHeight_];
-		float fuy_val;
-		for(int i=0; i<imageWidth_; i++){
-			fuy_val = 0;
-			for (int j=0; j<imageHeight_; j++){
-				preintegratedFilteredImage_[i+imageWidth_*j] = fuy_val;
-				fuy_val += filteredImage_[i+imageWidth_*j];
-			}
-		}
-
 		bSplineLUT_ = new double[NR_];
 		bSplineDerivativeLUT_ = new double[NR_];
-		double currentVal;
-		for (int i=0; i<NR_; i++){
-			currentVal = (double)i/(double)discretizationSamplingRate_;
-			bSplineLUT_[i] = BSplinesUtils.ESpline4(currentVal, PI2M_);
-			bSplineDerivativeLUT_[i] = BSplinesUtils.DerivativeESpline4(currentVal, PI2M_);
-		}
+		BSplinesUtils.sampleESpline4(PI2M_, discretizationSamplingRate_, bSplineLUT_);
+		BSplinesUtils.sampleDerivativeESpline4(PI2M_, discretizationSamplingRate_, bSplineDerivativeLUT_);
 
 		int qSize = 2*N-1; 
 		bSplineAutocorrelationLUT_ = new double[qSize];
-		for (int i=0; i<qSize; i++){
-			bSplineAutocorrelationLUT_[i] = BSplinesUtils.AutocorrelationESpline4(i-N+1, PI2M_);
-		}
+		BSplinesUtils.autocorrelationESpline4(PI2M_, bSplineAutocorrelationLUT_);
 	}
 
 	// ----------------------------------------------------------------------------
@@ -455,6 +455,69 @@ public class CompartmentSnake implements Snake2D {
 		Matrix VcT = Vc.transpose();
 		priorShapeProjectionMatrix_ = VcT.times(((Vc.times(VcT)).inverse()).times(Vc));
 		priorShapeOrthoProjectorMatrix_ = Matrix.identity(priorShapeProjectionMatrix_.getRowDimension(), priorShapeProjectionMatrix_.getColumnDimension()).minus(priorShapeProjectionMatrix_);
+		
+		orthoProjector_ = priorShapeOrthoProjectorMatrix_.getArray();
+		xShapeNodes_ = new double[M_];
+		yShapeNodes_ = new double[M_];
+		xShapeResiduals_ = new double[M_];
+		yShapeResiduals_ = new double[M_];
+		numShapeResidualsUpdates_ = -1; // computed from scratch the first time
+	}
+
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Updates the projection r = Vcn*P of the control points on the complementary
+	 * space of the prior shape.
+	 * <p>
+	 * When a few control points moved, r is updated with one rank-one update
+	 * r += delta*P(k,:) per moved coordinate (O(M) each). Otherwise, or after M
+	 * updates to avoid the accumulation of rounding errors, r is computed from
+	 * scratch (O(M^2)).
+	 */
+	private void updateShapeResiduals (){
+
+		int numMoved = 0;
+		for(int k=0; k<M_; k++){
+			if(coef_[k].x != xShapeNodes_[k] || coef_[k].y != yShapeNodes_[k])
+				numMoved++;
+		}
+		if(numMoved == 0 && numShapeResidualsUpdates_ >= 0)
+			return;
+
+		if(numShapeResidualsUpdates_ < 0 || numMoved > M_/4 || numShapeResidualsUpdates_+numMoved > M_){
+			for(int k=0; k<M_; k++){
+				xShapeNodes_[k] = coef_[k].x;
+				yShapeNodes_[k] = coef_[k].y;
+			}
+			for(int j=0; j<M_; j++){
+				double rx = 0.0;
+				double ry = 0.0;
+				for(int k=0; k<M_; k++){
+					rx += xShapeNodes_[k]*orthoProjector_[k][j];
+					ry += yShapeNodes_[k]*orthoProjector_[k][j];
+				}
+				xShapeResiduals_[j] = rx;
+				yShapeResiduals_[j] = ry;
+			}
+			numShapeResidualsUpdates_ = 0;
+			return;
+		}
+
+		for(int k=0; k<M_; k++){
+			double dx = coef_[k].x - xShapeNodes_[k];
+			double dy = coef_[k].y - yShapeNodes_[k];
+			if(dx == 0 && dy == 0)
+				continue;
+			double[] row = orthoProjector_[k];
+			for(int j=0; j<M_; j++){
+				xShapeResiduals_[j] += dx*row[j];
+				yShapeResiduals_[j] += dy*row[j];
+			}
+			xShapeNodes_[k] = coef_[k].x;
+			yShapeNodes_[k] = coef_[k].y;
+		}
+		numShapeResidualsUpdates_ += numMoved;
 	}
 
 	// ----------------------------------------------------------------------------
@@ -462,16 +525,11 @@ public class CompartmentSnake implements Snake2D {
 	/** Computes the prior-shape energy. */
 	private double computeRegularizationEnergy (){
 
-		double energy;
-		double VcnArray[][] = new double[2][M_];
-		for(int i=0; i<M_; i++){
-			VcnArray[0][i] = coef_[i].x;
-			VcnArray[1][i] = coef_[i].y;
-		}
-		Matrix Vcn = new Matrix(VcnArray);
-		Vcn = Vcn.times(priorShapeOrthoProjectorMatrix_);
-		energy = Vcn.normF();
-		return energy*energy;
+		updateShapeResiduals();
+		double energy = 0.0;
+		for(int i=0; i<M_; i++)
+			energy += xShapeResiduals_[i]*xShapeResiduals_[i] + yShapeResiduals_[i]*yShapeResiduals_[i];
+		return energy;
 	}
 
 	// ----------------------------------------------------------------------------
@@ -479,16 +537,10 @@ public class CompartmentSnake implements Snake2D {
 	/** Computes the derivatives of the prior-shape energy with respect to the snake defining coefficients. */
 	private Point2D.Double[] computeRegularizationEnergyGradient (){	
 
+		updateShapeResiduals();
 		Point2D.Double[] gradient = new Point2D.Double[M_];
-		double VcnArray[][] = new double[2][M_];
-		for(int i=0; i<M_; i++){
-			VcnArray[0][i] = coef_[i].x;
-			VcnArray[1][i] = coef_[i].y;
-		}
-		Matrix Vcn = new Matrix(VcnArray);
-		Vcn = Vcn.times(priorShapeOrthoProjectorMatrix_);
 		for(int i=0; i<M_; i++){
-			gradient[i] = new Point2D.Double(2.0*Vcn.get(0, i), 2.0*Vcn.get(1, i));
+			gradient[i] = new Point2D.Double(2.0*xShapeResiduals_[i], 2.0*yShapeResiduals_[i]);
 		}
 		return gradient;
 	}
@@ -498,6 +550,21 @@ public class CompartmentSnake implements Snake2D {
 	/** Computes the image energy. */
 	private double computeImageEnergy (){
 
+		double energy = 0.0;
+		for (int q=0; q<M_; q++){
+			if (Double.isNaN(segmentImageEnergies_[q]))
+				segmentImageEnergies_[q] = computeSegmentImageEnergy(q);
+			energy += segmentImageEnergies_[q];
+		}
+		energy = energy/((double)discretizationSamplingRate_)*computeOrientation();
+		return energy;
+	}
+
+	// ----------------------------------------------------------------------------
+
+	/** Computes the contribution of the samples of the given segment to the image energy. */
+	private double computeSegmentImageEnergy (int segment){
+
 		double energy = 0.0;
 		double fuy_val;	
 		int x1, x2, y1, y2;
@@ -505,7 +572,9 @@ public class CompartmentSnake implements Snake2D {
 		int width2 = imageWidth_-2;
 		int height2 = imageHeight_-2;
 
-		for (int i=0; i<MR_; i++){	
+		int start = segment*discretizationSamplingRate_;
+		int end = start+discretizationSamplingRate_;
+		for (int i=start; i<end; i++){	
 			x1 = (int)Math.floor(xSnakeContour_[i]);
 			y1 = (int)Math.floor(ySnakeContour_[i]);
 
@@ -532,8 +601,7 @@ public class CompartmentSnake implements Snake2D {
 			fuy_val += 0.5*((filteredImage_[x1+imageWidth_*y1]*DeltaX2+filteredImage_[x2+imageWidth_*y1]*DeltaX1)+(DeltaY1*(((filteredImage_[x1+imageWidth_*y1]*DeltaX2+filteredImage_[x2+imageWidth_*y1]*DeltaX1)*(2-DeltaY1))+((filteredImage_[x1+imageWidth_*y2]*DeltaX2+filteredImage_[x2+imageWidth_*y2]*DeltaX1)*DeltaY1))));
 
 			energy += fuy_val*xSnakeTangentVector_[i];
-		}	
-		energy = energy/((double)discretizationSamplingRate_)*computeOrientation();
+		}
 		return energy;
 	}
 
@@ -583,43 +651,85 @@ public class CompartmentSnake implements Snake2D {
 
 	// ----------------------------------------------------------------------------
 
-	/** Recomputes the points of the polygons defining the contour of the snake.*/
+	/**
+	 * Recomputes the points of the polygons defining the contour of the snake.
+	 * <p>
+	 * Only the segments supported by the control points which moved are computed.
+	 */
 	private void updateSnakeContour (){
 		
+		boolean moved = false;
+		for(int k=0; k<M_; k++){
+			if(coef_[k].x != xContourNodes_[k] || coef_[k].y != yContourNodes_[k]){
+				xContourNodes_[k] = coef_[k].x;
+				yContourNodes_[k] = coef_[k].y;
+				for(int j=0; j<N; j++)
+					segmentImageEnergies_[(k+j)%M_] = Double.NaN; // marks the segment to update
+				moved = true;
+			}
+		}
+		if(!moved)
+			return;
+		
 		xMinSnakeContour_ = imageWidth_-1;
 		xMaxSnakeContour_ = 0;
 		yMinSnakeContour_ = imageHeight_-1;
 		yMaxSnakeContour_ = 0;
+		
+		for(int q=0; q<M_; q++){
+			if(Double.isNaN(segmentImageEnergies_[q]))
+				updateSnakeContourSegment(q);
+			
+			int[] bbox = segmentBoundingBoxes_[q];
+			if(bbox[0]<xMinSnakeContour_) xMinSnakeContour_ = bbox[0];
+			if(bbox[1]>xMaxSnakeContour_) xMaxSnakeContour_ = bbox[1];
+			if(bbox[2]<yMinSnakeContour_) yMinSnakeContour_ = bbox[2];
+			if(bbox[3]>yMaxSnakeContour_) yMaxSnakeContour_ = bbox[3];
+		}
+	}
 
-		int index;
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Recomputes the samples of the given segment of the contour and its bounding box.
+	 * <p>
+	 * The sample i = q*R+r only depends on the control points q, q-1, ..., q-N+1
+	 * (modulo M) weighted by the LUT values at r+j*R, j = 0, ..., N-1.
+	 */
+	private void updateSnakeContourSegment (int q){
+
+		int[] bbox = segmentBoundingBoxes_[q];
+		bbox[0] = imageWidth_-1;
+		bbox[1] = 0;
+		bbox[2] = imageHeight_-1;
+		bbox[3] = 0;
+
+		int i, k, index;
 		double aux, aux2, xPrimeVal, xPosVal, yPosVal;
-		for(int i=0; i<MR_; i++){
+		for(int r=0; r<discretizationSamplingRate_; r++){
 			xPosVal = 0.0;
 			yPosVal = 0.0;
 			xPrimeVal = 0.0;
-			for(int k=0; k<M_; k++){
-				index = (i-k*discretizationSamplingRate_)%(MR_);
-				if (index<0) index += MR_;
-
-				if(index>=NR_){
-					continue;
-				}else{
-					aux = bSplineLUT_[index];
-					aux2 = bSplineDerivativeLUT_[index];
-				}
+			for(int j=0; j<N; j++){
+				k = q-j;
+				if (k<0) k += M_; // N <= M
+				index = r+j*discretizationSamplingRate_;
+				aux = bSplineLUT_[index];
+				aux2 = bSplineDerivativeLUT_[index];
 				xPosVal += coef_[k].x*aux;
 				yPosVal += coef_[k].y*aux;
 				xPrimeVal += coef_[k].x*aux2;
 			}
 
+			i = q*discretizationSamplingRate_+r;
 			xSnakeContour_[i] = xPosVal;
 			ySnakeContour_[i] = yPosVal;
 			xSnakeTangentVector_[i] = xPrimeVal;
 
-			if((int)Math.floor(xSnakeContour_[i])<xMinSnakeContour_) xMinSnakeContour_ = (int)Math.floor(xSnakeContour_[i]);
-			if((int)Math.ceil(xSnakeContour_[i])>xMaxSnakeContour_) xMaxSnakeContour_ = (int)Math.ceil(xSnakeContour_[i]);
-			if((int)Math.floor(ySnakeContour_[i])<yMinSnakeContour_) yMinSnakeContour_ = (int)Math.floor(ySnakeContour_[i]);
-			if((int)Math.ceil(ySnakeContour_[i])>yMaxSnakeContour_) yMaxSnakeContour_ = (int)Math.ceil(ySnakeContour_[i]);
+			if((int)Math.floor(xPosVal)<bbox[0]) bbox[0] = (int)Math.floor(xPosVal);
+			if((int)Math.ceil(xPosVal)>bbox[1]) bbox[1] = (int)Math.ceil(xPosVal);
+			if((int)Math.floor(yPosVal)<bbox[2]) bbox[2] = (int)Math.floor(yPosVal);
+			if((int)Math.ceil(yPosVal)>bbox[3]) bbox[3] = (int)Math.ceil(yPosVal);
 		}
 	}
 
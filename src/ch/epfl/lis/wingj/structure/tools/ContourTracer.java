@@ -28,9 +28,9 @@ package ch.epfl.lis.wingj.structure.tools;
 
 import ij.IJ;
 
-import java.awt.Point;
 import java.awt.Polygon;
-import java.util.Vector;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
 /** 
  * Square tracing algorithm.
@@ -39,23 +39,37 @@ import java.util.Vector;
  * attributed to the fact that the algorithm was one of the first attempts to 
  * extract the contour of a binary pattern.
  * <p>
+ * The mask is read directly from the byte, boolean or float array given (non-zero
+ * pixels belong to the object) without being copied. The starting pixel is searched
+ * in the given bounding box only, or obtained from a seed pixel of the object, so
+ * that the whole image is not scanned. The path is recorded in growable arrays of
+ * int and consecutive duplicated points are skipped when they are added.
+ * <p>
  * Source: http://www.imageprocessingplace.com/downloads_V3/root_downloads/tutorials/contour_tracing_Abeer_George_Ghuneim/square.html
  * 
- * @version March 5, 2013
+ * @version October 19, 2026
  * 
  * @author Ricard Delgado-Gonzalo (ricard.delg...@gmail.com)
  */
 public class ContourTracer {
 
-	/** Binary mask of the object to trace. */
+	/** Binary mask of the object to trace (boolean mask). */
 	private boolean[] binaryMask_ = null;
+	/** Binary mask of the object to trace (byte mask). */
+	private byte[] byteMask_ = null;
+	/** Binary mask of the object to trace (float mask). */
+	private float[] floatMask_ = null;
 	/** Width of the input binary mask. */
 	private int width_ = 0;
 	/** Height of the input binary mask. */
 	private int height_ = 0;
 
-	/** Path with the outline of the traced object. */
-	private Vector<Point> path_ = null;
+	/** X-coordinates of the path with the outline of the traced object. */
+	private int[] xPath_ = new int[256];
+	/** Y-coordinates of the path with the outline of the traced object. */
+	private int[] yPath_ = new int[256];
+	/** Number of points of the path. */
+	private int numPoints_ = 0;
 
 	/** Identifier of the up direction. */
 	private static final int UP = 0;
@@ -75,7 +89,16 @@ public class ContourTracer {
 		binaryMask_ = T;
 		width_ = width;
 		height_ = height;
-		path_ = new Vector<Point>();
+	}
+	
+	// ----------------------------------------------------------------------------
+
+	/** Constructor from a byte mask (non-zero pixels belong to the object). */
+	public ContourTracer(byte[] T, int width, int height){
+		
+		byteMask_ = T;
+		width_ = width;
+		height_ = height;
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -83,18 +106,9 @@ public class ContourTracer {
 	/** Constructor. */
 	public ContourTracer(float[] T, int width, int height){
 		
-		this.binaryMask_ = new boolean[width*height];
-		for(int i =0; i<T.length; i++){
-   			if(T[i]!=0){
-   				this.binaryMask_[i] = true;
-   			}else{
-   				this.binaryMask_[i] = false;
-   			}
-   		}
-		
+		floatMask_ = T;
 		width_ = width;
 		height_ = height;
-		path_ = new Vector<Point>();
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -102,38 +116,60 @@ public class ContourTracer {
 	/** Traces the outline of a binary region using the Square Tracing Algorithm. */
 	public void trace() {
 		
-		int sx = 0;
-		int sy = 0;
-		int px = 0;
-		int py = 0;
-		int direction = UP;
-		
-		boolean found = false;
-		for(int y=height_-1; y>=0 && !found; y--){
-			for(int x=0; x<width_ && !found; x++){
-				if(binaryMask_[x+y*width_]){
-					found = true;
-					sx = x;
-					sy = y;
-					px = x;
-					py = y;
-					path_.addElement(new Point(x,y));
+		trace(new Rectangle(0, 0, width_, height_));
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Traces the outline of the binary region whose lowest row (then leftmost pixel)
+	 * is found in the given bounding box. Gives the same result as trace() if the
+	 * box contains the object.
+	 */
+	public void trace(Rectangle bounds) {
+		
+		int xmin = Math.max(0, bounds.x);
+		int xmax = Math.min(width_, bounds.x + bounds.width);
+		int ymin = Math.max(0, bounds.y);
+		int ymax = Math.min(height_, bounds.y + bounds.height);
+		
+		for(int y=ymax-1; y>=ymin; y--){
+			for(int x=xmin; x<xmax; x++){
+				if(isSet(x, y)){
+					trace(x, y);
+					return;
 				}
 			}
 		}
+		numPoints_ = 0;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Traces the outline of the binary region which contains the given seed pixel.
+	 * The tracing starts from the first pixel on the left of the seed whose left
+	 * neighbor is background, i.e. on the outer contour if the region has no hole
+	 * between this pixel and the seed.
+	 */
+	public void trace(int sx, int sy) {
+		
+		numPoints_ = 0;
+		if (!isSet(sx, sy))
+			return;
+		while (isSet(sx-1, sy))
+			sx--;
+		
+		int px = sx;
+		int py = sy;
+		int direction = RIGHT;
+		addPoint(sx, sy);
 		
-		direction = RIGHT;
 		px--;
-		boolean cond;
 		while(!(sx==px && sy==py)){
 			
-			if(px<0 || px>=width_ || py<0 || py>=height_){
-				cond=false;
-			}else{
-				cond = binaryMask_[px+py*width_]; 
-			}
-			if(cond){
-				path_.addElement(new Point(px,py));
+			if(isSet(px, py)){
+				addPoint(px, py);
 				switch(direction){
 					case UP:
 						px++;
@@ -179,24 +215,41 @@ public class ContourTracer {
 				}
 			}
 		}
-		removeDuplicates();
 	}
 
 	// ============================================================================
 	// PRIVATE METHODS
 	
-	/** Removes duplicated points. */
-	private void removeDuplicates() {
-		if(path_!=null){
-			if(path_.size()>1){
-				for(int i=0; i<path_.size()-1; i++){
-					if(path_.elementAt(i).x == path_.elementAt(i+1).x && path_.elementAt(i).y == path_.elementAt(i+1).y){
-						path_.removeElementAt(i+1);
-						i--;
-					}
-				}
-			}
+	/** Returns true if the given pixel belongs to the object (pixels outside the mask are background). */
+	private boolean isSet(int x, int y) {
+		
+		if(x<0 || x>=width_ || y<0 || y>=height_)
+			return false;
+		
+		int index = x+y*width_;
+		if (byteMask_ != null)
+			return byteMask_[index] != 0;
+		else if (binaryMask_ != null)
+			return binaryMask_[index];
+		else
+			return floatMask_[index] != 0;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Adds a point to the path unless it is the same as the last point added. */
+	private void addPoint(int x, int y) {
+		
+		if (numPoints_ > 0 && xPath_[numPoints_-1] == x && yPath_[numPoints_-1] == y)
+			return;
+		
+		if (numPoints_ == xPath_.length) {
+			xPath_ = Arrays.copyOf(xPath_, 2*numPoints_);
+			yPath_ = Arrays.copyOf(yPath_, 2*numPoints_);
 		}
+		xPath_[numPoints_] = x;
+		yPath_[numPoints_] = y;
+		numPoints_++;
 	}
 
 	// ============================================================================
@@ -213,12 +266,7 @@ public class ContourTracer {
 	/** Retrieves the x's coordinates of the trace. */
 	public int[] getXCoordinates() {
 		
-		int nPoints = path_.size();
-		int[] xCoordinates = new int[nPoints];
-		for(int i=0; i<path_.size(); i++){
-			xCoordinates[i] = path_.elementAt(i).x;
-		}
-		return xCoordinates;
+		return Arrays.copyOf(xPath_, numPoints_);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -226,12 +274,7 @@ public class ContourTracer {
 	/** Retrieves the y's coordinates of the trace. */
 	public int[] getYCoordinates() {
 		
-		int nPoints = path_.size();
-		int[] yCoordinates = new int[nPoints];
-		for(int i=0; i<nPoints; i++){
-			yCoordinates[i] = path_.elementAt(i).y;
-		}
-		return yCoordinates;
+		return Arrays.copyOf(yPath_, numPoints_);
 	}	
 	
 	// ----------------------------------------------------------------------------
@@ -239,6 +282,6 @@ public class ContourTracer {
 	/** Retrieves the total number of points in the trace. */
 	public int getNPoints() {
 		
-		return path_.size();
+		return numPoints_;
 	}
-}
\ No newline at end of file
+}
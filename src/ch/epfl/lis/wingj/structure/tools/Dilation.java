@@ -30,41 +30,142 @@ import ij.process.FloatProcessor;
 
 /** 
  * Implements efficient dilate image functions.
+ * <p>
+ * Dilating iteratively a binary shape by one pixel using a 4-neighborhood is
+ * equivalent to keeping all the pixels whose city block (L1) distance to the shape
+ * is smaller or equal to the number of iterations. This distance is computed for all
+ * the pixels in two passes over the image, so that the cost of the dilation and
+ * erosion doesn't depend on the radius.
  *
- * @version March 7, 2013
+ * @version October 19, 2026
  *
  * @author Thomas Schaffter (thomas.schaff...@gmail.com)
  */
 public class Dilation {
 	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Returns the binary thresholded image of the given distances (1 if distance <= radius, otherwise 0). */
+	private static FloatProcessor threshold(int[] distances, int width, int height, int radius, boolean inside) {
+		
+		float[] output = new float[width*height];
+		for (int i = 0; i < output.length; i++)
+			output[i] = ((distances[i] <= radius) == inside) ? 1f : 0f;
+		
+		return new FloatProcessor(width, height, output, null);
+	}
+	
 	// ============================================================================
 	// PUBLIC METHODS
-
+	
 	/**
-	 * Dilates the shape(s) defined by pixel values > 0 and returns a new binary
-	 * FloatProcessor. The dilation algorithm applied dilates the binary shape(s) iteratively,
-	 * each iteration adding 1px layer around the binary shape(s).
+	 * Computes in-place the city block (L1) distance of each pixel to the closest
+	 * pixel whose distance is initially 0 (all the other pixels must be set to
+	 * Integer.MAX_VALUE). Pixels are stored in row-major order. Cost: O(n).
 	 */
-	public static FloatProcessor dilate(FloatProcessor fp, int numIters) throws Exception {
+	public static void cityBlockDistanceTransform(int[] distances, int width, int height) {
+		
+		final int inf = Integer.MAX_VALUE;
+		
+		// forward pass (top and left neighbors)
+		for (int y = 0; y < height; y++) {
+			int offset = y*width;
+			for (int x = 0; x < width; x++) {
+				int i = offset + x;
+				int d = distances[i];
+				if (d == 0)
+					continue;
+				if (y > 0 && distances[i-width] != inf && distances[i-width]+1 < d) d = distances[i-width]+1;
+				if (x > 0 && distances[i-1] != inf && distances[i-1]+1 < d) d = distances[i-1]+1;
+				distances[i] = d;
+			}
+		}
+		// backward pass (bottom and right neighbors)
+		for (int y = height-1; y >= 0; y--) {
+			int offset = y*width;
+			for (int x = width-1; x >= 0; x--) {
+				int i = offset + x;
+				int d = distances[i];
+				if (d == 0)
+					continue;
+				if (y < height-1 && distances[i+width] != inf && distances[i+width]+1 < d) d = distances[i+width]+1;
+				if (x < width-1 && distances[i+1] != inf && distances[i+1]+1 < d) d = distances[i+1]+1;
+				distances[i] = d;
+			}
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the city block distance of each pixel to the shape(s) defined by pixel
+	 * values > 0 (if foreground is true) or <= 0 (if foreground is false).
+	 */
+	public static int[] cityBlockDistanceTransform(FloatProcessor fp, boolean foreground) throws Exception {
 		
 		if (fp == null)
 			throw new Exception("ERROR: FloatProcessor is null.");
 		
-		int[][] binaryMask = new int[fp.getWidth()][fp.getHeight()];
+		int width = fp.getWidth();
+		int height = fp.getHeight();
 		float[] data = (float[]) fp.getPixels();
 		
-		// creates the binary mask
-		for (int i = 0; i < fp.getWidth(); i ++) {
-			for (int j = 0; j < fp.getHeight(); j++) {
-				binaryMask[i][j] = data[j*fp.getWidth()+i] > 0 ? 1 : 0;
-			}
-		}
+		int[] distances = new int[width*height];
+		for (int i = 0; i < distances.length; i++)
+			distances[i] = ((data[i] > 0) == foreground) ? 0 : Integer.MAX_VALUE;
+		cityBlockDistanceTransform(distances, width, height);
 		
-		// iterative dilation by one
-		for (int i = 0; i < numIters; i++)
-			binaryMask = dilate(binaryMask);
+		return distances;
+	}
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Dilates the shape(s) defined by pixel values > 0 and returns a new binary
+	 * FloatProcessor. The result is the same as dilating iteratively the binary shape(s),
+	 * each iteration adding 1px layer (4-neighborhood) around the binary shape(s).
+	 */
+	public static FloatProcessor dilate(FloatProcessor fp, int numIters) throws Exception {
+		
+		int[] distances = cityBlockDistanceTransform(fp, true);
+		return threshold(distances, fp.getWidth(), fp.getHeight(), Math.max(0, numIters), true);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Dilates in-place the shape(s) defined by the non-zero pixels of the given binary
+	 * mask (row-major order). Pixels of the dilated shape(s) are set to 255. The result
+	 * is the same as dilate(FloatProcessor, int) without 32-bit image conversion.
+	 */
+	public static void dilate(byte[] mask, int width, int height, int numIters) throws Exception {
+		
+		if (mask == null)
+			throw new Exception("ERROR: Mask is null.");
+		
+		int[] distances = new int[width*height];
+		for (int i = 0; i < distances.length; i++)
+			distances[i] = (mask[i] != 0) ? 0 : Integer.MAX_VALUE;
+		cityBlockDistanceTransform(distances, width, height);
+		
+		int radius = Math.max(0, numIters);
+		for (int i = 0; i < distances.length; i++)
+			mask[i] = (distances[i] <= radius) ? (byte)255 : (byte)0;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Erodes the shape(s) defined by pixel values > 0 and returns a new binary
+	 * FloatProcessor. The result is the same as eroding iteratively the binary shape(s),
+	 * each iteration removing 1px layer (4-neighborhood). Pixels outside the image
+	 * are ignored.
+	 */
+	public static FloatProcessor erode(FloatProcessor fp, int numIters) throws Exception {
 		
-		return new FloatProcessor(binaryMask);
+		int[] distances = cityBlockDistanceTransform(fp, false);
+		return threshold(distances, fp.getWidth(), fp.getHeight(), Math.max(0, numIters), false);
 	}
 	
 	// ----------------------------------------------------------------------------
@@ -32,7 +32,6 @@ import ij.process.FloatProcessor;
 import java.awt.Color;
 import java.awt.geom.Point2D;
 
-import ch.epfl.lis.wingj.utilities.Filters;
 
 import Jama.Matrix;
 import big.ij.snake2D.Snake2D;
@@ -148,9 +147,6 @@ public class EmbryoSnake implements Snake2D {
 	/** M*R. */
 	private int MR_ = 0;
 
-	/** Laplacian filter kennel. */
-	private static int LAPLACIAN_KERNEL [] = { 0,-1, 0, -1, 4,-1, 0,-1, 0};
-
 
 	// ============================================================================
 	// PUBLIC METHODS
@@ -186,24 +182,11 @@ public class EmbryoSnake implements Snake2D {
 		imageHeight_ = binaryImage.getHeight();
 		imageWidthMinusTwo_ = imageWidth_-2;
 		imageHeightMinusTwo_ = imageHeight_-2;
-		int size = imageWidth_*imageHeight_;
-
-		float[] binaryImageData = (float[])binaryImage.getPixels();
-		float[] grayscaleImageData = (float[])grayscaleImage.getPixels();
-		double[] combinedImageData = new double[size];
-
-		for(int i=0; i<size; i++){
-			combinedImageData[i] = (1-alpha)*binaryImageData[i]+alpha*grayscaleImageData[i];
-		}
-
-		FloatProcessor laplacianProcessor = new FloatProcessor(imageWidth_, imageHeight_, combinedImageData);
-		Filters.applyGaussianFilter(laplacianProcessor, sigma);
-
-		laplacianProcessor.convolve3x3(LAPLACIAN_KERNEL);
-		laplacianProcessor.resetMinAndMax();
-		laplacianProcessor.multiply(255.0 / Math.max(laplacianProcessor.getMax(), Math.abs(laplacianProcessor.getMin())));
 
-		filteredImage_ = (float[])laplacianProcessor.getPixels();
+		// shared with the other snakes computed on the same images (read-only)
+		float[][] laplacianImages = SnakeImageCache.getInstance().getLaplacianImages(binaryImage, grayscaleImage, sigma, alpha, false);
+		filteredImage_ = laplacianImages[0];
+		preintegratedFilteredImage_ = laplacianImages[1];
 		xSnakeContour_ = new double[MR_];
 		ySnakeContour_ = new double[MR_];
 		xSnakeTangentVector_ = new double[MR_];
@@ -521,30 +504,14 @@ public class EmbryoSnake implements Snake2D {
 	/** Creation of all LUT. */
 	private void buildLUT (){
 
-		preintegratedFilteredImage_ = new float[imageWidth_*imageHeight_];
-		float fuy_val;
-		for(int i=0; i<imageWidth_; i++){
-			fuy_val = 0;
-			for (int j=0; j<imageHeight_; j++){
-				preintegratedFilteredImage_[i+imageWidth_*j] = fuy_val;
-				fuy_val += filteredImage_[i+imageWidth_*j];
-			}
-		}
-
 		bSplineLUT_ = new double[NR_];
 		bSplineDerivativeLUT_ = new double[NR_];
-		double currentVal;
-		for (int i=0; i<NR_; i++){
-			currentVal = (double)i/(double)discretizationSamplingRate_;
-			bSplineLUT_[i] = BSplinesUtils.ESpline4(currentVal, PI2M_);
-			bSplineDerivativeLUT_[i] = BSplinesUtils.DerivativeESpline4(currentVal, PI2M_);
-		}
+		BSplinesUtils.sampleESpline4(PI2M_, discretizationSamplingRate_, bSplineLUT_);
+		BSplinesUtils.sampleDerivativeESpline4(PI2M_, discretizationSamplingRate_, bSplineDerivativeLUT_);
 
 		int qSize = 2*N-1; 
 		bSplineAutocorrelationLUT_ = new double[qSize];
-		for (int i=0; i<qSize; i++){
-			bSplineAutocorrelationLUT_[i] = BSplinesUtils.AutocorrelationESpline4(i-N+1, PI2M_);
-		}
+		BSplinesUtils.autocorrelationESpline4(PI2M_, bSplineAutocorrelationLUT_);
 	}
 
 	// ----------------------------------------------------------------------------
@@ -56,6 +56,9 @@ import big.ij.snake2D.Snake2DScale;
  * cross of the kite towards regions in the image with high pixel values; and the
  * regularization energy that prevents the external kite points to move far away 
  * of a region around the kite center.
+ * <p>
+ * The integrals over the triangles are cached so that only the triangles whose
+ * nodes moved are integrated again when the optimizer evaluates the energy.
  * 
  * @version March 5, 2013
  * 
@@ -90,6 +93,24 @@ public class KiteSnake implements Snake2D {
 	 * The ordering is equivalent to the one of <code>outerTriangles_</code>.
 	 */
 	private Triangle[] innerTriangles_ = new Triangle[4];
+	
+	// ----------------------------------------------------------------------------
+	// ENERGY CACHE
+	
+	/**
+	 * Coordinates of the nodes (center, i-th node, (i+1)-th node) for which the
+	 * contributions of the i-th outer and inner triangles have been computed.
+	 * <p>
+	 * When a single node moves, only the contributions of the two pairs of triangles
+	 * sharing it are integrated again.
+	 */
+	private double[][] cachedTriangleNodes_ = new double[4][6];
+	/** Cached integrals over the outer triangles. */
+	private double[] cachedOuterIntegrals_ = new double[4];
+	/** Cached integrals over the inner triangles. */
+	private double[] cachedInnerIntegrals_ = new double[4];
+	/** Cached areas of the outer triangles. */
+	private double[] cachedOuterAreas_ = new double[4];
 
 	
 	// ----------------------------------------------------------------------------
@@ -177,6 +198,7 @@ public class KiteSnake implements Snake2D {
 			innerTriangles_[i] = new Triangle(new Point2D.Double(0.0,0.0),new Point2D.Double(0.0,0.0),new Point2D.Double(0.0,0.0));
 		}
 		life_ = maxNumIters_;
+		clearEnergyCache();
 		initNodes(initialCenter_, initialBranchLength_);
 	}
 
@@ -185,13 +207,15 @@ public class KiteSnake implements Snake2D {
 	/** Sets the image and builds the appropriate LUT's. */
 	public void setImage (FloatProcessor ip, double sigma){
 
-		FloatProcessor ipDup = (FloatProcessor) ip.duplicate();
-		image_ = (float[])ipDup.getPixels();
-		imageWidth_ = ipDup.getWidth();
-		imageHeight_ = ipDup.getHeight();
+		// shared with the other snakes computed on the same image (read-only)
+		Object[] images = SnakeImageCache.getInstance().getPreintegratedImage(ip);
+		image_ = (float[])images[0];
+		preintegratedImage_ = (double[])images[1];
+		imageWidth_ = ip.getWidth();
+		imageHeight_ = ip.getHeight();
 		imageWidthMinusTwo_ = imageWidth_-2;
 		imageHeightMinusTwo_ = imageHeight_-2;
-		computePreIntegratedImage();
+		clearEnergyCache();
 	}
 
 	// ----------------------------------------------------------------------------
@@ -589,6 +613,8 @@ public class KiteSnake implements Snake2D {
 
 		if(innerOuterTriangleAreasRatio_<=0 || innerOuterTriangleAreasRatio_>=1)
 			throw new Exception("WingJ Error: KiteSnake geometry parameters are not valid.");
+		
+		clearEnergyCache();
 	}
 
 	// ============================================================================
@@ -627,23 +653,6 @@ public class KiteSnake implements Snake2D {
 
 	// ----------------------------------------------------------------------------
 
-	/** Computes the pre-integrated image. */
-	private void computePreIntegratedImage () {
-
-		preintegratedImage_ = new double[imageWidth_*imageHeight_];
-		double fy_val;
-		for(int x=0; x<imageWidth_; x++){
-			fy_val = 0.0;
-			for (int y=0; y<imageHeight_; y++){
-				int index = x+imageWidth_*y;
-				fy_val += (double)image_[index];
-				preintegratedImage_[index] = fy_val;
-			}
-		}
-	}
-
-	// ----------------------------------------------------------------------------
-
 	/** Computes the points that define an inner triangles. */
 	private void updateTriangles () throws Exception {
 
@@ -668,22 +677,56 @@ public class KiteSnake implements Snake2D {
 
 	// ----------------------------------------------------------------------------
 
+	/** Invalidates the cached contributions of the triangles to the energy. */
+	private void clearEnergyCache () {
+
+		for(int i = 0; i < cachedTriangleNodes_.length; i++)
+			cachedTriangleNodes_[i][0] = Double.NaN;
+	}
+
+	// ----------------------------------------------------------------------------
+
+	/** Integrates the i-th outer and inner triangles again if one of their nodes moved. */
+	private void updateTriangleContributions (int i) throws Exception {
+
+		double[] cached = cachedTriangleNodes_[i];
+		Point2D.Double c = node_[4];
+		Point2D.Double p = node_[i];
+		Point2D.Double q = node_[(i+1)%4];
+
+		if (cached[0] == c.x && cached[1] == c.y && cached[2] == p.x && cached[3] == p.y && cached[4] == q.x && cached[5] == q.y)
+			return;
+
+		cachedOuterIntegrals_[i] = integrateTriangle(outerTriangles_[i]);
+		cachedInnerIntegrals_[i] = integrateTriangle(innerTriangles_[i]);
+		cachedOuterAreas_[i] = outerTriangles_[i].getArea();
+
+		cached[0] = c.x; cached[1] = c.y;
+		cached[2] = p.x; cached[3] = p.y;
+		cached[4] = q.x; cached[5] = q.y;
+	}
+
+	// ----------------------------------------------------------------------------
+
 	/** Returns the energy of the KiteSnake. */
 	private double computeContrastEnergy () throws Exception {
 
+		for(int i = 0; i < outerTriangles_.length; i++)
+			updateTriangleContributions(i);
+
 		// energy of the entire kite
 		double Eout = 0;
 		for(int i = 0; i < outerTriangles_.length; i++)
-			Eout += integrateTriangle(outerTriangles_[i]);
+			Eout += cachedOuterIntegrals_[i];
 
 		// energy of the inner triangles
 		double Ein = 0;
 		for(int i = 0; i < innerTriangles_.length; i++)
-			Ein += integrateTriangle(innerTriangles_[i]);
+			Ein += cachedInnerIntegrals_[i];
 
 		double totalArea = 0.;
 		for (int i = 0; i < outerTriangles_.length; i++)
-			totalArea += outerTriangles_[i].getArea();
+			totalArea += cachedOuterAreas_[i];
 
 		return (Eout - Ein) / totalArea;
 	}
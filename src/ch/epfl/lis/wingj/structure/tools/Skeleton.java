@@ -98,10 +98,12 @@ public class Skeleton {
    		int height = skeleton.getHeight();
    		
    		byte[] skeletonPixels = (byte[])skeleton.getPixels();
+   		// pixels of the branch being walked (primitive stack reused for all the end-points)
+   		int[] branch = new int[Skeleton.PRUNNINGLENGTH];
 		for (int i = 1; i < width-1; i++) {
 			for (int j = 1; j < height-1; j++) {
 				if (skeletonPixels[i+j*width] != 0) {
-					isEndPoint(skeleton, i, j, -1, -1, 0);
+					removeShortBranch(skeletonPixels, width, height, i+j*width, branch);
 				}
 			}
 		}
@@ -211,66 +213,77 @@ public class Skeleton {
 		if (bp == null)
 			throw new Exception("ERROR: ByteProcessor is null.");
 		
-   		int width = bp.getWidth();
-   		int height = bp.getHeight();
-   		
    		byte[] bpPixels = (byte[]) bp.getPixels();
+   		int n = bp.getWidth() * bp.getHeight();
    		int counter = 0;
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				if ((bpPixels[x+y*width]&0xFF) != 0)
-					counter++;
-			}
-		}
+   		// row-major order, i.e. the order of the pixels in memory
+   		for (int index = 0; index < n; index++) {
+   			if (bpPixels[index] != 0)
+   				counter++;
+   		}
 		return counter;
 	}
 
 	// ============================================================================
 	// PRIVATE METHODS
 	
-	/** Checks if the pixel with coordinates Point of a skeleton is an end-point. */
-   	private static boolean isEndPoint(ByteProcessor skeleton, int x, int y, int xOld, int yOld, int depth) throws Exception {
-
-   		if(skeleton == null)
-   			throw new Exception("ERROR: skeleton is null.");
-
-		if(depth < Skeleton.PRUNNINGLENGTH){
-	   		int width = skeleton.getWidth();
-	   		byte[] skeletonPixels = (byte[])skeleton.getPixels();   		
-	   		// checking neighborhood
-	   		int ii = -1;
-	   		int jj = -1;
-	   		int count = 0;
-	   		for (int k = x-1; k <= x+1; k++) {
-	   			for (int l = y-1; l <= y+1; l++) {
-	   				if ((skeletonPixels[k+l*width]) != 0) {
-	   					if(!(k==x && l==y)){
-			   				if (!(k==xOld && l==yOld)) {
-			   					count++;
-			   					ii = k;
-			   					jj = l;
-			   				}
-	   					}
-	   				}
-	   			}
-	   		}
-	   		if(count == 0){
-	   			skeletonPixels[x+y*width] = 0;
-	   			return true;
-	   		}else if(count == 1){
-	   			depth++;
-	   			if(isEndPoint(skeleton, ii, jj, x, y, depth)){
-	   				skeletonPixels[x+y*width] = 0;
-		   			return true;
-	   			}else{
-	   				return false;
-	   			}
-	   		}else if(count > 1){
-	   			return true;
-	   		}
-		}else{
-	   		return false;
+	/**
+	 * Returns the index of the unique 8-connected neighbor of the given pixel which is
+	 * not the previous pixel, -1 if there is no such neighbor and -2 if there are more
+	 * than one. Pixels outside the image are considered as background.
+	 */
+	private static int getNextBranchPixel(byte[] skeletonPixels, int width, int height, int index, int previous) {
+		
+		int x = index % width;
+		int y = index / width;
+		int next = -1;
+		int count = 0;
+		for (int l = Math.max(y-1, 0); l <= Math.min(y+1, height-1); l++) {
+			for (int k = Math.max(x-1, 0); k <= Math.min(x+1, width-1); k++) {
+				int neighbor = k + l*width;
+				if (skeletonPixels[neighbor] != 0 && neighbor != index && neighbor != previous) {
+					if (++count > 1)
+						return -2;
+					next = neighbor;
+				}
+			}
 		}
-		return false;
-   	}
-}
\ No newline at end of file
+		return next;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * If the given pixel is an end-point, walks along its branch and removes it if the
+	 * branch is shorter than PRUNNINGLENGTH pixels.
+	 * <p>
+	 * The branch ends when a pixel has no other neighbor than the previous one (the
+	 * branch is then completely removed) or more than one (junction, which is kept).
+	 * Pixels without neighbor are removed. The given array is used to store the pixels
+	 * of the branch and must have a length of at least PRUNNINGLENGTH.
+	 */
+	private static void removeShortBranch(byte[] skeletonPixels, int width, int height, int start, int[] branch) {
+		
+		int length = 0;
+		int previous = -1;
+		int current = start;
+		
+		while (length < Skeleton.PRUNNINGLENGTH) {
+			int next = getNextBranchPixel(skeletonPixels, width, height, current, previous);
+			if (next == -2) { // junction (or not an end-point if current is the start pixel)
+				for (int i = 0; i < length; i++)
+					skeletonPixels[branch[i]] = 0;
+				return;
+			} else if (next == -1) { // isolated branch
+				for (int i = 0; i < length; i++)
+					skeletonPixels[branch[i]] = 0;
+				skeletonPixels[current] = 0;
+				return;
+			}
+			branch[length++] = current;
+			previous = current;
+			current = next;
+		}
+		// long branch, keep it
+	}
+}
@@ -0,0 +1,424 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.structure.tools;
+
+import ij.process.FloatProcessor;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.epfl.lis.wingj.utilities.Filters;
+
+/** 
+ * Shares the filtered and preintegrated images used by the snakes.
+ * <p>
+ * The KiteSnake, CompartmentSnake and EmbryoSnake compute in their constructor
+ * filtered and preintegrated (cumulative sums along the y-axis) versions of their
+ * input images. The four compartment snakes, the levels of a SnakePyramid or the
+ * successive snakes run on the same image would otherwise recompute and reallocate
+ * these full-size arrays each time.
+ * <p>
+ * Entries are identified by the identity of the source pixel arrays, a fingerprint
+ * of their content (an image modified in place is computed again) and the filter
+ * parameters. The arrays returned are shared and MUST NOT be modified. Source arrays
+ * are weakly referenced: once a source array has been garbage collected, the entries
+ * computed from it are removed at the next access to the cache. In addition, only the
+ * most recently used entries are kept, up to MAX_NUM_ENTRIES entries and up to the
+ * memory budget set with setMaxNumBytes() (1/8 of the maximum heap by default).
+ *
+ * @version October 19, 2026
+ *
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class SnakeImageCache {
+	
+	/** Maximum number of entries kept in the cache. */
+	public static final int MAX_NUM_ENTRIES = 8;
+	
+	/** Laplacian filter kennel. */
+	private static final int LAPLACIAN_KERNEL [] = { 0,-1, 0, -1, 4,-1, 0,-1, 0};
+	
+	/** Unique instance. */
+	private static SnakeImageCache instance_ = null;
+	
+	/** Entries in access order (least recently used first). */
+	private Map<Key, Object[]> entries_ = null;
+	/** Queue of the references to the source arrays which have been garbage collected. */
+	private ReferenceQueue<float[]> queue_ = new ReferenceQueue<float[]>();
+	
+	/** Maximum memory in bytes used by the images of the entries. */
+	private long maxNumBytes_ = Runtime.getRuntime().maxMemory() / 8;
+	/** Memory in bytes used by the images of the entries. */
+	private long numBytes_ = 0;
+	
+	/** Number of requests served from the cache. */
+	private int numHits_ = 0;
+	/** Number of requests which required to compute the images. */
+	private int numMisses_ = 0;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Default constructor. */
+	private SnakeImageCache() {
+		
+		entries_ = new LinkedHashMap<Key, Object[]>(2*MAX_NUM_ENTRIES, 0.75f, true);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Removes the entries whose source arrays have been garbage collected. */
+	private void purge() {
+		
+		Reference<? extends float[]> ref = null;
+		while ((ref = queue_.poll()) != null) {
+			Key key = ((SourceReference)ref).key_;
+			if (entries_.remove(key) != null)
+				numBytes_ -= key.size_;
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Removes the least recently used entries (but the given one) until the cache is within its limits. */
+	private void trim(Key keep) {
+		
+		Iterator<Key> it = entries_.keySet().iterator();
+		while (it.hasNext() && (entries_.size() > MAX_NUM_ENTRIES || numBytes_ > maxNumBytes_)) {
+			Key key = it.next();
+			if (key == keep)
+				continue;
+			it.remove();
+			numBytes_ -= key.size_;
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the size in bytes of the given images. */
+	private static long getSizeInBytes(Object[] images) {
+		
+		long size = 0;
+		for (Object image : images) {
+			if (image instanceof float[])
+				size += 4L * ((float[])image).length;
+			else if (image instanceof double[])
+				size += 8L * ((double[])image).length;
+			else if (image instanceof Object[])
+				size += getSizeInBytes((Object[])image);
+		}
+		return size;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the cached images for the given key or null. */
+	private synchronized Object[] get(Key key) {
+		
+		purge();
+		Object[] images = entries_.get(key);
+		if (images != null)
+			numHits_++;
+		else
+			numMisses_++;
+		return images;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Adds the images computed for the given key and returns the images to use (those of a concurrent request if any). */
+	private synchronized Object[] put(Key key, Object[] images) {
+		
+		purge();
+		Object[] existingImages = entries_.get(key);
+		if (existingImages != null)
+			return existingImages;
+		key.register(queue_);
+		key.size_ = getSizeInBytes(images);
+		entries_.put(key, images);
+		numBytes_ += key.size_;
+		trim(key);
+		return images;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a fingerprint of the given pixels. */
+	private static int fingerprint(float[] pixels) {
+		
+		int h = 1;
+		for (int i = 0; i < pixels.length; i++)
+			h = 31*h + Float.floatToIntBits(pixels[i]);
+		return h;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Computes the Laplacian of the Gaussian filtered combination (1-alpha)*binary + alpha*grayscale normalized to [-255,255]. */
+	private static float[] computeLaplacianImage(FloatProcessor binaryImage, FloatProcessor grayscaleImage, double sigma, double alpha, boolean invert) {
+		
+		int width = binaryImage.getWidth();
+		int height = binaryImage.getHeight();
+		int size = width*height;
+		
+		float[] binaryImageData = (float[])binaryImage.getPixels();
+		float[] grayscaleImageData = (float[])grayscaleImage.getPixels();
+		double[] combinedImageData = new double[size];
+		
+		for(int i=0; i<size; i++){
+			combinedImageData[i] = (1-alpha)*binaryImageData[i]+alpha*grayscaleImageData[i];
+		}
+		
+		FloatProcessor laplacianProcessor = new FloatProcessor(width, height, combinedImageData);
+		if (invert)
+			laplacianProcessor.invert();
+		Filters.applyGaussianFilter(laplacianProcessor, sigma);
+		
+		laplacianProcessor.convolve3x3(LAPLACIAN_KERNEL);
+		laplacianProcessor.resetMinAndMax();
+		laplacianProcessor.multiply(255.0 / Math.max(laplacianProcessor.getMax(), Math.abs(laplacianProcessor.getMin())));
+		
+		return (float[])laplacianProcessor.getPixels();
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the image preintegrated along the y-axis where the sum doesn't include the current pixel. */
+	private static float[] computeExclusivePreintegratedImage(float[] image, int width, int height) {
+		
+		float[] preintegratedImage = new float[width*height];
+		float fuy_val;
+		for(int i=0; i<width; i++){
+			fuy_val = 0;
+			for (int j=0; j<height; j++){
+				preintegratedImage[i+width*j] = fuy_val;
+				fuy_val += image[i+width*j];
+			}
+		}
+		return preintegratedImage;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the image preintegrated along the y-axis where the sum includes the current pixel. */
+	private static double[] computeInclusivePreintegratedImage(float[] image, int width, int height) {
+		
+		double[] preintegratedImage = new double[width*height];
+		double fy_val;
+		for(int x=0; x<width; x++){
+			fy_val = 0.0;
+			for (int y=0; y<height; y++){
+				int index = x+width*y;
+				fy_val += (double)image[index];
+				preintegratedImage[index] = fy_val;
+			}
+		}
+		return preintegratedImage;
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Returns the unique instance of SnakeImageCache. */
+	static public synchronized SnakeImageCache getInstance() {
+		
+		if (instance_ == null)
+			instance_ = new SnakeImageCache();
+		return instance_;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a copy of the given image and the image preintegrated along the y-axis
+	 * (inclusive, double precision) as used by the KiteSnake: {float[], double[]}.
+	 */
+	public Object[] getPreintegratedImage(FloatProcessor image) {
+		
+		Key key = new Key("kite", image, null, new double[0]);
+		Object[] images = get(key);
+		if (images != null)
+			return images;
+		
+		float[] pixels = ((float[])image.getPixels()).clone();
+		images = new Object[] {pixels, computeInclusivePreintegratedImage(pixels, image.getWidth(), image.getHeight())};
+		return put(key, images);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the Laplacian filtered image and its preintegrated version along the
+	 * y-axis (exclusive, single precision) as used by the CompartmentSnake (invert
+	 * is true) and the EmbryoSnake: {float[], float[]}.
+	 */
+	public float[][] getLaplacianImages(FloatProcessor binaryImage, FloatProcessor grayscaleImage, double sigma, double alpha, boolean invert) {
+		
+		Key key = new Key("laplacian", binaryImage, grayscaleImage, new double[] {sigma, alpha, invert ? 1 : 0});
+		Object[] images = get(key);
+		if (images != null)
+			return (float[][])images[0];
+		
+		float[] filteredImage = computeLaplacianImage(binaryImage, grayscaleImage, sigma, alpha, invert);
+		float[] preintegratedImage = computeExclusivePreintegratedImage(filteredImage, binaryImage.getWidth(), binaryImage.getHeight());
+		images = new Object[] {new float[][] {filteredImage, preintegratedImage}};
+		return (float[][])put(key, images)[0];
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the given image downsampled by the given factor (see SnakePyramid).
+	 * The pixels of the image returned are shared and must not be modified.
+	 */
+	public FloatProcessor getDownsampledImage(FloatProcessor image, int factor) {
+		
+		Key key = new Key("downsampled", image, null, new double[] {factor});
+		Object[] images = get(key);
+		if (images == null)
+			images = put(key, new Object[] {SnakePyramid.computeDownsampledImage(image, factor)});
+		
+		float[] pixels = (float[])images[0];
+		return new FloatProcessor(image.getWidth() / factor, image.getHeight() / factor, pixels, null);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Removes all the entries. */
+	public synchronized void clear() {
+		
+		entries_.clear();
+		numBytes_ = 0;
+	}
+	
+	// ============================================================================
+	// INNER CLASSES
+	
+	/** Identifies the source images and filter parameters of an entry. */
+	private static class Key {
+		
+		/** Type of images computed. */
+		private String type_ = null;
+		/** Pixels of the first source image. */
+		private WeakReference<float[]> source1_ = null;
+		/** Pixels of the second source image (may be null). */
+		private WeakReference<float[]> source2_ = null;
+		/** Fingerprints of the source images. */
+		private int fingerprint1_ = 0;
+		private int fingerprint2_ = 0;
+		/** Filter parameters. */
+		private double[] params_ = null;
+		/** Hash code. */
+		private int hash_ = 0;
+		/** Size in bytes of the images of the entry (set when the entry is added). */
+		private long size_ = 0;
+		
+		/** Constructor. */
+		public Key(String type, FloatProcessor image1, FloatProcessor image2, double[] params) {
+			
+			type_ = type;
+			float[] pixels1 = (float[])image1.getPixels();
+			source1_ = new WeakReference<float[]>(pixels1);
+			fingerprint1_ = fingerprint(pixels1);
+			if (image2 != null) {
+				float[] pixels2 = (float[])image2.getPixels();
+				source2_ = new WeakReference<float[]>(pixels2);
+				fingerprint2_ = fingerprint(pixels2);
+			}
+			params_ = params;
+			
+			hash_ = type_.hashCode();
+			hash_ = 31*hash_ + System.identityHashCode(pixels1);
+			hash_ = 31*hash_ + fingerprint1_;
+			hash_ = 31*hash_ + fingerprint2_;
+			hash_ = 31*hash_ + Arrays.hashCode(params_);
+		}
+		
+		/** Registers the references to the source arrays with the given queue (only for the keys added to the cache). */
+		public void register(ReferenceQueue<float[]> queue) {
+			
+			source1_ = new SourceReference(source1_.get(), this, queue);
+			if (source2_ != null)
+				source2_ = new SourceReference(source2_.get(), this, queue);
+		}
+		
+		@Override
+		public int hashCode() { return hash_; }
+		
+		@Override
+		public boolean equals(Object o) {
+			
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			if (hash_ != k.hash_ || !type_.equals(k.type_) || fingerprint1_ != k.fingerprint1_ || fingerprint2_ != k.fingerprint2_)
+				return false;
+			if (source1_.get() == null || source1_.get() != k.source1_.get())
+				return false;
+			if ((source2_ == null) != (k.source2_ == null))
+				return false;
+			if (source2_ != null && (source2_.get() == null || source2_.get() != k.source2_.get()))
+				return false;
+			return Arrays.equals(params_, k.params_);
+		}
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Weak reference to a source array which knows the key of its entry. */
+	private static class SourceReference extends WeakReference<float[]> {
+		
+		/** Key of the entry to remove once the source array has been garbage collected. */
+		private Key key_ = null;
+		
+		/** Constructor. */
+		public SourceReference(float[] source, Key key, ReferenceQueue<float[]> queue) {
+			
+			super(source, queue);
+			key_ = key;
+		}
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Sets the maximum memory in bytes used by the images of the entries. */
+	public synchronized void setMaxNumBytes(long bytes) { maxNumBytes_ = bytes; trim(null); }
+	public synchronized long getMaxNumBytes() { return maxNumBytes_; }
+	/** Returns the memory in bytes used by the images of the entries. */
+	public synchronized long getNumBytes() { return numBytes_; }
+	
+	public synchronized int getNumHits() { return numHits_; }
+	public synchronized int getNumMisses() { return numMisses_; }
+}
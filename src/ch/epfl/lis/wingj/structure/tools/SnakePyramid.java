@@ -0,0 +1,190 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.structure.tools;
+
+import ij.process.FloatProcessor;
+
+import java.awt.geom.Point2D;
+
+import ch.epfl.lis.wingj.WJLog;
+
+import big.ij.snake2D.Snake2D;
+import big.ij.snake2D.Snake2DKeeper;
+import big.ij.snake2D.Snake2DNode;
+
+/** 
+ * Optimizes a snake from coarse to fine resolution.
+ * <p>
+ * Most of the optimization of the KiteSnake, CompartmentSnake and EmbryoSnake is
+ * spent to travel from the initial configuration to the vicinity of the solution.
+ * This is done here on images downsampled by a factor 2^l (l = L-1, ..., 1) whose
+ * preintegrated images are much smaller. The nodes found at each level initialize
+ * the next finer level, and the snake given to optimize() is finally initialized
+ * with the nodes of the finest downsampled level. The optimization at full resolution
+ * is still done by the caller, which doesn't change the interactive workflow.
+ * <p>
+ * Subclasses implement createSnake(), which builds the snake on images downsampled
+ * by the given factor (see downsample(), toCoarse() and toFine()). The pyramid is
+ * not used for images smaller than 2*MIN_SIZE pixels.
+ *
+ * @version October 19, 2026
+ *
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+abstract public class SnakePyramid {
+	
+	/** Maximum downsampling factor. */
+	public static final int MAX_FACTOR = 8;
+	/** Minimum size in pixels of the images at the coarsest level. */
+	public static final int MIN_SIZE = 256;
+	
+	/** Width of the full resolution image. */
+	protected int width_ = 0;
+	/** Height of the full resolution image. */
+	protected int height_ = 0;
+	
+	// ============================================================================
+	// ABSTRACT METHODS
+	
+	/** Creates and builds the snake on the images downsampled by the given factor. */
+	abstract protected Snake2D createSnake(int factor) throws Exception;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Returns copies of the given nodes whose coordinates are converted from (factor > 1) or to (factor < 1) a coarse level. */
+	private static Snake2DNode[] scaleNodes(Snake2DNode[] nodes, double factor) {
+		
+		Snake2DNode[] scaledNodes = new Snake2DNode[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			// pixel centers are preserved by the box downsampling
+			double offset = (factor - 1.) / 2.;
+			scaledNodes[i] = new Snake2DNode(nodes[i].x * factor + offset, nodes[i].y * factor + offset, nodes[i].frozen, nodes[i].hidden);
+		}
+		return scaledNodes;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the pixels of the image downsampled by the given factor by averaging blocks of factor x factor pixels. */
+	static float[] computeDownsampledImage(FloatProcessor image, int factor) {
+		
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int coarseWidth = width / factor;
+		int coarseHeight = height / factor;
+		float[] pixels = (float[]) image.getPixels();
+		float[] coarsePixels = new float[coarseWidth*coarseHeight];
+		
+		float norm = 1f / (factor*factor);
+		for (int y = 0; y < coarseHeight*factor; y++) {
+			int offset = y*width;
+			int coarseOffset = (y/factor)*coarseWidth;
+			for (int x = 0; x < coarseWidth*factor; x++)
+				coarsePixels[coarseOffset + x/factor] += pixels[offset + x];
+		}
+		for (int i = 0; i < coarsePixels.length; i++)
+			coarsePixels[i] *= norm;
+		
+		return coarsePixels;
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor. */
+	public SnakePyramid(int width, int height) {
+		
+		width_ = width;
+		height_ = height;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the downsampling factor of the coarsest level (1 if the pyramid is not used). */
+	public int getCoarsestFactor() {
+		
+		int factor = 1;
+		while (2*factor <= MAX_FACTOR && Math.min(width_, height_) / (2*factor) >= MIN_SIZE)
+			factor *= 2;
+		
+		return factor;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Optimizes the snake from the coarsest level to the finest downsampled level
+	 * and sets the resulting nodes to the given full resolution snake.
+	 */
+	public void optimize(Snake2D snake) throws Exception {
+		
+		int coarsestFactor = getCoarsestFactor();
+		if (coarsestFactor == 1)
+			return;
+		
+		Snake2DKeeper keeper = new Snake2DKeeper();
+		Snake2DNode[] nodes = snake.getNodes();
+		for (int factor = coarsestFactor; factor > 1; factor /= 2) {
+			Snake2D coarseSnake = createSnake(factor);
+			coarseSnake.setNodes(scaleNodes(nodes, 1./factor));
+			keeper.optimize(coarseSnake, null);
+			nodes = scaleNodes(coarseSnake.getNodes(), factor);
+			WJLog.debug("Snake optimized at resolution 1/{}.", factor);
+		}
+		snake.setNodes(nodes);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the image downsampled by the given factor by averaging blocks of factor x factor
+	 * pixels. The pixels are shared through the SnakeImageCache and must not be modified.
+	 */
+	public static FloatProcessor downsample(FloatProcessor image, int factor) {
+		
+		return SnakeImageCache.getInstance().getDownsampledImage(image, factor);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Converts a point from full resolution to the level downsampled by the given factor. */
+	public static Point2D.Double toCoarse(Point2D.Double p, int factor) {
+		
+		double offset = (factor - 1.) / 2.;
+		return new Point2D.Double((p.x - offset) / factor, (p.y - offset) / factor);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Converts a point from the level downsampled by the given factor to full resolution. */
+	public static Point2D.Double toFine(Point2D.Double p, int factor) {
+		
+		double offset = (factor - 1.) / 2.;
+		return new Point2D.Double(p.x * factor + offset, p.y * factor + offset);
+	}
+}
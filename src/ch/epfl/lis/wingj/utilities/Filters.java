@@ -58,9 +58,17 @@ public class Filters {
 	// ----------------------------------------------------------------------------
 
 	/** Directional 1D Gaussian filter. */
-	public static double apply1DGaussianFilterOnDirectionForPoint(float x, float y, Point2D.Double normal, FloatProcessor fp, double sigma) {
+	public static double apply1DGaussianFilterOnDirectionForPoint(float x, float y, Point2D.Double normal, FloatProcessor fp, double sigma) throws Exception {
 		
 		fp.setInterpolationMethod(ImageProcessor.BICUBIC);
+		return apply1DGaussianFilterOnDirectionForPoint(x, y, normal, FloatImageView.create(fp), sigma);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Directional 1D Gaussian filter sampling the given read-only image view (bilinear interpolation). */
+	public static double apply1DGaussianFilterOnDirectionForPoint(float x, float y, Point2D.Double normal, FloatImageView image, double sigma) {
+		
 		double sigma2 = sigma*sigma;
 		double range = 6*sigma;
 		int nSamples = 2*(int)Math.ceil(range)+1;
@@ -71,7 +79,7 @@ public class Filters {
 			double delta = range*(i-0.5-midSample)/(double)nSamples;
 			double xCoord = x+delta*normal.x;
 			double yCoord = y+delta*normal.y;			
-			double pixelValue =  fp.getInterpolatedValue(xCoord, yCoord);
+			double pixelValue =  image.getInterpolatedValue(xCoord, yCoord);
 	   		value += pixelValue*Math.exp(-(delta*delta)/(2.0*sigma2));
 	   		normalization += Math.exp(-(delta*delta)/(2.0*sigma2));
 		}
@@ -0,0 +1,222 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.utilities;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/** 
+ * Read-only view over the pixels of a 32-bit image.
+ * <p>
+ * The quantification of the expression samples the projections at real coordinates
+ * but never modifies them. Instead of duplicating the projection to be able to set
+ * the interpolation method of its processor, the sampling is done directly on the
+ * pixel array of the image through this view, which never writes to it. The array
+ * is shared with the image: the image must not be modified while it is quantified.
+ * <p>
+ * Interpolations follow the conventions of ImageJ (pixel (x,y) at coordinates (x,y))
+ * and all coordinates are bounds-checked.
+ *
+ * @version October 19, 2026
+ *
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public final class FloatImageView {
+	
+	/** Pixels in row-major order (never modified). */
+	private final float[] pixels_;
+	/** Width of the image. */
+	private final int width_;
+	/** Height of the image. */
+	private final int height_;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Returns the value of the pixel (x,y), the coordinates being clamped to the image. */
+	private double getEdgeValue(int x, int y) {
+		
+		if (x < 0) x = 0;
+		if (x >= width_) x = width_-1;
+		if (y < 0) y = 0;
+		if (y >= height_) y = height_-1;
+		return pixels_[y*width_ + x];
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Bilinear interpolation of the four pixels around (x,y) given their values. */
+	private static double bilinear(double xFraction, double yFraction, double lowerLeft, double lowerRight, double upperRight, double upperLeft) {
+		
+		double upperAverage = upperLeft + xFraction * (upperRight - upperLeft);
+		double lowerAverage = lowerLeft + xFraction * (lowerRight - lowerLeft);
+		return lowerAverage + yFraction * (upperAverage - lowerAverage);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Catmull-Rom cubic interpolation kernel. */
+	private static double cubic(double x) {
+		
+		final double a = 0.5;
+		if (x < 0.0) x = -x;
+		double z = 0.0;
+		if (x < 1.0)
+			z = x*x*(x*(-a+2.0) + (a-3.0)) + 1.0;
+		else if (x < 2.0)
+			z = -a*x*x*x + 5.0*a*x*x - 8.0*a*x + 4.0*a;
+		return z;
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor. The given array is not copied. */
+	public FloatImageView(float[] pixels, int width, int height) throws Exception {
+		
+		if (pixels == null)
+			throw new Exception("ERROR: Pixels array is null.");
+		if (width < 1 || height < 1 || pixels.length < width*height)
+			throw new Exception("ERROR: Invalid image dimensions.");
+		
+		pixels_ = pixels;
+		width_ = width;
+		height_ = height;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a view over the pixels of the given processor. The pixels of 32-bit
+	 * processors are not copied, the other processors are converted to 32-bit.
+	 */
+	public static FloatImageView create(ImageProcessor ip) throws Exception {
+		
+		if (ip == null)
+			throw new Exception("ERROR: ImageProcessor is null.");
+		
+		if (!(ip instanceof FloatProcessor))
+			ip = ip.convertToFloat();
+		return new FloatImageView((float[]) ip.getPixels(), ip.getWidth(), ip.getHeight());
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the value of the pixel (x,y) or NaN if (x,y) is outside the image. */
+	public double getPixelValue(int x, int y) {
+		
+		if (x >= 0 && x < width_ && y >= 0 && y < height_)
+			return pixels_[y*width_ + x];
+		return Float.NaN;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the bilinear interpolated value at (x,y). Pixels outside the image take
+	 * the value of the closest edge pixel and 0 is returned if (x,y) is more than one
+	 * pixel away from the image. Same as ImageProcessor.getInterpolatedValue().
+	 */
+	public double getInterpolatedValue(double x, double y) {
+		
+		if (x < -1.0 || y < -1.0 || x >= width_ || y >= height_)
+			return 0.0;
+		
+		if (x < 0.0 || y < 0.0 || x >= width_-1.0 || y >= height_-1.0) {
+			int xbase = (int)Math.floor(x);
+			int ybase = (int)Math.floor(y);
+			double xFraction = Math.max(0.0, x - xbase);
+			double yFraction = Math.max(0.0, y - ybase);
+			return bilinear(xFraction, yFraction, getEdgeValue(xbase, ybase), getEdgeValue(xbase+1, ybase),
+					getEdgeValue(xbase+1, ybase+1), getEdgeValue(xbase, ybase+1));
+		}
+		
+		int xbase = (int)x;
+		int ybase = (int)y;
+		int offset = ybase*width_ + xbase;
+		return bilinear(x - xbase, y - ybase, pixels_[offset], pixels_[offset+1],
+				pixels_[offset+width_+1], pixels_[offset+width_]);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the bilinear interpolated value at (x,y), the coordinates being clamped
+	 * to the image. Returns 0 if (x,y) is more than one pixel away from the image.
+	 */
+	public double getBilinearInterpolatedPixel(double x, double y) {
+		
+		if (x < -1.0 || y < -1.0 || x >= width_ || y >= height_)
+			return 0.0;
+		
+		if (x < 0.0) x = 0.0;
+		if (x >= width_-1.0) x = width_-1.001;
+		if (y < 0.0) y = 0.0;
+		if (y >= height_-1.0) y = height_-1.001;
+		
+		int xbase = (int)x;
+		int ybase = (int)y;
+		int x1 = Math.min(xbase+1, width_-1); // for images of width or height 1
+		int y1 = Math.min(ybase+1, height_-1);
+		return bilinear(x - xbase, y - ybase, pixels_[ybase*width_ + xbase], pixels_[ybase*width_ + x1],
+				pixels_[y1*width_ + x1], pixels_[y1*width_ + xbase]);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the bicubic (Catmull-Rom) interpolated value at (x,y). Falls back to the
+	 * bilinear interpolation within two pixels of the borders of the image, as
+	 * ImageProcessor.getInterpolatedPixel() with the BICUBIC interpolation method.
+	 */
+	public double getBicubicInterpolatedPixel(double x, double y) {
+		
+		int u0 = (int)Math.floor(x);
+		int v0 = (int)Math.floor(y);
+		if (u0 <= 0 || v0 <= 0 || u0 >= width_-2 || v0 >= height_-2)
+			return getBilinearInterpolatedPixel(x, y);
+		
+		double q = 0.;
+		for (int j = 0; j <= 3; j++) {
+			int v = v0 - 1 + j;
+			int offset = v*width_;
+			double p = 0.;
+			for (int i = 0; i <= 3; i++) {
+				int u = u0 - 1 + i;
+				p += pixels_[offset + u] * cubic(x - u);
+			}
+			q += p * cubic(y - v);
+		}
+		return q;
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getWidth() { return width_; }
+	public int getHeight() { return height_; }
+}
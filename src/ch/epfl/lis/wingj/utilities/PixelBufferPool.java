@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2010-2013 Thomas Schaffter & Ricard Delgado-Gonzalo
+
+We release this software open source under a Creative Commons Attribution
+-NonCommercial 3.0 Unported License. Please cite the papers listed on 
+http://lis.epfl.ch/wingj when using WingJ in your publication.
+
+For commercial use, please contact Thomas Schaffter 
+(thomas.schaff...@gmail.com).
+
+A brief description of the license is available at 
+http://creativecommons.org/licenses/by-nc/3.0/ and the full license at 
+http://creativecommons.org/licenses/by-nc/3.0/legalcode.
+
+The above copyright notice and this permission notice shall be included 
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.wingj.utilities;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/** 
+ * Pool of float and byte pixel buffers reused by the detection and quantification modules.
+ * <p>
+ * Most steps of the structure detection and of the expression quantification work on a
+ * temporary full-size copy of an image which is discarded at the end of the step. In batch
+ * runs, these multi-megabyte allocations are repeated for every image and keep the garbage
+ * collector busy. Buffers are acquired for a given number of pixels and must be released
+ * once they are not used anymore, typically in a finally block:
+ * <pre>
+ * float[] buffer = pool.acquireFloatBuffer(width*height, false);
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(buffer);
+ * }
+ * </pre>
+ * A buffer MUST NOT be used or referenced (e.g. by an ImageProcessor) after being released.
+ * At most MAX_NUM_BUFFERS_PER_SIZE buffers are kept for each size and they are softly
+ * referenced, so that the pool never prevents the JVM from reclaiming memory. A buffer
+ * which is never released is simply garbage collected.
+ *
+ * @version October 19, 2026
+ *
+ * @author Thomas Schaffter (thomas.schaff...@gmail.com)
+ */
+public class PixelBufferPool {
+	
+	/** Maximum number of free buffers kept for each buffer type and size. */
+	public static final int MAX_NUM_BUFFERS_PER_SIZE = 4;
+	
+	/** Unique instance. */
+	private static PixelBufferPool instance_ = null;
+	
+	/** Free float buffers indexed by their length. */
+	private Map<Integer, LinkedList<SoftReference<float[]>>> floatBuffers_ = new HashMap<Integer, LinkedList<SoftReference<float[]>>>();
+	/** Free byte buffers indexed by their length. */
+	private Map<Integer, LinkedList<SoftReference<byte[]>>> byteBuffers_ = new HashMap<Integer, LinkedList<SoftReference<byte[]>>>();
+	
+	/** Number of buffers reused. */
+	private int numHits_ = 0;
+	/** Number of buffers allocated. */
+	private int numMisses_ = 0;
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Default constructor. */
+	private PixelBufferPool() {}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Removes and returns a free buffer of the given length or null. Cleared references are discarded. */
+	private static <T> T poll(Map<Integer, LinkedList<SoftReference<T>>> buffers, int length) {
+		
+		LinkedList<SoftReference<T>> list = buffers.get(length);
+		if (list == null)
+			return null;
+		
+		T buffer = null;
+		while (buffer == null && !list.isEmpty())
+			buffer = list.removeFirst().get();
+		return buffer;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Adds the given buffer to the free buffers of its length (ignored if already present or if the list is full). */
+	private static <T> void offer(Map<Integer, LinkedList<SoftReference<T>>> buffers, T buffer, int length) {
+		
+		LinkedList<SoftReference<T>> list = buffers.get(length);
+		if (list == null) {
+			list = new LinkedList<SoftReference<T>>();
+			buffers.put(length, list);
+		}
+		
+		Iterator<SoftReference<T>> it = list.iterator();
+		while (it.hasNext()) {
+			T b = it.next().get();
+			if (b == null)
+				it.remove();
+			else if (b == buffer)
+				return; // released twice
+		}
+		if (list.size() < MAX_NUM_BUFFERS_PER_SIZE)
+			list.addFirst(new SoftReference<T>(buffer));
+	}
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Returns Singleton instance. */
+	static public synchronized PixelBufferPool getInstance() {
+		
+		if (instance_ == null)
+			instance_ = new PixelBufferPool();
+		
+		return instance_;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a float buffer of the given length. If clear is false, the content of the buffer is undefined. */
+	public synchronized float[] acquireFloatBuffer(int length, boolean clear) {
+		
+		float[] buffer = poll(floatBuffers_, length);
+		if (buffer == null) {
+			numMisses_++;
+			return new float[length];
+		}
+		numHits_++;
+		if (clear)
+			Arrays.fill(buffer, 0f);
+		return buffer;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a byte buffer of the given length. If clear is false, the content of the buffer is undefined. */
+	public synchronized byte[] acquireByteBuffer(int length, boolean clear) {
+		
+		byte[] buffer = poll(byteBuffers_, length);
+		if (buffer == null) {
+			numMisses_++;
+			return new byte[length];
+		}
+		numHits_++;
+		if (clear)
+			Arrays.fill(buffer, (byte)0);
+		return buffer;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a float buffer containing a copy of the given pixels. */
+	public float[] acquireFloatCopy(float[] pixels) {
+		
+		float[] buffer = acquireFloatBuffer(pixels.length, false);
+		System.arraycopy(pixels, 0, buffer, 0, pixels.length);
+		return buffer;
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Gives back the given float buffer to the pool (null is ignored). */
+	public synchronized void release(float[] buffer) {
+		
+		if (buffer != null)
+			offer(floatBuffers_, buffer, buffer.length);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Gives back the given byte buffer to the pool (null is ignored). */
+	public synchronized void release(byte[] buffer) {
+		
+		if (buffer != null)
+			offer(byteBuffers_, buffer, buffer.length);
+	}
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Removes all the free buffers. */
+	public synchronized void clear() {
+		
+		floatBuffers_.clear();
+		byteBuffers_.clear();
+	}
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public synchronized int getNumHits() { return numHits_; }
+	public synchronized int getNumMisses() { return numMisses_; }
+}